@@ -31,6 +31,9 @@ import static imatic8.Im8RelayInfo.RELAY_ALL_OFF;
 import static imatic8.Im8RelayInfo.RELAY_ALL_ON;
 import static imatic8.Im8RelayInfo.RELAY_OFF;
 import static imatic8.Im8RelayInfo.RELAY_ON;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Class to perform an action with the board, basically connect, send-message,
@@ -51,11 +54,17 @@ class Im8Action {
     /** ON or OFF action */
     Im8ProcessArgs.ArgType action;
 
-    /** 1-8 or -1 for ALL, or the pause time value in seconds */
+    /**
+     * 1-8 or -1 for ALL, the pause time value in seconds, or the relay states
+     * mask of a scene
+     */
     int valueForAction;
 
     Im8Io m8Io;
 
+    /** the shared frame sent to the board for an ON or OFF action */
+    private byte[] frameArr = null;
+
     Im8Action(Im8Io m8Io, int boardN, Im8ProcessArgs.ArgType action, int valueForAction) {
         this.boardN = boardN;
         this.action = action;
@@ -64,6 +73,48 @@ class Im8Action {
 
         // the board controller object have already been set up so
         this.boardController = Im8BoardController.createReuseBoardNFromINI(m8Io, boardN);
+
+        if (action == Im8ProcessArgs.ArgType.ON || action == Im8ProcessArgs.ArgType.OFF) {
+            this.frameArr = Im8FrameCodec.getFrame(getRelayInfo(), valueForAction);
+        }
+    }
+
+    /**
+     * Create the action of a compiled program for a run of the program, with
+     * the validated values and encoded frame of the compiled action.
+     *
+     * @param compiledAction the action of the compiled program
+     * @param m8IoP          the IO object of the run
+     */
+    private Im8Action(Im8Action compiledAction, Im8Io m8IoP) {
+        this.boardN = compiledAction.boardN;
+        this.action = compiledAction.action;
+        this.valueForAction = compiledAction.valueForAction;
+        this.frameArr = compiledAction.frameArr;
+        this.m8Io = m8IoP;
+
+        // the board may have been defined again since the compile
+        this.boardController = Im8BoardController.createReuseBoardNFromINI(m8IoP, this.boardN);
+    }
+
+    /**
+     * Get this action of a compiled program bound to the IO object of a run.
+     *
+     * @param m8IoP the IO object of the run
+     *
+     * @return action for the run
+     */
+    Im8Action bindToIo(Im8Io m8IoP) {
+        return new Im8Action(this, m8IoP);
+    }
+
+    /**
+     * Get the board number the action is for.
+     *
+     * @return integer board N value
+     */
+    int getBoardNumber() {
+        return this.boardN;
     }
 
     /**
@@ -77,14 +128,14 @@ class Im8Action {
     byte[] setRelayOn(boolean closeConnectionOnCompletion) {
         int relayNumber = this.valueForAction;
 
-        Im8RelayInfo actionL;
-        if (relayNumber == -1) {
-            actionL = RELAY_ALL_ON;
-        } else {
-            actionL = RELAY_ON;
-        }
         // send the message
-        return boardController.sendMessage2TheBoard(actionL, relayNumber, closeConnectionOnCompletion);
+        this.boardController.lockBoard();
+        try {
+            return boardController.sendMessage2TheBoard(this.m8Io, this.frameArr, relayNumber,
+                    closeConnectionOnCompletion);
+        } finally {
+            this.boardController.unlockBoard();
+        }
     }
 
     /**
@@ -98,19 +149,232 @@ class Im8Action {
     byte[] setRelayOff(boolean closeConnectionOnCompletion) {
         int relayNumber = this.valueForAction;
 
-        Im8RelayInfo actionL;
-        if (relayNumber == -1) {
-            actionL = RELAY_ALL_OFF;
-        } else {
-            actionL = RELAY_OFF;
-        }
         // send the message
-        return boardController.sendMessage2TheBoard(actionL, relayNumber, closeConnectionOnCompletion);
+        this.boardController.lockBoard();
+        try {
+            return boardController.sendMessage2TheBoard(this.m8Io, this.frameArr, relayNumber,
+                    closeConnectionOnCompletion);
+        } finally {
+            this.boardController.unlockBoard();
+        }
+    }
+
+    /**
+     * Get the relay action code for this ON or OFF action.
+     *
+     * @return the relay info of the action
+     */
+    Im8RelayInfo getRelayInfo() {
+        if (this.action == Im8ProcessArgs.ArgType.ON) {
+            return this.valueForAction == -1 ? RELAY_ALL_ON : RELAY_ON;
+        }
+        return this.valueForAction == -1 ? RELAY_ALL_OFF : RELAY_OFF;
+    }
+
+    /**
+     * Set the relays of a batch of ON/OFF actions for the same board, with the
+     * frames of all the actions sent in a single write.
+     *
+     * @param batchList                   actions of the batch, in order
+     * @param closeConnectionOnCompletion true if the last action of the batch
+     *                                    is the last request in the sequence
+     *
+     * @return true if every action had a response, otherwise false
+     */
+    static boolean setRelaysBatch(List<Im8Action> batchList, boolean closeConnectionOnCompletion) {
+        byte[][] frameArr = getFrameArr(batchList);
+        int[] relayNumberArr = getRelayNumberArr(batchList);
+
+        // send the messages
+        Im8Action firstAction = batchList.get(0);
+        firstAction.boardController.lockBoard();
+        try {
+            return firstAction.boardController.sendBatch2TheBoard(firstAction.m8Io, frameArr, relayNumberArr,
+                    closeConnectionOnCompletion);
+        } finally {
+            firstAction.boardController.unlockBoard();
+        }
+    }
+
+    /**
+     * Set the relays of a run of ON/OFF actions for the same board, with the
+     * frames sent pipelined.
+     *
+     * @param runList                     actions of the run, in order
+     * @param closeConnectionOnCompletion true if the last action of the run is
+     *                                    the last request in the sequence
+     *
+     * @return true if every action had a response, otherwise false
+     */
+    static boolean setRelaysPipelined(List<Im8Action> runList, boolean closeConnectionOnCompletion) {
+        byte[][] frameArr = getFrameArr(runList);
+        int[] relayNumberArr = getRelayNumberArr(runList);
+
+        // send the messages
+        Im8Action firstAction = runList.get(0);
+        firstAction.boardController.lockBoard();
+        try {
+            return firstAction.boardController.sendPipelined2TheBoard(firstAction.m8Io, frameArr, relayNumberArr,
+                    closeConnectionOnCompletion);
+        } finally {
+            firstAction.boardController.unlockBoard();
+        }
+    }
+
+    /**
+     * Set the relays of a run of ON/OFF actions for the same board to the
+     * states the run ends with, sending only the frames that change the
+     * recorded relay states&#46; Nothing is sent if the board is already in
+     * those states.
+     *
+     * @param runList                     actions of the run, in order
+     * @param closeConnectionOnCompletion true if the last action of the run is
+     *                                    the last request in the sequence
+     *
+     * @return true if every frame sent had a response, otherwise false
+     */
+    static boolean setRelaysConverged(List<Im8Action> runList, boolean closeConnectionOnCompletion) {
+        Im8Action firstAction = runList.get(0);
+        Im8BoardController boardCtrl = firstAction.boardController;
+
+        boardCtrl.lockBoard();
+        try {
+            byte currentMask = boardCtrl.getRelayMask(firstAction.m8Io);
+            byte targetMask = currentMask;
+            for (Im8Action imaticAction : runList) {
+                targetMask = imaticAction.applyToMask(targetMask);
+            }
+            byte[][] frameArr = Im8FrameCodec.planFrames(currentMask, targetMask);
+
+            if (frameArr.length == 0) {
+                // already in the requested states
+                if (closeConnectionOnCompletion) {
+                    return boardCtrl.closeCommunication(firstAction.m8Io, false);
+                }
+                return true;
+            }
+            return boardCtrl.sendBatch2TheBoard(firstAction.m8Io, frameArr,
+                    Im8FrameCodec.getRelayNumberArr(frameArr), closeConnectionOnCompletion);
+        } finally {
+            boardCtrl.unlockBoard();
+        }
+    }
+
+    /**
+     * Set the relays of the board to the states of this scene action, sending
+     * only the frames that change the recorded relay states, and report the
+     * board's success&#46; This is one board of a scene; the scene as a whole
+     * is not atomic, so this board's states are kept whether or not the
+     * other boards of the scene succeed.
+     *
+     * @param m8IoP                       the IO object for the board's messages
+     * @param closeConnectionOnCompletion true to close the connection after
+     *
+     * @return true if the board is in the scene's states
+     */
+    boolean applyScene(Im8Io m8IoP, boolean closeConnectionOnCompletion) {
+        this.boardController.lockBoard();
+        try {
+            byte currentMask = this.boardController.getRelayMask(m8IoP);
+            byte[][] frameArr = Im8FrameCodec.planFrames(currentMask, (byte) this.valueForAction);
+
+            boolean success;
+            if (frameArr.length == 0) {
+                success = !closeConnectionOnCompletion
+                        || this.boardController.closeCommunication(m8IoP, false);
+            } else {
+                success = this.boardController.sendBatch2TheBoard(m8IoP, frameArr,
+                        Im8FrameCodec.getRelayNumberArr(frameArr), closeConnectionOnCompletion);
+            }
+            if (success) {
+                m8IoP.out(0).sprintf("Scene:b-%d:ok\n", this.boardN);
+            }
+            return success;
+        } finally {
+            this.boardController.unlockBoard();
+        }
+    }
+
+    /**
+     * Hand a run of ON/OFF actions for the same board to the board's debounce
+     * window or, if not debounced, to the board's command queue.
+     *
+     * @param runList actions of the run, in order
+     *
+     * @return future completed with the IO object of the send, which has any
+     *         error of the send
+     */
+    static CompletableFuture<Im8Io> submitRelays(List<Im8Action> runList) {
+        int setBits = 0;
+        int onBits = 0;
+        for (Im8Action imaticAction : runList) {
+            int actionBits = imaticAction.valueForAction == -1 ? 0xff : 1 << (imaticAction.valueForAction - 1);
+
+            setBits |= actionBits;
+            onBits = imaticAction.applyToMask((byte) onBits) & 0xff;
+        }
+        Im8Action firstAction = runList.get(0);
+        if (firstAction.m8Io.getDebounceMillis() > 0) {
+            return Im8Debouncer.submit(firstAction.m8Io, firstAction.boardController, setBits, onBits,
+                    firstAction.m8Io.getDebounceMillis());
+        }
+        return Im8BoardQueue.submit(firstAction.m8Io, firstAction.boardController, setBits, onBits);
+    }
+
+    /**
+     * Get the longest a caller waits for a run handed to the board's debounce
+     * window or command queue: the window or the queue deadline, and then the
+     * send.
+     *
+     * @param m8IoP the IO object of the run
+     *
+     * @return milliseconds
+     */
+    static long getSubmitWaitMillis(Im8Io m8IoP) {
+        if (m8IoP.getDebounceMillis() > 0) {
+            return m8IoP.getDebounceMillis() + Im8BoardQueue.SEND_WAIT_MILLIS;
+        }
+        return Im8BoardQueue.getWaitMillis();
+    }
+
+    /**
+     * Apply this ON or OFF action to a mask of relay states.
+     *
+     * @param relayMask relay states before the action
+     *
+     * @return relay states after the action
+     */
+    private byte applyToMask(byte relayMask) {
+        boolean relayOn = this.action == Im8ProcessArgs.ArgType.ON;
+
+        if (this.valueForAction == -1) {
+            return relayOn ? (byte) 0xff : 0;
+        }
+        int bit = 1 << (this.valueForAction - 1);
+        return (byte) (relayOn ? relayMask | bit : relayMask & ~bit);
+    }
+
+    private static byte[][] getFrameArr(List<Im8Action> actionList) {
+        byte[][] frameArr = new byte[actionList.size()][];
+        for (int i = 0; i < frameArr.length; i++) {
+            frameArr[i] = actionList.get(i).frameArr;
+        }
+        return frameArr;
+    }
+
+    private static int[] getRelayNumberArr(List<Im8Action> actionList) {
+        int[] relayNumberArr = new int[actionList.size()];
+        for (int i = 0; i < relayNumberArr.length; i++) {
+            relayNumberArr[i] = actionList.get(i).valueForAction;
+        }
+        return relayNumberArr;
     }
 
     /**
      * Method to do a timer action as Java usually reports issues with a timer
-     * in a loop.
+     * in a loop&#46; The wait is on the timer wheel rather than a sleep, and
+     * no lock is held for it: on a virtual thread the wait parks the virtual
+     * thread and frees its carrier until the wheel completes the delay.
      *
      * @param closeConnectionOnCompletion true if this is the last request in
      *                                    the a sequence
@@ -121,12 +385,26 @@ class Im8Action {
         try {
             // this is a timer delay between other actions
             // all timer values have been changed to milliseconds
-            Thread.sleep(millisecond);
-        } catch (InterruptedException ex) {
+            Im8TimerWheel.getInstance().delay(millisecond).get();
+        } catch (InterruptedException | ExecutionException ex) {
             // nothing we can do
         }
         if (closeConnectionOnCompletion) {
-            this.boardController.closeCommunication(false);
+            releaseConnection();
+        }
+    }
+
+    /**
+     * Close the connection to the board (or return it to the keep-alive pool),
+     * as a timer action is the last request in the sequence or is a long
+     * pause&#46; The next action for the board opens a connection again.
+     */
+    void releaseConnection() {
+        this.boardController.lockBoard();
+        try {
+            this.boardController.closeCommunication(this.m8Io, false);
+        } finally {
+            this.boardController.unlockBoard();
         }
     }
 
@@ -148,10 +426,15 @@ class Im8Action {
      *                                    the a sequence
      */
     void statusReport(boolean closeConnectionOnCompletion) {
-        this.boardController.reportRelayStates();
+        this.boardController.lockBoard();
+        try {
+            this.boardController.reportRelayStates(this.m8Io);
 
-        if (closeConnectionOnCompletion) {
-            this.boardController.closeCommunication(false);
+            if (closeConnectionOnCompletion) {
+                this.boardController.closeCommunication(this.m8Io, false);
+            }
+        } finally {
+            this.boardController.unlockBoard();
         }
     }
 }
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import static imatic8.Im8Io.ErrorKind.CRITICAL;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class that keeps the relay states and addresses of all boards in a single
+ * memory-mapped binary file, rather than a properties file per board.
+ * <p>
+ * The file is fixed size records, one per board-N at offset N * 8:
+ * <pre>
+ * [0]    relay bit-mask (bit 0 = relay 1 ... bit 7 = relay 8, 1 = on)
+ * [1..4] IPv4 address, most significant byte first
+ * [5..6] port number, most significant byte first
+ * [7]    flags (1 = defined, 2 = address set)
+ * </pre> A relay state update is a single byte store into the mapped file, so
+ * it costs the same for any number of boards and needs no parse or format.
+ * A board defined ('defip-N') with this store has its record only and no INI
+ * file, and its address is read from the record rather than the INI file&#46;
+ * The record of a board that has an INI file is set up from the INI file on
+ * first use.
+ * <p>
+ * In write-behind mode the store is forced to the storage device on a flush
+ * when the fsync policy is set, as for the INI files.
+ *
+ * @author dbradley
+ */
+class Im8BinaryStateStore implements Im8StateBackend {
+
+    /** The binary state file name (in the INI file directory). */
+    static final String STATE_FILE_NAME = "Imatic8Record.bin";
+
+    private static final int RECORD_SIZE = 8;
+
+    private static final int MASK_OFFSET = 0;
+    private static final int ADDR_OFFSET = 1;
+    private static final int PORT_OFFSET = 5;
+    private static final int FLAGS_OFFSET = 7;
+
+    private static final int ADDR_LENGTH = 4;
+
+    private static final byte FLAG_DEFINED = 1;
+    private static final byte FLAG_ADDRESS = 2;
+
+    /** the file grows by this many board records at a time */
+    private static final int GROW_BOARD_COUNT = 256;
+
+    /**
+     * key: absolute path of a binary state file
+     *
+     * element: the store for the file
+     */
+    private final static ConcurrentHashMap<String, Im8BinaryStateStore> storeHash = new ConcurrentHashMap<>();
+
+    private final File stateFile;
+
+    private MappedByteBuffer mappedBuffer = null;
+
+    private int boardCapacity = 0;
+
+    private Im8BinaryStateStore(File stateFileP) {
+        this.stateFile = stateFileP;
+    }
+
+    /**
+     * Get the binary state store for the INI file directory in use.
+     *
+     * @return the store object
+     */
+    static Im8BinaryStateStore getStore() {
+        File stateFileL = new File(Im8Io.getUserDir(), STATE_FILE_NAME);
+        String storeKey = stateFileL.getAbsolutePath();
+
+        Im8BinaryStateStore store = storeHash.get(storeKey);
+        if (store == null) {
+            Im8BinaryStateStore nuStore = new Im8BinaryStateStore(stateFileL);
+
+            store = storeHash.putIfAbsent(storeKey, nuStore);
+            if (store == null) {
+                store = nuStore;
+            }
+        }
+        return store;
+    }
+
+    @Override
+    public boolean storeRelayMask(Im8Io m8Io, Im8BoardController boardCtrl, byte relayMask) {
+        synchronized (this) {
+            int recordIndex = getBoardRecord(m8Io, boardCtrl);
+            if (recordIndex < 0) {
+                return false;
+            }
+            this.mappedBuffer.put(recordIndex + MASK_OFFSET, relayMask);
+        }
+        if (m8Io.isWriteBehind()) {
+            Im8StatePersister.markDirty(m8Io, this);
+        }
+        return true;
+    }
+
+    @Override
+    public byte loadRelayMask(Im8Io m8Io, Im8BoardController boardCtrl) {
+        synchronized (this) {
+            int recordIndex = getBoardRecord(m8Io, boardCtrl);
+            if (recordIndex < 0) {
+                return Im8RelayState.ALL_OFF_MASK;
+            }
+            return this.mappedBuffer.get(recordIndex + MASK_OFFSET);
+        }
+    }
+
+    /**
+     * Store the address of a board into its record, defining the board with
+     * all relays off if the record is new.
+     *
+     * @param m8Io     IO object for error messages
+     * @param boardN   board number
+     * @param ipV4Addr IP address, nnn.nnn.nnn.nnn
+     * @param portNo   port number
+     *
+     * @return true if stored
+     */
+    boolean storeAddress(Im8Io m8Io, int boardN, String ipV4Addr, int portNo) {
+        synchronized (this) {
+            if (!ensureCapacity(m8Io, boardN)) {
+                return false;
+            }
+            int recordIndex = boardN * RECORD_SIZE;
+            byte flags = this.mappedBuffer.get(recordIndex + FLAGS_OFFSET);
+
+            if ((flags & FLAG_DEFINED) == 0) {
+                this.mappedBuffer.put(recordIndex + MASK_OFFSET, Im8RelayState.ALL_OFF_MASK);
+            }
+            if (!putAddress(recordIndex, ipV4Addr, portNo)) {
+                return false;
+            }
+            this.mappedBuffer.put(recordIndex + FLAGS_OFFSET, (byte) (flags | FLAG_DEFINED | FLAG_ADDRESS));
+        }
+        // a define is kept, as an INI file define is
+        return force(m8Io);
+    }
+
+    /**
+     * Get the IP address of a board from its record.
+     *
+     * @param m8Io   IO object for error messages
+     * @param boardN board number
+     *
+     * @return nnn.nnn.nnn.nnn, null if the record has no address
+     */
+    synchronized String loadIpV4Addr(Im8Io m8Io, int boardN) {
+        int recordIndex = getAddressRecord(m8Io, boardN);
+        if (recordIndex < 0) {
+            return null;
+        }
+        StringBuilder addrBuilder = new StringBuilder();
+        for (int i = 0; i < ADDR_LENGTH; i++) {
+            if (i > 0) {
+                addrBuilder.append('.');
+            }
+            addrBuilder.append(this.mappedBuffer.get(recordIndex + ADDR_OFFSET + i) & 0xff);
+        }
+        return addrBuilder.toString();
+    }
+
+    /**
+     * Get the port number of a board from its record.
+     *
+     * @param m8Io   IO object for error messages
+     * @param boardN board number
+     *
+     * @return port number, -1 if the record has no address
+     */
+    synchronized int loadPortNo(Im8Io m8Io, int boardN) {
+        int recordIndex = getAddressRecord(m8Io, boardN);
+        if (recordIndex < 0) {
+            return -1;
+        }
+        return this.mappedBuffer.getShort(recordIndex + PORT_OFFSET) & 0xffff;
+    }
+
+    /**
+     * Get the addresses of the boards that have one in their record, for the
+     * 'defip' query.
+     *
+     * @param m8Io IO object for error messages
+     *
+     * @return 'nnn.nnn.nnn.nnn:port' keyed by board number
+     */
+    synchronized TreeMap<Integer, String> getAddresses(Im8Io m8Io) {
+        TreeMap<Integer, String> addressHash = new TreeMap<>();
+        if (!ensureCapacity(m8Io, 0)) {
+            return addressHash;
+        }
+        for (int boardN = 1; boardN < this.boardCapacity; boardN++) {
+            if (getAddressRecord(m8Io, boardN) >= 0) {
+                addressHash.put(boardN, loadIpV4Addr(m8Io, boardN) + ":" + loadPortNo(m8Io, boardN));
+            }
+        }
+        return addressHash;
+    }
+
+    /**
+     * Get the index of a board's record if it has an address, without growing
+     * the file for a board beyond it.
+     *
+     * @param m8Io   IO object for error messages
+     * @param boardN board number
+     *
+     * @return index of the record, -1 if there is no address for the board
+     */
+    private int getAddressRecord(Im8Io m8Io, int boardN) {
+        if (!ensureCapacity(m8Io, 0) || boardN >= this.boardCapacity) {
+            return -1;
+        }
+        int recordIndex = boardN * RECORD_SIZE;
+        if ((this.mappedBuffer.get(recordIndex + FLAGS_OFFSET) & FLAG_ADDRESS) == 0) {
+            return -1;
+        }
+        return recordIndex;
+    }
+
+    /**
+     * Put an address into a record.
+     *
+     * @param recordIndex index of the record
+     * @param ipV4Addr    IP address, nnn.nnn.nnn.nnn
+     * @param portNo      port number
+     *
+     * @return false if the address is not nnn.nnn.nnn.nnn, as an INI file
+     *         edited by hand may have
+     */
+    private boolean putAddress(int recordIndex, String ipV4Addr, int portNo) {
+        String[] addrPartArr = ipV4Addr.split("\\.");
+        if (addrPartArr.length != ADDR_LENGTH) {
+            return false;
+        }
+        byte[] addrArr = new byte[ADDR_LENGTH];
+        try {
+            for (int i = 0; i < ADDR_LENGTH; i++) {
+                int value = Integer.parseInt(addrPartArr[i]);
+                if (value < 0 || value > 255) {
+                    return false;
+                }
+                addrArr[i] = (byte) value;
+            }
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+        for (int i = 0; i < ADDR_LENGTH; i++) {
+            this.mappedBuffer.put(recordIndex + ADDR_OFFSET + i, addrArr[i]);
+        }
+        this.mappedBuffer.putShort(recordIndex + PORT_OFFSET, (short) portNo);
+        return true;
+    }
+
+    /**
+     * Force the stored relay states to the storage device&#46; The force is
+     * done outside the store's lock so state updates are not held up by it.
+     *
+     * @param m8Io IO object for error messages
+     *
+     * @return true if forced, or nothing mapped to force
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    boolean force(Im8Io m8Io) {
+        MappedByteBuffer buffer;
+        synchronized (this) {
+            buffer = this.mappedBuffer;
+        }
+        if (buffer == null) {
+            return true;
+        }
+        try {
+            buffer.force();
+
+        } catch (RuntimeException ex) {
+            // an I/O error of the force
+            ex.printStackTrace();
+            m8Io.err(-99).sprintln(CRITICAL, "IO error state file, see trace.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the index of a board's record in the mapped file, setting up the
+     * record from the board's INI file (and the address the board was loaded
+     * with) the first time.
+     *
+     * @param m8Io      IO object for error messages
+     * @param boardCtrl the board controller
+     *
+     * @return index of the record, -1 if the file could not be mapped
+     */
+    private int getBoardRecord(Im8Io m8Io, Im8BoardController boardCtrl) {
+        int boardN = boardCtrl.getBoardNumber();
+
+        if (!ensureCapacity(m8Io, boardN)) {
+            return -1;
+        }
+        int recordIndex = boardN * RECORD_SIZE;
+
+        byte flags = this.mappedBuffer.get(recordIndex + FLAGS_OFFSET);
+        if ((flags & FLAG_DEFINED) == 0) {
+            // take on the states from the INI file
+            this.mappedBuffer.put(recordIndex + MASK_OFFSET,
+                    Im8IniStateBackend.INI_BACKEND.loadRelayMask(m8Io, boardCtrl));
+            flags |= FLAG_DEFINED;
+        }
+        String ipV4Addr = boardCtrl.getIpV4Addr();
+        if ((flags & FLAG_ADDRESS) == 0 && ipV4Addr != null
+                && putAddress(recordIndex, ipV4Addr, boardCtrl.getPortNo())) {
+            // from here on the address is read from the record
+            flags |= FLAG_ADDRESS;
+        }
+        this.mappedBuffer.put(recordIndex + FLAGS_OFFSET, flags);
+        return recordIndex;
+    }
+
+    /**
+     * Map the state file so it has a record for the board.
+     *
+     * @param m8Io   IO object for error messages
+     * @param boardN board number
+     *
+     * @return true if mapped
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    private boolean ensureCapacity(Im8Io m8Io, int boardN) {
+        if (boardN < this.boardCapacity) {
+            return true;
+        }
+        int nuCapacity = (boardN / GROW_BOARD_COUNT + 1) * GROW_BOARD_COUNT;
+
+        try (RandomAccessFile raFile = new RandomAccessFile(this.stateFile, "rw")) {
+            long nuLength = (long) nuCapacity * RECORD_SIZE;
+            if (raFile.length() < nuLength) {
+                raFile.setLength(nuLength);
+            } else {
+                nuCapacity = (int) (raFile.length() / RECORD_SIZE);
+            }
+            // the mapping stays valid after the file is closed
+            this.mappedBuffer = raFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    0, (long) nuCapacity * RECORD_SIZE);
+            this.boardCapacity = nuCapacity;
+
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            m8Io.err(-98).sprintln(CRITICAL, "IO error state file, see trace.");
+            return false;
+        }
+        return true;
+    }
+}
@@ -29,12 +29,18 @@ package imatic8;
 
 import static imatic8.Im8Io.ErrorKind.ERROR_RT_IO;
 import static imatic8.Im8Io.errorMsg;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.HashMap;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 /**
  * Class that knows about boards data.
@@ -43,17 +49,55 @@ import java.util.HashMap;
  */
 class Im8BoardController {
 
-    private final static HashMap<Integer, Im8BoardController> boardNDataHash = new HashMap<>();
+    /**
+     * Board objects by board number, many library callers may create and reuse
+     * boards at the same time.
+     */
+    private final static ConcurrentHashMap<Integer, Im8BoardController> boardNDataHash
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Held by the caller performing an action on the board, so callers driving
+     * the same board take turns while different boards run in parallel.
+     */
+    private final ReentrantLock boardLock = new ReentrantLock();
 
     private int boardN;
-    private String boardIpAddr;
+    private volatile String boardIpAddr;
     private int boardPortNo;
 
     private Socket socket4Client;
 
+    /** true if socket4Client was taken from the keep-alive connection pool */
+    private boolean socketFromPool = false;
+
+    /** true if connected through the NIO transport rather than socket4Client */
+    private boolean nioConnected = false;
+
     private Im8RelayRecorder recorder;
 
-    Im8Io m8Io;
+    /** round trip times, timeouts and circuit breaker of the board */
+    private final Im8BoardHealth health;
+
+    /** the bytes from the board are read into this buffer, reused for each action */
+    private final byte[] responseBufferArr = new byte[1024];
+
+    /** the decoded responses of an action, reused for each action */
+    private final byte[] decodedResponseArr = new byte[Im8Constants.BATCH_MAX_FRAMES
+            * Im8Constants.RESPONSE_MSG_LENGTH];
+
+    /** decodes the bytes from the board's connection into responses */
+    private final Im8ResponseDecoder responseDecoder = new Im8ResponseDecoder();
+
+    /** the frames of a batch are encoded into this buffer, reused for each batch */
+    private final byte[] batchBufferArr = new byte[Im8Constants.BATCH_MAX_FRAMES * Im8FrameCodec.FRAME_LENGTH];
+
+    /** the responses matched to the frames of a pipelined send */
+    private final byte[] matchedResponseArr = new byte[Im8Constants.BATCH_MAX_FRAMES
+            * Im8Constants.RESPONSE_MSG_LENGTH];
+
+    /** the relay number of a single action, for error messages */
+    private final int[] singleRelayNumberArr = new int[1];
 
     Im8BoardIni propIni;
 
@@ -65,51 +109,134 @@ class Im8BoardController {
      * @return the board object, null if there is no board INI file and thus
      * needs to be created
      */
-    static Im8BoardController createReuseBoardNFromINI(Im8Io m8IoP, int boardNumberP) {
-        if (boardNDataHash.containsKey(boardNumberP)) {
-
-            // modify the m8Io setting as it is different for reuse
-            Im8BoardController nuBoardData = boardNDataHash.get(boardNumberP);
-            nuBoardData.m8Io = m8IoP;
-
-            return nuBoardData;
-        } else {
-            // the board has not been defined so likely also not
-            // have a default board-1 INI setup either
-            if (boardNumberP == 1) {
-                Im8BoardIni.defineDefaultBoard1(m8IoP);
-            }
+    static Im8BoardController createReuseBoardNFromINI(final Im8Io m8IoP, int boardNumberP) {
+        Im8BoardController reuseBoardData = boardNDataHash.get(boardNumberP);
+        if (reuseBoardData != null) {
+            // the IO object is bound when an action locks the board
+            return reuseBoardData;
+        }
+        // the board has not been defined so likely also not
+        // have a default board-1 INI setup either
+        if (boardNumberP == 1) {
+            Im8BoardIni.defineDefaultBoard1(m8IoP);
         }
-        // an INI file needs to exist for a board object to be created
-        Im8BoardController nuBoarddata = new Im8BoardController(m8IoP, boardNumberP);
+        // only one caller creates the board object, any other gets it
+        return boardNDataHash.computeIfAbsent(boardNumberP, new Function<Integer, Im8BoardController>() {
+            @Override
+            public Im8BoardController apply(Integer boardNumber) {
+                return createBoardNFromINI(m8IoP, boardNumber);
+            }
+        });
+    }
+
+    /**
+     * Create the board object from the board-N INI file, or from its record
+     * when the binary state store holds its address.
+     *
+     * @param m8IoP        the IO object when processing messages
+     * @param boardNumberP N board number
+     *
+     * @return the board object
+     */
+    private static Im8BoardController createBoardNFromINI(Im8Io m8IoP, int boardNumberP) {
+        // an INI file (or record) needs to exist for a board object to be created
+        Im8BoardController nuBoarddata = new Im8BoardController(boardNumberP);
 
         nuBoarddata.boardN = boardNumberP;
         nuBoarddata.boardPortNo = 30000;
 
-        nuBoarddata.propIni = new Im8BoardIni(m8IoP, boardNumberP);
-
-        // get the IP address for the board from the INI file
-        nuBoarddata.boardIpAddr = nuBoarddata.propIni.getIpAddrStr();
+        nuBoarddata.propIni = Im8BoardIni.getCachedBoardIni(m8IoP, boardNumberP);
 
+        if (!nuBoarddata.loadRecordAddress(m8IoP)) {
+            // get the IP address for the board from the INI file
+            nuBoarddata.boardIpAddr = nuBoarddata.propIni.getIpAddrStr(m8IoP);
+        }
         return nuBoarddata;
     }
 
-    static Im8BoardController defineBoardObject(Im8Io m8Io, int boardNumberP, String boardIpAddrP) {
-        // it is known that a file does not exist, so it needs to be
-        // created
-        Im8BoardController nuBoarddata = new Im8BoardController(m8Io, boardNumberP);
+    /**
+     * Is board N defined, by its INI file or, with the binary state store, by
+     * an address in its record.
+     *
+     * @param m8IoP        the IO object when processing messages
+     * @param boardNumberP N board number
+     *
+     * @return true if defined
+     */
+    static boolean isBoardDefined(Im8Io m8IoP, int boardNumberP) {
+        if (Im8BoardIni.getBoardIniFile(m8IoP, boardNumberP).isFile()) {
+            return true;
+        }
+        return Im8RelayRecorder.isBinaryStateStore()
+                && Im8BinaryStateStore.getStore().loadIpV4Addr(m8IoP, boardNumberP) != null;
+    }
 
-        nuBoarddata.boardN = boardNumberP;
-        nuBoarddata.boardIpAddr = boardIpAddrP;
-        nuBoarddata.boardPortNo = 30000;
+    /**
+     * Take the address of board N from its record, when the binary state
+     * store is the backend and the record has one.
+     *
+     * @param m8IoP the IO object when processing messages
+     *
+     * @return true if the address was taken from the record
+     */
+    private boolean loadRecordAddress(Im8Io m8IoP) {
+        if (!Im8RelayRecorder.isBinaryStateStore()) {
+            return false;
+        }
+        Im8BinaryStateStore store = Im8BinaryStateStore.getStore();
 
-        nuBoarddata.recorder = new Im8RelayRecorder(nuBoarddata);
-        nuBoarddata.propIni = new Im8BoardIni(m8Io, nuBoarddata.getBoardNumber());
+        String ipAddrStr = store.loadIpV4Addr(m8IoP, this.boardN);
+        if (ipAddrStr == null) {
+            return false;
+        }
+        this.boardIpAddr = ipAddrStr;
+        this.boardPortNo = store.loadPortNo(m8IoP, this.boardN);
+        return true;
+    }
 
-        // load properties will create the INI file if it does not exist
-        nuBoarddata.propIni.loadProperties();
+    /**
+     * Define board N at an IP address, as for 'defip-N'&#46; The address is
+     * kept in the board-N INI file, or with the binary state store in the
+     * board's record if it has no INI file, with the relays all off, so it is
+     * the address read back before the next connection&#46; A board object
+     * already in the registry is updated in place rather than replaced, as
+     * other callers may hold it.
+     *
+     * @param m8Io         the IO object when processing messages
+     * @param boardNumberP N board number
+     * @param boardIpAddrP the board IP address
+     *
+     * @return the board object
+     */
+    static Im8BoardController defineBoardObject(final Im8Io m8Io, int boardNumberP, String boardIpAddrP) {
+        Im8BoardController boardData = boardNDataHash.computeIfAbsent(boardNumberP,
+                new Function<Integer, Im8BoardController>() {
+            @Override
+            public Im8BoardController apply(Integer boardNumber) {
+                Im8BoardController nuBoarddata = new Im8BoardController(boardNumber);
 
-        return nuBoarddata;
+                nuBoarddata.boardPortNo = 30000;
+                nuBoarddata.propIni = Im8BoardIni.getCachedBoardIni(m8Io, boardNumber);
+                return nuBoarddata;
+            }
+        });
+        // not while another caller's action is using the address
+        boardData.lockBoard();
+        try {
+            if (Im8RelayRecorder.isBinaryStateStore()
+                    && !Im8BoardIni.getBoardIniFile(m8Io, boardNumberP).isFile()) {
+                // the board's record is its define, no INI file is made
+                Im8BinaryStateStore.getStore().storeAddress(m8Io, boardNumberP, boardIpAddrP,
+                        Im8BoardIni.IMATIC8_PORT_NO);
+            } else {
+                Im8BoardIni.defineBoardNIni(m8Io, boardNumberP, boardIpAddrP);
+            }
+            boardData.boardIpAddr = boardIpAddrP;
+            boardData.boardPortNo = Im8BoardIni.IMATIC8_PORT_NO;
+        } finally {
+            boardData.unlockBoard();
+        }
+        return boardData;
     }
 
     static boolean loadBoardObject(Im8Io m8IoP, int boardNumberP) {
@@ -120,10 +247,6 @@ class Im8BoardController {
             if (nuBoardData == null) {
                 return false;
             }
-        } else {
-            // modify the m8Io setting as it is different
-            Im8BoardController nuBoardData = boardNDataHash.get(boardNumberP);
-            nuBoardData.m8Io = m8IoP;
         }
         return true; //  means exists
     }
@@ -131,15 +254,38 @@ class Im8BoardController {
     /**
      * Create a board data object for board N.
      *
-     * @param m8IoP        the IO object when processing messages
      * @param boardNumberP N board number
      */
     @SuppressWarnings("LeakingThisInConstructor")
-    private Im8BoardController(Im8Io m8IoP, int boardNumberP) {
+    private Im8BoardController(int boardNumberP) {
         //
-        this.m8Io = m8IoP;
-        boardNDataHash.put(boardNumberP, this);
+        this.boardN = boardNumberP;
         this.recorder = new Im8RelayRecorder(this);
+        this.health = new Im8BoardHealth(this);
+    }
+
+    /**
+     * Lock the board for an action by a caller, waiting while another caller's
+     * action is in progress.
+     */
+    void lockBoard() {
+        this.boardLock.lock();
+    }
+
+    /**
+     * Lock the board if no caller's action is in progress.
+     *
+     * @return true if locked
+     */
+    boolean tryLockBoard() {
+        return this.boardLock.tryLock();
+    }
+
+    /**
+     * Unlock the board at the end of a caller's action.
+     */
+    void unlockBoard() {
+        this.boardLock.unlock();
     }
 
     /**
@@ -178,15 +324,53 @@ class Im8BoardController {
         return this.boardPortNo;
     }
 
+    /**
+     * Get the health of board N.
+     *
+     * @return the health object
+     */
+    Im8BoardHealth getHealth() {
+        return this.health;
+    }
+
     /**
      * Open the communication socket to board N if the socket is already closed.
      *
+     * @param m8IoP the IO object when processing messages
+     *
      * @return Socket if open, null if an error occurs
      */
     @SuppressWarnings("CallToPrintStackTrace")
-    private void openCommunication() {
+    private void openCommunication(Im8Io m8IoP) {
+        if (!isCommunicationOpen()) {
+            // only between connections, an open connection (and the pool
+            // key it is released under) stays with the address it was made to
+            refreshBoardAddress(m8IoP);
+
+            // no part response carries over to a new connection
+            this.responseDecoder.reset();
+
+            if (!this.health.allowRequest()) {
+                // the board has been failing, so do not wait on a connect
+                m8IoP.err(-99).sprintln(ERROR_RT_IO,
+                        errorMsg(String.format("open comm: b-%d circuit open  \n%s:%s", this.getBoardNumber(),
+                                this.boardIpAddr, this.boardPortNo),
+                                null));
+                return;
+            }
+        }
 
+        if (Im8Socket.isNioTransport()) {
+            openNioCommunication(m8IoP);
+            return;
+        }
+        if (socket4Client == null && m8IoP.isKeepAlive()) {
+            // reuse a kept-alive connection to the board if there is one
+            this.socket4Client = Im8ConnectionPool.borrow(this.boardIpAddr, this.boardPortNo);
+            this.socketFromPool = this.socket4Client != null;
+        }
         if (socket4Client == null) {
+            this.socketFromPool = false;
             try {
                 try {
                     this.socket4Client = Im8Socket.createSocket();
@@ -194,7 +378,7 @@ class Im8BoardController {
                 } catch (InstantiationException | IllegalAccessException ex) {
                     ex.printStackTrace();
                     
-                    this.m8Io.err(-99).sprintln(ERROR_RT_IO,
+                    m8IoP.err(-99).sprintln(ERROR_RT_IO,
                             errorMsg(String.format("create sck fail: b-%d  \n%s:%s", 
                                     this.getBoardNumber(),
                                     this.boardIpAddr, this.boardPortNo),
@@ -202,14 +386,17 @@ class Im8BoardController {
                 }
 
                 // timeout if no connect within 2 seconds (as this is a local network
-                // arrangement)
+                // arrangement), or sooner once the board's connect times are known
+                long startNanos = System.nanoTime();
                 this.socket4Client.connect(new InetSocketAddress(
                         this.boardIpAddr,
                         this.boardPortNo),
-                        Im8Constants.TIMEOUT_FOR_CONNECTION_SETUP);
+                        this.health.getConnectTimeout());
+                this.health.recordConnect(System.nanoTime() - startNanos);
 
             } catch (IOException ex) {
-                this.m8Io.err(-99).sprintln(ERROR_RT_IO,
+                this.health.recordFailure();
+                m8IoP.err(-99).sprintln(ERROR_RT_IO,
                         errorMsg(String.format("open comm: b-%d  \n%s:%s", this.getBoardNumber(),
                                 this.boardIpAddr, this.boardPortNo),
                                 ex));
@@ -218,18 +405,98 @@ class Im8BoardController {
         }
     }
 
+    /**
+     * Pick up an IP address change made to the board-N INI file outside of the
+     * program&#46; The cached INI is only parsed again if the file has changed&#46;
+     * Only called with no connection open, so a change made during a sequence
+     * is picked up by the next connection&#46; With the binary state store the
+     * address is read from the board's record if it has one, and the INI file
+     * is not looked at.
+     *
+     * @param m8IoP the IO object when processing messages
+     */
+    private void refreshBoardAddress(Im8Io m8IoP) {
+        if (loadRecordAddress(m8IoP)) {
+            return;
+        }
+        if (this.propIni == null || !this.propIni.getPropertyFile().isFile()) {
+            return;
+        }
+        String ipAddrStr = this.propIni.getIpAddrStr(m8IoP);
+        if (ipAddrStr != null) {
+            this.boardIpAddr = ipAddrStr;
+        }
+    }
+
+    /**
+     * Open the connection to board N through the NIO transport, reusing any
+     * connection the transport already has.
+     *
+     * @param m8IoP the IO object when processing messages
+     */
+    private void openNioCommunication(Im8Io m8IoP) {
+        try {
+            long startNanos = System.nanoTime();
+            this.socketFromPool = Im8NioTransport.getInstance().connect(
+                    this.boardIpAddr, this.boardPortNo,
+                    this.health.getConnectTimeout());
+            this.nioConnected = true;
+            if (!this.socketFromPool) {
+                this.health.recordConnect(System.nanoTime() - startNanos);
+            }
+
+        } catch (IOException ex) {
+            this.health.recordFailure();
+            m8IoP.err(-99).sprintln(ERROR_RT_IO,
+                    errorMsg(String.format("open comm: b-%d  \n%s:%s", this.getBoardNumber(),
+                            this.boardIpAddr, this.boardPortNo),
+                            ex));
+            this.nioConnected = false;
+        }
+    }
+
+    /**
+     * Is there an open connection to board N.
+     *
+     * @return true if open
+     */
+    private boolean isCommunicationOpen() {
+        return this.socket4Client != null || this.nioConnected;
+    }
+
     /**
      * Close the connection to board N and indicate so.
      *
+     * @param m8IoP the IO object when processing messages
+     *
      * @return false if failed to close
      */
-    boolean closeCommunication(boolean requiredSocket) {
+    boolean closeCommunication(Im8Io m8IoP, boolean requiredSocket) {
+
+        if (this.nioConnected) {
+            // the NIO transport keeps the connection for keep-alive mode
+            this.nioConnected = false;
+            if (!m8IoP.isKeepAlive()) {
+                try {
+                    Im8NioTransport.getInstance().close(this.boardIpAddr, this.boardPortNo);
+                } catch (IOException ex) {
+                    // transport never started, so nothing to close
+                }
+            }
+            return true;
+        }
 
         if (!requiredSocket) {
             if (socket4Client == null) {
                 return true;
             }
         }
+        if (socket4Client != null && m8IoP.isKeepAlive()) {
+            // keep the connection for the next command sequence
+            Im8ConnectionPool.release(this.boardIpAddr, this.boardPortNo, socket4Client);
+            socket4Client = null;
+            return true;
+        }
         // close the connection port and indicate so by nulling the
         // socket variable
         try {
@@ -240,7 +507,7 @@ class Im8BoardController {
             socket4Client = null;
 
         } catch (IOException ex1) {
-            m8Io.err(-99).sprintln(ERROR_RT_IO,
+            m8IoP.err(-99).sprintln(ERROR_RT_IO,
                     errorMsg(String.format("close comm: b-%d", this.getBoardNumber()
                     ), ex1));
             socket4Client = null;
@@ -252,17 +519,17 @@ class Im8BoardController {
     /**
      * Send message to board N and return response.
      *
+     * @param m8IoP                       the IO object when processing messages
      * @param pMsg                        message to send
+     * @param relayNumber                 1-8 relay number, -1 is all
      * @param closeConnectionOnCompletion true if this is the last request in
      *                                    the a sequence
      *
-     * @return response in raw-data byte form
+     * @return the decoded response (the board's response buffer, valid until
+     *         the next action on the board), null if an error
      */
-    byte[] sendMessage2TheBoard(Im8RelayInfo action,
+    byte[] sendMessage2TheBoard(Im8Io m8IoP, byte[] pMsg,
             int relayNumber, boolean closeConnectionOnCompletion) {
-        // get the bytes for the processing
-        byte[] pMsg = action.getMessageBytesForRelayAction(relayNumber);
-
         // the board retains its last settings and as such connectAndSendMsg, 
         // do-action, disconnect will not affect the state-machine on the board
         //  
@@ -272,77 +539,516 @@ class Im8BoardController {
         // connectAndSendMsg to server
         //    e.g.       $vm = 'PXDEPCSERV:20001';
         //
-        // do we have a communication port to the Imatic8 board, if not get one
-        openCommunication();
-        if (this.socket4Client == null) {
+        // send message to the board-server and get its response
+        byte[] responseArr = this.decodedResponseArr;
+        this.singleRelayNumberArr[0] = relayNumber;
+
+        recorder.setDesiredRelay(m8IoP, pMsg);
+
+        int responseCount = exchangeWithBoard(m8IoP, pMsg, pMsg.length, responseArr, 1,
+                this.singleRelayNumberArr);
+
+        if (responseCount == -3) {
             return null;
         }
-        // send message to the board-server
-        DataOutputStream toSvrData;
+        // only if there is a response do we set the relay state
+        if (responseCount == -1) {
+
+            // no (valid) response, so make it known
+            m8IoP.err(missingResponseCode()).sprintf(ERROR_RT_IO,
+                    errorMsg(String.format("%s: b-%d %d", missingResponseDesc(), this.getBoardNumber(),
+                            relayNumber), null));
+
+        }
+        if (responseCount > 0) {
+            recorder.setRelayRecord(m8IoP, responseArr);
+        }
+        // 
+        if (closeConnectionOnCompletion) {
+            // close the connection port and indicate so by nulling the
+            // socket variable
+            if (!closeCommunication(m8IoP, true)) {
+                return null;
+            }
+        }
+        if (responseCount > 0) {
+            return responseArr;
+        }
+        return null;
+    }
+
+    /**
+     * Send a batch of relay actions to board N in a single write, and set the
+     * relay states from the responses&#46;
+     * <p>
+     * The frames are encoded one after the other into one buffer, and the
+     * responses are read until a valid one has arrived for each frame or the
+     * read times out&#46;
+     *
+     * @param m8IoP                       the IO object when processing messages
+     * @param frameArr                    encoded relay action frames
+     * @param relayNumberArr              relay numbers, one per frame
+     * @param closeConnectionOnCompletion true if this is the last request in
+     *                                    the a sequence
+     *
+     * @return true if every frame had a response, otherwise false
+     */
+    boolean sendBatch2TheBoard(Im8Io m8IoP, byte[][] frameArr, int[] relayNumberArr,
+            boolean closeConnectionOnCompletion) {
+        int frameCount = frameArr.length;
+
+        byte[] pMsg = this.batchBufferArr;
+        int msgLength = Im8FrameCodec.encodeFrames(frameArr, pMsg);
+
+        recorder.setDesiredRelays(m8IoP, frameArr);
+
+        byte[] responseArr = this.decodedResponseArr;
+
+        int exchangeResult = exchangeWithBoard(m8IoP, pMsg, msgLength, responseArr, frameCount,
+                relayNumberArr);
+
+        if (exchangeResult == -3) {
+            return false;
+        }
+        int responseCount = Math.max(0, exchangeResult);
+        if (responseCount > 0) {
+            recorder.setRelayRecords(m8IoP, responseArr, responseCount);
+        }
+        if (responseCount < frameCount && exchangeResult != -2) {
+            // not all frames had a valid response, so make it known
+            m8IoP.err(missingResponseCode()).sprintf(ERROR_RT_IO,
+                    errorMsg(String.format("%s: b-%d %s %d/%d", missingResponseDesc(), this.getBoardNumber(),
+                            relayDesc(relayNumberArr), responseCount, frameCount),
+                            null));
+        }
+        if (closeConnectionOnCompletion) {
+            if (!closeCommunication(m8IoP, true)) {
+                return false;
+            }
+        }
+        return responseCount == frameCount;
+    }
+
+    /**
+     * Send a run of relay actions to board N pipelined, with up to a window of
+     * frames sent ahead of their responses, and set the relay states from the
+     * responses&#46;
+     * <p>
+     * The responses are matched to the frames by relay number and on/off
+     * state&#46; A frame with no response within the board's response timeout
+     * is sent again, and if the connection is lost the frames waiting on a
+     * response are sent again on a new connection&#46; The round trip times
+     * of the responses, and a send that does not complete, go to the board's
+     * health.
+     *
+     * @param m8IoP                       the IO object when processing messages
+     * @param frameArr                    encoded relay action frames
+     * @param relayNumberArr              relay numbers, one per frame
+     * @param closeConnectionOnCompletion true if this is the last request in
+     *                                    the a sequence
+     *
+     * @return true if every frame had a response, otherwise false
+     */
+    boolean sendPipelined2TheBoard(Im8Io m8IoP, byte[][] frameArr, int[] relayNumberArr,
+            boolean closeConnectionOnCompletion) {
+        int frameCount = frameArr.length;
+
+        recorder.setDesiredRelays(m8IoP, frameArr);
+
+        // a frame waits for its response as long as a one frame exchange would
+        Im8Pipeline pipeline = new Im8Pipeline(frameArr, this.health.getResponseTimeout());
+
+        byte[] bufferInputBytesArr = this.responseBufferArr;
+        byte[] responseArr = this.decodedResponseArr;
+        byte[] matchedResponseArr = this.matchedResponseArr;
+
+        openCommunication(m8IoP);
+        while (!pipeline.isComplete()) {
+            if (!isCommunicationOpen()) {
+                // the connection was lost, so open a new one
+                openCommunication(m8IoP);
+                if (!isCommunicationOpen()) {
+                    return false;
+                }
+            }
+            long nowMillis = System.currentTimeMillis();
+
+            byte[] sendArr = pipeline.takeFramesToSend(nowMillis);
+            int fromSvrDataNumBytes = pipelineWriteAndRead(sendArr, bufferInputBytesArr,
+                    pipeline.getTimeToNextDeadline(nowMillis));
+
+            if (fromSvrDataNumBytes < 0) {
+                closeReusedConnection();
+                if (!pipeline.resendOutstanding()) {
+                    break;
+                }
+                continue;
+            }
+            int responseCount = this.responseDecoder.decode(bufferInputBytesArr, fromSvrDataNumBytes,
+                    responseArr, 0, Im8Constants.BATCH_MAX_FRAMES);
+            int matchedCount = pipeline.acceptResponses(responseArr, responseCount, matchedResponseArr);
+            if (matchedCount > 0) {
+                this.health.recordSuccess(TimeUnit.MILLISECONDS.toNanos(
+                        System.currentTimeMillis() - pipeline.getLastMatchedSentMillis()));
+                recorder.setRelayRecords(m8IoP, matchedResponseArr, matchedCount);
+            }
+            if (!pipeline.expireFrames(System.currentTimeMillis())) {
+                break;
+            }
+        }
+        if (!pipeline.isComplete()) {
+            // a frame used up its attempts, so make it known, once for the
+            // send as for an exchange
+            this.health.recordFailure();
+            m8IoP.err(-92).sprintf(ERROR_RT_IO,
+                    errorMsg(String.format("response: b-%d %s %d/%d", this.getBoardNumber(),
+                            Arrays.toString(relayNumberArr), pipeline.getConfirmedCount(), frameCount),
+                            null));
+        }
+        if (closeConnectionOnCompletion && isCommunicationOpen()) {
+            if (!closeCommunication(m8IoP, true)) {
+                return false;
+            }
+        }
+        return pipeline.isComplete();
+    }
+
+    /**
+     * Write the frames (if any) of a pipelined send to board N, then read what
+     * responses arrive within the timeout.
+     *
+     * @param sendArr             frames to send, may be empty
+     * @param bufferInputBytesArr buffer for the responses
+     * @param timeoutMs           read timeout in milliseconds
+     *
+     * @return number of bytes read, 0 if none in time, -1 the connection is
+     *         lost
+     */
+    private int pipelineWriteAndRead(byte[] sendArr, byte[] bufferInputBytesArr, int timeoutMs) {
+        if (this.nioConnected) {
+            try {
+                return Im8NioTransport.getInstance().exchange(this.boardIpAddr, this.boardPortNo,
+                        sendArr, sendArr.length, bufferInputBytesArr, 1, timeoutMs);
+
+            } catch (IOException ex) {
+                // a timeout also drops the connection as responses are out of step
+                return -1;
+            }
+        }
+        try {
+            this.socket4Client.setSoTimeout(timeoutMs);
+            if (sendArr.length > 0) {
+                this.socket4Client.getOutputStream().write(sendArr);
+            }
+            return this.socket4Client.getInputStream().read(bufferInputBytesArr);
+
+        } catch (SocketTimeoutException ex) {
+            return 0;
+
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Open communication with board N if need be, then write the message and
+     * read the response; a kept-alive connection that has failed is reopened
+     * and the message sent again&#46;
+     *
+     * @param m8IoP             the IO object when processing messages
+     * @param pMsg              message to send
+     * @param msgLength         number of bytes of the message to send
+     * @param responseArr       buffer for the decoded responses
+     * @param expectedResponses number of responses to wait for
+     * @param relayNumberArr    relay number(s) for error messages
+     *
+     * @return number of valid responses, -1 no valid response, -2 read error,
+     *         -3 write error or no communication
+     */
+    private int exchangeWithBoard(Im8Io m8IoP, byte[] pMsg, int msgLength, byte[] responseArr,
+            int expectedResponses, int[] relayNumberArr) {
+        // do we have a communication port to the Imatic8 board, if not get one
+        openCommunication(m8IoP);
+        if (!isCommunicationOpen()) {
+            return -3;
+        }
+        this.responseDecoder.clearInvalidCount();
+
+        long startNanos = System.nanoTime();
+        int fromSvrDataNumBytes = writeAndReadResponse(m8IoP, pMsg, msgLength, responseArr, expectedResponses,
+                relayNumberArr);
+
+        if (fromSvrDataNumBytes < 0 && this.socketFromPool) {
+            // a kept-alive connection may have been dropped by the board while
+            // idle, so reconnect transparently and try the request again
+            closeReusedConnection();
+
+            openCommunication(m8IoP);
+            if (!isCommunicationOpen()) {
+                return -3;
+            }
+            startNanos = System.nanoTime();
+            fromSvrDataNumBytes = writeAndReadResponse(m8IoP, pMsg, msgLength, responseArr, expectedResponses,
+                    relayNumberArr);
+        }
+        if (fromSvrDataNumBytes == -3) {
+            // write failed and the socket has been closed
+            this.socket4Client = null;
+        }
+        if (fromSvrDataNumBytes > 0) {
+            this.health.recordSuccess(System.nanoTime() - startNanos);
+        } else {
+            this.health.recordFailure();
+        }
+        return fromSvrDataNumBytes;
+    }
+
+    /**
+     * Drop a reused connection that has failed, so a fresh one is opened.
+     */
+    private void closeReusedConnection() {
+        this.responseDecoder.reset();
+
+        if (this.nioConnected) {
+            this.nioConnected = false;
+            try {
+                Im8NioTransport.getInstance().close(this.boardIpAddr, this.boardPortNo);
+            } catch (IOException ex) {
+                // transport never started, so nothing to close
+            }
+            return;
+        }
+        Im8ConnectionPool.discard(this.socket4Client);
+        this.socket4Client = null;
+    }
+
+    /**
+     * Write the message to board N and read the responses, decoding the bytes
+     * read into the responses buffer&#46; The bytes of a response may arrive
+     * split over reads, or several responses in one read.
+     * <p>
+     * Errors are only reported when they can not be recovered by a reconnect,
+     * that is the socket is not a kept-alive connection from the pool.
+     *
+     * @param m8IoP             the IO object when processing messages
+     * @param pMsg              message to send
+     * @param msgLength         number of bytes of the message to send
+     * @param responseArr       buffer for the decoded responses
+     * @param expectedResponses number of responses to wait for
+     * @param relayNumberArr    relay number(s) for error messages
+     *
+     * @return number of valid responses, -1 no valid response, -2 read error,
+     *         -3 write error
+     */
+    private int writeAndReadResponse(Im8Io m8IoP, byte[] pMsg, int msgLength, byte[] responseArr,
+            int expectedResponses, int[] relayNumberArr) {
+        boolean reportErrors = !this.socketFromPool;
+        byte[] bufferInputBytesArr = this.responseBufferArr;
+
+        if (this.nioConnected) {
+            return nioWriteAndReadResponse(m8IoP, pMsg, msgLength, responseArr, expectedResponses,
+                    relayNumberArr);
+        }
+
+        int responseTimeout = this.health.getResponseTimeout();
+
+        OutputStream toSvrData;
         try {
-            this.socket4Client.setSoTimeout(1000);
-            toSvrData = new DataOutputStream(socket4Client.getOutputStream());
-            toSvrData.write(pMsg);
+            this.socket4Client.setSoTimeout(responseTimeout);
+            toSvrData = socket4Client.getOutputStream();
+            toSvrData.write(pMsg, 0, msgLength);
 
         } catch (IOException ex) {
             try {
                 socket4Client.close();
 
             } catch (IOException ex1) {
-                this.m8Io.err(-96).sprintln(ERROR_RT_IO,
-                        errorMsg(String.format("close: b-%d %d", this.getBoardNumber(), relayNumber),
-                                ex1));
-                return null;
+                if (reportErrors) {
+                    m8IoP.err(-96).sprintln(ERROR_RT_IO,
+                            errorMsg(String.format("close: b-%d %s", this.getBoardNumber(),
+                                    relayDesc(relayNumberArr)), ex1));
+                }
+                return -3;
             }
-            this.m8Io.err(-97).sprintln(ERROR_RT_IO,
-                    errorMsg(String.format("write: b-%d %d", this.getBoardNumber(), relayNumber),
-                            ex));
-            return null;
+            if (reportErrors) {
+                m8IoP.err(-97).sprintln(ERROR_RT_IO,
+                        errorMsg(String.format("write: b-%d %s", this.getBoardNumber(),
+                                relayDesc(relayNumberArr)), ex));
+            }
+            return -3;
         }
         // get response from the board-server
-        DataInputStream fromSvrData;
-        byte[] bufferInputBytesArr = new byte[1024];
-        int fromSvrDataNumBytes;
+        InputStream fromSvrData;
+        int responseCount = 0;
+        boolean bytesRead = false;
+        long deadlineMillis = System.currentTimeMillis() + responseTimeout;
         try {
-            fromSvrData = new DataInputStream(socket4Client.getInputStream());
-            fromSvrDataNumBytes = fromSvrData.read(bufferInputBytesArr);
+            fromSvrData = socket4Client.getInputStream();
+
+            // the responses arrive over one or more reads
+            while (responseCount < expectedResponses) {
+                if (bytesRead) {
+                    // the rest of the responses have what is left of the timeout
+                    long remainingMillis = deadlineMillis - System.currentTimeMillis();
+                    if (remainingMillis <= 0) {
+                        break;
+                    }
+                    this.socket4Client.setSoTimeout((int) remainingMillis);
+                }
+                int numBytes;
+                try {
+                    numBytes = fromSvrData.read(bufferInputBytesArr);
 
+                } catch (SocketTimeoutException ex) {
+                    if (!bytesRead) {
+                        throw ex;
+                    }
+                    // report the responses that did arrive
+                    break;
+                }
+                if (numBytes < 0) {
+                    break;
+                }
+                bytesRead = true;
+                responseCount += this.responseDecoder.decode(bufferInputBytesArr, numBytes, responseArr,
+                        responseCount, expectedResponses);
+            }
         } catch (IOException ex) {
-            this.m8Io.err(-96).sprintln(ERROR_RT_IO,
-                    errorMsg(String.format("read: b-%d %d", this.getBoardNumber(), relayNumber),
-                            ex));
-            fromSvrDataNumBytes = -2;
+            if (reportErrors) {
+                m8IoP.err(-96).sprintln(ERROR_RT_IO,
+                        errorMsg(String.format("read: b-%d %s", this.getBoardNumber(),
+                                relayDesc(relayNumberArr)), ex));
+            }
+            return -2;
         }
-        // only if there is a response do we set the relay state
-        if (fromSvrDataNumBytes == -1) {
+        return responseCount == 0 ? -1 : responseCount;
+    }
 
-            // no response, so make it known
-            this.m8Io.err(-92).sprintf(ERROR_RT_IO,
-                    errorMsg(String.format("response: b-%d %d", this.getBoardNumber(), relayNumber),
-                            null));
+    /**
+     * Write the message to board N through the NIO transport and read the
+     * responses, as per <code>writeAndReadResponse</code>&#46; If the bytes
+     * read do not hold all the responses (a response is split, or bytes are
+     * not valid) the rest are read without a further write.
+     *
+     * @param m8IoP             the IO object when processing messages
+     * @param pMsg              message to send
+     * @param msgLength         number of bytes of the message to send
+     * @param responseArr       buffer for the decoded responses
+     * @param expectedResponses number of responses to wait for
+     * @param relayNumberArr    relay number(s) for error messages
+     *
+     * @return number of valid responses, -1 no valid response, -2 read error
+     */
+    private int nioWriteAndReadResponse(Im8Io m8IoP, byte[] pMsg, int msgLength, byte[] responseArr,
+            int expectedResponses, int[] relayNumberArr) {
+        byte[] bufferInputBytesArr = this.responseBufferArr;
 
-        }
-        if (fromSvrDataNumBytes > 0) {
-            recorder.setRelayRecord(bufferInputBytesArr);
-        }
-        // 
-        if (closeConnectionOnCompletion) {
-            // close the connection port and indicate so by nulling the
-            // socket variable
-            if (!closeCommunication(true)) {
-                return null;
+        int responseCount = 0;
+        boolean bytesRead = false;
+        int responseTimeout = this.health.getResponseTimeout();
+        long deadlineMillis = System.currentTimeMillis() + responseTimeout;
+        try {
+            Im8NioTransport nioTransport = Im8NioTransport.getInstance();
+
+            int numBytes = nioTransport.exchange(this.boardIpAddr, this.boardPortNo,
+                    pMsg, msgLength, bufferInputBytesArr,
+                    expectedResponses * Im8Constants.RESPONSE_MSG_LENGTH, responseTimeout);
+
+            while (numBytes > 0) {
+                bytesRead = true;
+                responseCount += this.responseDecoder.decode(bufferInputBytesArr, numBytes, responseArr,
+                        responseCount, expectedResponses);
+
+                long remainingMillis = deadlineMillis - System.currentTimeMillis();
+                if (responseCount >= expectedResponses || remainingMillis <= 0) {
+                    break;
+                }
+                // the rest of the responses are still to come
+                numBytes = nioTransport.exchange(this.boardIpAddr, this.boardPortNo,
+                        pMsg, 0, bufferInputBytesArr, 1, (int) remainingMillis);
+            }
+        } catch (IOException ex) {
+            if (!bytesRead) {
+                if (!this.socketFromPool) {
+                    m8IoP.err(-96).sprintln(ERROR_RT_IO,
+                            errorMsg(String.format("read: b-%d %s", this.getBoardNumber(),
+                                    relayDesc(relayNumberArr)), ex));
+                }
+                return -2;
             }
+            // report the responses that did arrive
         }
-        if (fromSvrDataNumBytes > 0) {
-            return bufferInputBytesArr;
+        return responseCount == 0 ? -1 : responseCount;
+    }
+
+    /**
+     * Get the error code for responses that did not arrive, or that arrived
+     * and were not valid.
+     *
+     * @return -93 invalid responses were discarded, otherwise -92
+     */
+    private int missingResponseCode() {
+        return this.responseDecoder.getInvalidCount() > 0 ? -93 : -92;
+    }
+
+    private String missingResponseDesc() {
+        return this.responseDecoder.getInvalidCount() > 0 ? "invalid response" : "response";
+    }
+
+    /**
+     * Describe the relay number(s) of a send for an error message, only made
+     * when there is an error to report.
+     *
+     * @param relayNumberArr relay numbers, one per frame
+     *
+     * @return the relay number of a single frame, otherwise the list of them
+     */
+    private static String relayDesc(int[] relayNumberArr) {
+        if (relayNumberArr.length == 1) {
+            return Integer.toString(relayNumberArr[0]);
         }
-        return null;
+        return Arrays.toString(relayNumberArr);
     }
 
     /**
      * Report the states of the relays of board N.
+     *
+     * @param m8IoP the IO object when processing messages
+     */
+    void reportRelayStates(Im8Io m8IoP) {
+        this.recorder.reportRelayStates(m8IoP);
+    }
+
+    /**
+     * Get the recorded relay states of board N, those the board has
+     * responded with.
+     *
+     * @param m8IoP the IO object when processing messages
+     *
+     * @return mask of the relay states
+     */
+    byte getRelayMask(Im8Io m8IoP) {
+        return this.recorder.getRelayState(m8IoP).getRelayMask();
+    }
+
+    /**
+     * Get the relay states asked of board N, which include frames that had
+     * no response.
+     *
+     * @param m8IoP the IO object when processing messages
+     *
+     * @return mask of the desired relay states
+     */
+    byte getDesiredRelayMask(Im8Io m8IoP) {
+        return this.recorder.getDesiredRelayMask(m8IoP);
+    }
+
+    /**
+     * Get the boards that have been loaded, so used by this process.
+     *
+     * @return the board objects
      */
-    void reportRelayStates() {
-        this.recorder.reportRelayStates();
+    static ArrayList<Im8BoardController> getLoadedBoards() {
+        return new ArrayList<>(boardNDataHash.values());
     }
 }
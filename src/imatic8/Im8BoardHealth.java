@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class that keeps the health of a board: the round trip times of its
+ * connects and exchanges, from which its timeouts are taken, and a circuit
+ * breaker so a board that is down fails fast.
+ * <p>
+ * After repeated failures in a row the breaker opens and actions on the board
+ * fail without a connect being tried&#46; While open the board is probed in
+ * the background with a plain connect, no frame is sent as frames change the
+ * relays&#46; Once a probe connects the breaker is half open and one action
+ * is let through as a trial, which either closes the breaker or opens it
+ * again; the other actions fail fast until the trial has its outcome.
+ * <p>
+ * Once a board has enough samples its timeouts are a multiple of the 99th
+ * percentile of its round trip times, bounded by the fixed timeouts.
+ *
+ * @author dbradley
+ */
+class Im8BoardHealth {
+
+    /**
+     * The states of the circuit breaker.
+     */
+    enum BreakerState {
+        /** actions go to the board */
+        CLOSED,
+        /** actions fail fast while the board is probed */
+        OPEN,
+        /** a probe connected, one action is let through as a trial */
+        HALF_OPEN
+    }
+
+    /** round trip times kept for each of connect and exchange */
+    private static final int RTT_SAMPLES = 64;
+
+    /** samples needed before the timeouts adapt */
+    private static final int MIN_SAMPLES = 8;
+
+    /** the timeout is this multiple of the 99th percentile round trip time */
+    private static final int RTT_TIMEOUT_FACTOR = 4;
+
+    /** lowest adapted timeout in milliseconds */
+    private static final int MIN_TIMEOUT = 200;
+
+    /** failures in a row that open the breaker, 0 never opens it */
+    private static volatile int failureThreshold = 3;
+
+    /** milliseconds between probes of a board whose breaker is open */
+    private static volatile long probeIntervalMillis = 5000;
+
+    /** threads the probes connect on, apart from the timer wheel thread */
+    private static ExecutorService probeExecutor = null;
+
+    private final Im8BoardController boardCtrl;
+
+    private final RttSamples connectRtt = new RttSamples();
+
+    private final RttSamples exchangeRtt = new RttSamples();
+
+    private BreakerState state = BreakerState.CLOSED;
+
+    /** a half open breaker has let its trial action through */
+    private boolean trialInFlight = false;
+
+    /** when the trial was let through, in nanoseconds */
+    private long trialStartNanos = 0;
+
+    private int failureCount = 0;
+
+    private long openCount = 0;
+
+    private long fastFailCount = 0;
+
+    /**
+     * Ring of the most recent round trip times.
+     */
+    private static class RttSamples {
+
+        /** round trip times in microseconds */
+        private final int[] microsArr = new int[RTT_SAMPLES];
+
+        private int count = 0;
+
+        private int next = 0;
+
+        void clear() {
+            this.count = 0;
+            this.next = 0;
+        }
+
+        void add(long nanos) {
+            this.microsArr[this.next] = (int) Math.min(TimeUnit.NANOSECONDS.toMicros(nanos),
+                    Integer.MAX_VALUE);
+            this.next = (this.next + 1) % RTT_SAMPLES;
+            this.count = Math.min(this.count + 1, RTT_SAMPLES);
+        }
+
+        /**
+         * Get a percentile of the samples.
+         *
+         * @param percent 0 to 100
+         *
+         * @return round trip time in milliseconds, rounded up, -1 if no samples
+         */
+        int getPercentileMillis(int percent) {
+            if (this.count == 0) {
+                return -1;
+            }
+            int[] sortedArr = Arrays.copyOf(this.microsArr, this.count);
+            Arrays.sort(sortedArr);
+
+            int index = Math.min((percent * this.count + 99) / 100, this.count) - 1;
+            return (sortedArr[Math.max(index, 0)] + 999) / 1000;
+        }
+
+        /**
+         * Get the timeout for the samples, a multiple of their 99th percentile.
+         *
+         * @param maxTimeout the fixed timeout, used until there are enough
+         *                   samples
+         *
+         * @return timeout in milliseconds
+         */
+        int getTimeout(int maxTimeout) {
+            if (this.count < MIN_SAMPLES) {
+                return maxTimeout;
+            }
+            int timeout = getPercentileMillis(99) * RTT_TIMEOUT_FACTOR;
+            return Math.max(MIN_TIMEOUT, Math.min(timeout, maxTimeout));
+        }
+    }
+
+    /**
+     * The health of a board.
+     *
+     * @param boardCtrlP the board, for its address when probing
+     */
+    Im8BoardHealth(Im8BoardController boardCtrlP) {
+        this.boardCtrl = boardCtrlP;
+    }
+
+    /**
+     * Set when the breaker of a board opens and how often it is probed.
+     *
+     * @param failureThresholdP    failures in a row that open the breaker, 0
+     *                             never opens it
+     * @param probeIntervalMillisP milliseconds between probes
+     */
+    static void setCircuitBreaker(int failureThresholdP, long probeIntervalMillisP) {
+        failureThreshold = Math.max(failureThresholdP, 0);
+        probeIntervalMillis = Math.max(probeIntervalMillisP, 1);
+    }
+
+    /**
+     * Start the health again: the breaker closes and the round trip times are
+     * dropped&#46; A probe still waiting finds the breaker not open and stops.
+     */
+    synchronized void reset() {
+        this.connectRtt.clear();
+        this.exchangeRtt.clear();
+        this.failureCount = 0;
+        this.state = BreakerState.CLOSED;
+        this.trialInFlight = false;
+    }
+
+    /**
+     * Determine if an action may try the board, counting the fast failures&#46;
+     * A half open breaker lets one action through as the trial; should the
+     * trial not record an outcome within the probe interval it is taken as
+     * lost and the next action is the trial.
+     *
+     * @return false if the breaker is open, or half open with the trial
+     *         still to record its outcome
+     */
+    synchronized boolean allowRequest() {
+        if (this.state == BreakerState.OPEN) {
+            this.fastFailCount++;
+            return false;
+        }
+        if (this.state == BreakerState.HALF_OPEN) {
+            long nowNanos = System.nanoTime();
+            if (this.trialInFlight
+                    && nowNanos - this.trialStartNanos < TimeUnit.MILLISECONDS.toNanos(probeIntervalMillis)) {
+                this.fastFailCount++;
+                return false;
+            }
+            this.trialInFlight = true;
+            this.trialStartNanos = nowNanos;
+        }
+        return true;
+    }
+
+    /**
+     * Record the time taken by a connect to the board.
+     *
+     * @param nanos connect time in nanoseconds
+     */
+    synchronized void recordConnect(long nanos) {
+        this.connectRtt.add(nanos);
+    }
+
+    /**
+     * Record an exchange that had a response, which closes the breaker.
+     *
+     * @param nanos round trip time of the exchange in nanoseconds
+     */
+    synchronized void recordSuccess(long nanos) {
+        this.exchangeRtt.add(nanos);
+        this.failureCount = 0;
+        this.state = BreakerState.CLOSED;
+        this.trialInFlight = false;
+    }
+
+    /**
+     * Record a failed connect or an exchange without a response&#46; The
+     * round trip times no longer hold, so the fixed timeouts are used until
+     * the board has enough samples again, which lets a board that has become
+     * slower than its adapted timeouts recover&#46; The breaker opens if the
+     * failures in a row reach the threshold, or the trial action of a half
+     * open breaker failed.
+     */
+    synchronized void recordFailure() {
+        this.connectRtt.clear();
+        this.exchangeRtt.clear();
+        this.failureCount++;
+        this.trialInFlight = false;
+
+        int threshold = failureThreshold;
+        if (this.state == BreakerState.HALF_OPEN
+                || (this.state == BreakerState.CLOSED && threshold > 0 && this.failureCount >= threshold)) {
+            this.state = BreakerState.OPEN;
+            this.openCount++;
+            scheduleProbe();
+        }
+    }
+
+    /**
+     * Get the connect timeout of the board.
+     *
+     * @return timeout in milliseconds
+     */
+    synchronized int getConnectTimeout() {
+        return this.connectRtt.getTimeout(Im8Constants.TIMEOUT_FOR_CONNECTION_SETUP);
+    }
+
+    /**
+     * Get the timeout for the responses of an exchange with the board.
+     *
+     * @return timeout in milliseconds
+     */
+    synchronized int getResponseTimeout() {
+        return this.exchangeRtt.getTimeout(Im8Constants.TIMEOUT_FOR_RESPONSE);
+    }
+
+    synchronized BreakerState getState() {
+        return this.state;
+    }
+
+    /**
+     * Describe the health of the board.
+     *
+     * @return line of state, counts, percentiles and timeouts
+     */
+    synchronized String getStatusLine() {
+        return String.format("Health:b-%d:state=%s:failures=%d:opened=%d:fastFailed=%d"
+                + ":rttP50=%d:rttP99=%d:connectP99=%d:connectTimeout=%d:responseTimeout=%d",
+                this.boardCtrl.getBoardNumber(), this.state, this.failureCount, this.openCount,
+                this.fastFailCount, this.exchangeRtt.getPercentileMillis(50),
+                this.exchangeRtt.getPercentileMillis(99), this.connectRtt.getPercentileMillis(99),
+                getConnectTimeout(), getResponseTimeout());
+    }
+
+    /**
+     * Get the health of the boards that have been loaded.
+     *
+     * @return a line for each board, in board order
+     */
+    static ArrayList<String> getStatusLines() {
+        TreeMap<Integer, String> lineMap = new TreeMap<>();
+        for (Im8BoardController boardCtrl : Im8BoardController.getLoadedBoards()) {
+            lineMap.put(boardCtrl.getBoardNumber(), boardCtrl.getHealth().getStatusLine());
+        }
+        return new ArrayList<>(lineMap.values());
+    }
+
+    /**
+     * Probe the board after the probe interval.
+     */
+    private void scheduleProbe() {
+        Im8TimerWheel.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                // the connect is blocking so is not done on the wheel thread
+                getProbeExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        probe();
+                    }
+                });
+            }
+        }, probeIntervalMillis);
+    }
+
+    /**
+     * Try a plain connect to the board, half opening the breaker if it
+     * connects, otherwise probing again later.
+     */
+    private void probe() {
+        boolean connected = false;
+        try {
+            Socket socket = Im8Socket.createSocket();
+            try {
+                long startNanos = System.nanoTime();
+                socket.connect(new InetSocketAddress(this.boardCtrl.getIpV4Addr(),
+                        this.boardCtrl.getPortNo()), Im8Constants.TIMEOUT_FOR_CONNECTION_SETUP);
+                recordConnect(System.nanoTime() - startNanos);
+                connected = true;
+            } finally {
+                socket.close();
+            }
+        } catch (IOException | InstantiationException | IllegalAccessException | RuntimeException ex) {
+            // still down, or the address is not valid
+        }
+        synchronized (this) {
+            if (this.state != BreakerState.OPEN) {
+                return;
+            }
+            if (connected) {
+                this.state = BreakerState.HALF_OPEN;
+            } else {
+                scheduleProbe();
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getProbeExecutor() {
+        if (probeExecutor == null) {
+            probeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    // daemon so a library user is not kept running
+                    Thread thread = new Thread(runnable, "Im8BoardHealth-probe");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return probeExecutor;
+    }
+}
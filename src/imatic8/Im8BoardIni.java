@@ -31,6 +31,7 @@ import static imatic8.Im8Constants.MAX_RELAY_NUMBER;
 import static imatic8.Im8Constants.MIN_RELAY_NUMBER;
 import static imatic8.Im8Io.ErrorKind.CRITICAL;
 import static imatic8.Im8Io.ErrorKind.ERROR_INI;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -39,7 +40,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Class that provides board address settings for relay actions.
@@ -73,22 +77,66 @@ class Im8BoardIni extends Properties {
 
     private int boardN;
 
-    //99
-    private Im8Io m8Io;
-
     /**
      * The full path for the properties file.
      */
     private File propertyFile;
 
+    /**
+     * key: absolute path of a board-N INI file
+     *
+     * element: the INI properties, parsed once and shared for the process
+     */
+    private final static ConcurrentHashMap<String, Im8BoardIni> boardIniCacheHash = new ConcurrentHashMap<>();
+
+    /** the INI file last-modified time when the properties were loaded */
+    private long loadedModifiedMillis = -1;
+
+    /** the INI file length when the properties were loaded */
+    private long loadedFileLength = -1;
+
+    /** the number of times the INI file has been parsed */
+    private int loadCount = 0;
+
+    /**
+     * Lock of the file writes, not a monitor as the write and fsync block and
+     * would pin the carrier of a virtual thread.
+     */
+    private final ReentrantLock fileLock = new ReentrantLock();
+
     Im8BoardIni() {
         super();
     }
 
     Im8BoardIni(Im8Io m8Io, int boardN) {
-        this.m8Io = m8Io;
         this.boardN = boardN;
-        this.propertyFile = getBoardIniFile(this.m8Io, boardN);
+        this.propertyFile = getBoardIniFile(m8Io, boardN);
+    }
+
+    /**
+     * Get the INI properties for board N from the process wide cache&#46; The
+     * INI file is parsed on first use and only parsed again if the file has
+     * been changed (last-modified time or length) outside of the program.
+     *
+     * @param m8IoP        the IO object when processing messages
+     * @param boardNumberP board number
+     *
+     * @return the cached INI properties object
+     */
+    static Im8BoardIni getCachedBoardIni(Im8Io m8IoP, int boardNumberP) {
+        File iniFile = getBoardIniFile(m8IoP, boardNumberP);
+        String cacheKey = iniFile.getAbsolutePath();
+
+        Im8BoardIni boardIni = boardIniCacheHash.get(cacheKey);
+        if (boardIni == null) {
+            Im8BoardIni nuBoardIni = new Im8BoardIni(m8IoP, boardNumberP);
+
+            boardIni = boardIniCacheHash.putIfAbsent(cacheKey, nuBoardIni);
+            if (boardIni == null) {
+                boardIni = nuBoardIni;
+            }
+        }
+        return boardIni;
     }
 
     static boolean defineDefaultBoard1(Im8Io m8Io) {
@@ -96,20 +144,24 @@ class Im8BoardIni extends Properties {
     }
 
     static boolean defineBoardNIni(Im8Io m8Io, int boardN, String ipV4Adress) {
-        Im8BoardIni defineIni = new Im8BoardIni(m8Io, boardN);
-        defineIni.m8Io = m8Io;
-
-        // need to create the file for the first time
-        // store the IP address for the board number and its port-no
-        defineIni.setProperty(PROP_IP_STRING, ipV4Adress);
-        defineIni.setProperty(PROP_PORT_STRING, String.format("%d", IMATIC8_PORT_NO));
-
-        // store the relay states 
-        for (int i = MIN_RELAY_NUMBER; i <= MAX_RELAY_NUMBER; i++) {
-            defineIni.setProperty(
-                    String.format("R%d", i), IMATIC8_INI_OFF_STATE);// R1 R2 ......
+        // through the cached properties, so their users see the define
+        Im8BoardIni defineIni = getCachedBoardIni(m8Io, boardN);
+
+        synchronized (defineIni) {
+            // need to create the file for the first time
+            // store the IP address for the board number and its port-no
+            defineIni.setProperty(PROP_IP_STRING, ipV4Adress);
+            defineIni.setProperty(PROP_PORT_STRING, String.format("%d", IMATIC8_PORT_NO));
+
+            // store the relay states 
+            for (int i = MIN_RELAY_NUMBER; i <= MAX_RELAY_NUMBER; i++) {
+                defineIni.setProperty(
+                        String.format("R%d", i), IMATIC8_INI_OFF_STATE);// R1 R2 ......
+            }
+            // the relay states are new, as if the file had been loaded
+            defineIni.loadCount++;
         }
-        return defineIni.storeProperties();
+        return defineIni.storeProperties(m8Io);
     }
 
     /**
@@ -182,14 +234,23 @@ class Im8BoardIni extends Properties {
             Collections.sort(boardNArr);
             // format the defined board-N, IP address and port number being used
             for (Integer boardNInt : boardNArr) {
-                Im8BoardIni realIniProperties = new Im8BoardIni(m8IoP, boardNInt);
+                Im8BoardIni realIniProperties = getCachedBoardIni(m8IoP, boardNInt);
 
-                String ipAddr = realIniProperties.getIpAddrStr();
-                int ipPort = realIniProperties.getPortNo();
+                String ipAddr = realIniProperties.getIpAddrStr(m8IoP);
+                int ipPort = realIniProperties.getPortNo(m8IoP);
 
                 m8IoP.out(0).sprintf("b-%s : %s:%d\n", boardNInt, ipAddr, ipPort);
             }
         }
+        if (Im8RelayRecorder.isBinaryStateStore()) {
+            // the boards defined in the binary state file only
+            for (Map.Entry<Integer, String> entry : Im8BinaryStateStore.getStore().getAddresses(m8IoP).entrySet()) {
+                if (!getBoardIniFile(m8IoP, entry.getKey()).isFile()) {
+                    m8IoP.out(0).sprintf("b-%s : %s (%s)\n", entry.getKey(), entry.getValue(),
+                            Im8BinaryStateStore.STATE_FILE_NAME);
+                }
+            }
+        }
         // this is a okay return
         m8IoP.out(0);
     }
@@ -197,11 +258,13 @@ class Im8BoardIni extends Properties {
     /**
      * Get the IP address for the INI properties-file.
      *
+     * @param m8IoP the IO object when processing messages
+     *
      * @return String of nnn.nnn.nnn.nnn of an IP address, NULL if an error
      * processing INI file occurred
      */
-    String getIpAddrStr() {
-        if (this.loadProperties()) {
+    String getIpAddrStr(Im8Io m8IoP) {
+        if (this.loadProperties(m8IoP)) {
             return this.getProperty(PROP_IP_STRING);
         }
         return null;
@@ -210,10 +273,12 @@ class Im8BoardIni extends Properties {
     /**
      * Get the port number for the INI properties-file.
      *
+     * @param m8IoP the IO object when processing messages
+     *
      * @return integer of port number, -1 an error was detected
      */
-    int getPortNo() {
-        if (this.loadProperties()) {
+    int getPortNo(Im8Io m8IoP) {
+        if (this.loadProperties(m8IoP)) {
             // the properties load was okay
             String portStr = this.getProperty(PROP_PORT_STRING);
             int portNo;
@@ -222,9 +287,9 @@ class Im8BoardIni extends Properties {
                 return portNo;
 
             } catch (NumberFormatException ex) {
-                this.m8Io.err(-10).sprintf(ERROR_INI, "board %s INI file corrupt: %s\n   %s\n ",
+                m8IoP.err(-10).sprintf(ERROR_INI, "board %s INI file corrupt: %s\n   %s\n ",
                         this.boardN, ex.getMessage(),
-                        getBoardIniFile(this.m8Io, this.boardN).getAbsolutePath());
+                        getBoardIniFile(m8IoP, this.boardN).getAbsolutePath());
             }
         }
         return -1;
@@ -233,17 +298,38 @@ class Im8BoardIni extends Properties {
     /**
      * Load the INI properties file that is the best guess of the relay states.
      * Creates the INI at 'off all' if not found.
+     * <p>
+     * The file is only parsed if it has changed since it was last loaded or
+     * stored, otherwise the properties in memory are current&#46; The file is
+     * parsed into new properties which then replace these in one step, so a
+     * reader never sees them part loaded.
+     *
+     * @param m8IoP the IO object when processing messages
      */
     @SuppressWarnings("CallToPrintStackTrace")
-    boolean loadProperties() {
+    boolean loadProperties(Im8Io m8IoP) {
+        long modifiedMillis = propertyFile.lastModified();
+        long fileLength = propertyFile.length();
+
+        long previousModifiedMillis;
+        synchronized (this) {
+            if (modifiedMillis != 0
+                    && modifiedMillis == this.loadedModifiedMillis
+                    && fileLength == this.loadedFileLength) {
+                return true;
+            }
+            previousModifiedMillis = this.loadedModifiedMillis;
+        }
+        Properties fileProperties = new Properties();
         try {
             FileInputStream iStream = new FileInputStream(propertyFile);
 
             try {
-                this.load(iStream);
+                fileProperties.load(iStream);
+
             } catch (IOException ex) {
                 ex.printStackTrace();
-                this.m8Io.err(-97).sprintln(CRITICAL, "IO error, see trace.");
+                m8IoP.err(-97).sprintln(CRITICAL, "IO error, see trace.");
                 return false;
             }
             try {
@@ -254,26 +340,114 @@ class Im8BoardIni extends Properties {
 
         } catch (FileNotFoundException ex) {
             // need to create the file for the first time
-            this.m8Io.err(-96).sprintf(ERROR_INI, "no INI file for board-N: %d", this.boardN);
+            m8IoP.err(-96).sprintf(ERROR_INI, "no INI file for board-N: %d", this.boardN);
             return false;
         }
+        synchronized (this) {
+            if (this.loadedModifiedMillis != previousModifiedMillis) {
+                // stored or loaded while this was parsing, which is newer
+                return true;
+            }
+            if (this.loadedModifiedMillis != -1) {
+                // changed outside the program, so the file replaces all
+                this.clear();
+            }
+            this.putAll(fileProperties);
+            this.loadedModifiedMillis = modifiedMillis;
+            this.loadedFileLength = fileLength;
+            this.loadCount++;
+        }
         return true;
     }
 
+    /**
+     * Get a property, under the same lock as a load replaces the properties.
+     *
+     * @param key the property key
+     *
+     * @return the value, null if none
+     */
+    @Override
+    public synchronized String getProperty(String key) {
+        return super.getProperty(key);
+    }
+
+    /**
+     * Get the number of times the INI file has been parsed, so a user of the
+     * properties may tell when they have been reloaded.
+     *
+     * @return count of loads
+     */
+    synchronized int getLoadCount() {
+        return this.loadCount;
+    }
+
+    /**
+     * Get the file the INI properties are stored in.
+     *
+     * @return board-N INI file
+     */
+    File getPropertyFile() {
+        return this.propertyFile;
+    }
+
     /**
      * Store the relay states properties to the INI.
+     *
+     * @param m8IoP the IO object when processing messages
+     */
+    boolean storeProperties(Im8Io m8IoP) {
+        return storeProperties(m8IoP, false);
+    }
+
+    /**
+     * Store the relay states properties to the INI&#46; The properties are
+     * formatted in memory under their own lock, and the file is written
+     * under the file lock so the properties are not held for the write.
+     *
+     * @param m8IoP the IO object when processing messages
+     * @param fsync true to force the file to the storage device
+     */
+    boolean storeProperties(Im8Io m8IoP, boolean fsync) {
+        this.fileLock.lock();
+        try {
+            return storePropertiesLocked(m8IoP, fsync);
+        } finally {
+            this.fileLock.unlock();
+        }
+    }
+
+    /**
+     * Store the relay states properties to the INI, the file lock being held.
+     *
+     * @param m8IoP the IO object when processing messages
+     * @param fsync true to force the file to the storage device
      */
     @SuppressWarnings("CallToPrintStackTrace")
-    boolean storeProperties() {
+    private boolean storePropertiesLocked(Im8Io m8IoP, boolean fsync) {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try {
+            // store is synchronized on the properties
+            this.store(byteStream, "Imatic8 relay states (best guess)");
+
+        } catch (IOException ex1) {
+            ex1.printStackTrace();
+            m8IoP.err(-99).sprintln(CRITICAL, "IO error, see trace.");
+            return false;
+        }
         FileOutputStream oStream;
         try {
             oStream = new FileOutputStream(propertyFile);
             try {
-                this.store(oStream, "Imatic8 relay states (best guess)");
+                byteStream.writeTo(oStream);
+
+                if (fsync) {
+                    oStream.getFD().sync();
+                }
 
             } catch (IOException ex1) {
                 ex1.printStackTrace();
-                this.m8Io.err(-99).sprintln(CRITICAL, "IO error, see trace.");
+                m8IoP.err(-99).sprintln(CRITICAL, "IO error, see trace.");
                 return false;
             }
             try {
@@ -281,10 +455,17 @@ class Im8BoardIni extends Properties {
             } catch (IOException ex) {
                 // nothing we can do
             }
+            // what is in memory is what is in the file
+            long modifiedMillis = propertyFile.lastModified();
+            long fileLength = propertyFile.length();
+            synchronized (this) {
+                this.loadedModifiedMillis = modifiedMillis;
+                this.loadedFileLength = fileLength;
+            }
 
         } catch (FileNotFoundException ex1) {
             ex1.printStackTrace();
-            this.m8Io.err(-98).sprintln(CRITICAL, "IO error, see trace.");
+            m8IoP.err(-98).sprintln(CRITICAL, "IO error, see trace.");
             return false;
         }
         return true;
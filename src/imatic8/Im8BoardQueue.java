@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import static imatic8.Im8Io.ErrorKind.ERROR_RT_IO;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Class of a bounded queue of relay commands for a board, so callers do not
+ * block on a slow or unresponsive board.
+ * <p>
+ * A command is a run of relay actions for the board&#46; The commands of a
+ * board are sent one after another, each as a batch, by a single drain task,
+ * and each caller waits on the future of its command rather than on the
+ * board's lock&#46; When the queue is full the policy decides: the command
+ * fails at once (REJECT), the oldest queued command fails (DROP_OLDEST), or
+ * the command is merged into the newest queued command (COALESCE)&#46; The
+ * queued commands and the drain threads are bounded by the capacity and the
+ * number of boards, whatever the number of callers&#46; A command that has
+ * waited in the queue past its deadline fails when it is reached rather
+ * than being sent late, so a caller's wait for its command is bounded.
+ *
+ * @author dbradley
+ */
+class Im8BoardQueue {
+
+    /** queued commands per board */
+    static final int DEFAULT_CAPACITY = 16;
+
+    /** milliseconds a command may wait in the queue before it is sent */
+    static final long DEFAULT_DEADLINE_MILLIS = 10000;
+
+    /**
+     * Milliseconds a send of a command may take once it is reached, the
+     * connection set up plus a response for each relay.
+     */
+    static final long SEND_WAIT_MILLIS = Im8Constants.TIMEOUT_FOR_CONNECTION_SETUP
+            + Im8Constants.MAX_RELAY_NUMBER * Im8Constants.TIMEOUT_FOR_RESPONSE;
+
+    private static int capacity = DEFAULT_CAPACITY;
+
+    private static long deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+
+    private static Imatic8LibMode.QueuePolicy policy = Imatic8LibMode.QueuePolicy.REJECT;
+
+    /**
+     * key: board number
+     *
+     * element: the board's queue
+     */
+    private static final TreeMap<Integer, Im8BoardQueue> boardQueueHash = new TreeMap<>();
+
+    /** threads of the drain tasks, at most one per board */
+    private static ExecutorService drainExecutor = null;
+
+    private final Im8BoardController boardCtrl;
+
+    private final ArrayDeque<Command> commandDeque = new ArrayDeque<>();
+
+    /** true while a drain task is sending the board's commands */
+    private boolean draining = false;
+
+    private int maxDepth = 0;
+
+    private long sentCount = 0;
+
+    private long rejectedCount = 0;
+
+    private long droppedCount = 0;
+
+    private long coalescedCount = 0;
+
+    private long expiredCount = 0;
+
+    /**
+     * Relay states of a queued command.
+     */
+    private static class Command {
+
+        /** IO object for the send, with the settings of the caller */
+        final Im8Io sendIo;
+
+        /** relays set by the command */
+        int setBits;
+
+        /** on states of the set relays */
+        int onBits;
+
+        /** System.nanoTime() after which the command is not sent */
+        final long deadlineNanos;
+
+        /** completed with the send IO object once the command is sent */
+        final CompletableFuture<Im8Io> sendFuture = new CompletableFuture<>();
+
+        Command(Im8Io sendIoP, int setBitsP, int onBitsP, long deadlineNanosP) {
+            this.sendIo = sendIoP;
+            this.setBits = setBitsP;
+            this.onBits = onBitsP;
+            this.deadlineNanos = deadlineNanosP;
+        }
+    }
+
+    private Im8BoardQueue(Im8BoardController boardCtrlP) {
+        this.boardCtrl = boardCtrlP;
+    }
+
+    /**
+     * Set the capacity and full policy of the board queues.
+     *
+     * @param capacityP commands queued per board, at least 1
+     * @param policyP   what is done with a command when the queue is full
+     */
+    static synchronized void configure(int capacityP, Imatic8LibMode.QueuePolicy policyP) {
+        capacity = Math.max(capacityP, 1);
+        policy = policyP;
+    }
+
+    /**
+     * Set the deadline of the commands queued from now on.
+     *
+     * @param deadlineMillisP milliseconds a command may wait in the queue, at
+     *                        least 1
+     */
+    static synchronized void setDeadline(long deadlineMillisP) {
+        deadlineMillis = Math.max(deadlineMillisP, 1);
+    }
+
+    /**
+     * Get the longest a caller waits for a queued command: its deadline in
+     * the queue and then its send.
+     *
+     * @return milliseconds
+     */
+    static synchronized long getWaitMillis() {
+        return deadlineMillis + SEND_WAIT_MILLIS;
+    }
+
+    /**
+     * Queue a command for a board.
+     *
+     * @param m8IoP     the IO object of the caller
+     * @param boardCtrl the board
+     * @param setBits   relays set by the command
+     * @param onBits    on states of the set relays
+     *
+     * @return future completed with the IO object of the send, which has any
+     *         error of the send or of the queue
+     */
+    static CompletableFuture<Im8Io> submit(Im8Io m8IoP, Im8BoardController boardCtrl, int setBits, int onBits) {
+        Im8BoardQueue boardQueue;
+        int queueCapacity;
+        Imatic8LibMode.QueuePolicy queuePolicy;
+        long deadlineNanos;
+
+        synchronized (Im8BoardQueue.class) {
+            boardQueue = boardQueueHash.get(boardCtrl.getBoardNumber());
+            if (boardQueue == null || boardQueue.boardCtrl != boardCtrl) {
+                // a board defined again has a new queue
+                boardQueue = new Im8BoardQueue(boardCtrl);
+                boardQueueHash.put(boardCtrl.getBoardNumber(), boardQueue);
+            }
+            queueCapacity = capacity;
+            queuePolicy = policy;
+            deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        }
+        return boardQueue.offer(m8IoP, setBits, onBits, queueCapacity, queuePolicy, deadlineNanos);
+    }
+
+    private synchronized CompletableFuture<Im8Io> offer(Im8Io m8IoP, int setBits, int onBits,
+            int queueCapacity, Imatic8LibMode.QueuePolicy queuePolicy, long deadlineNanos) {
+        if (this.commandDeque.size() >= queueCapacity) {
+            switch (queuePolicy) {
+                case REJECT:
+                    this.rejectedCount++;
+                    return CompletableFuture.completedFuture(queueError(m8IoP, -88, "queue full"));
+
+                case DROP_OLDEST:
+                    Command oldest = this.commandDeque.poll();
+                    this.droppedCount++;
+                    oldest.sendFuture.complete(queueError(oldest.sendIo, -87, "dropped from full queue"));
+                    break;
+
+                case COALESCE:
+                    Command newest = this.commandDeque.peekLast();
+                    newest.onBits = (newest.onBits & ~setBits) | (onBits & setBits);
+                    newest.setBits |= setBits;
+                    this.coalescedCount++;
+
+                    // the caller has a future of its own, completed from the send
+                    final CompletableFuture<Im8Io> mergedFuture = new CompletableFuture<>();
+                    newest.sendFuture.whenComplete(new BiConsumer<Im8Io, Throwable>() {
+                        @Override
+                        public void accept(Im8Io sendIo, Throwable ex) {
+                            if (ex != null) {
+                                mergedFuture.completeExceptionally(ex);
+                            } else {
+                                mergedFuture.complete(sendIo);
+                            }
+                        }
+                    });
+                    return mergedFuture;
+            }
+        }
+        Command command = new Command(m8IoP.createFanOutChild(), setBits, onBits, deadlineNanos);
+        this.commandDeque.add(command);
+        this.maxDepth = Math.max(this.maxDepth, this.commandDeque.size());
+
+        if (!this.draining) {
+            this.draining = true;
+            getDrainExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        }
+        return command.sendFuture;
+    }
+
+    private Im8Io queueError(Im8Io m8IoP, int exitCode, String reason) {
+        Im8Io errorIo = m8IoP.createFanOutChild();
+        errorIo.err(exitCode).sprintf(ERROR_RT_IO, "%s: b-%d depth %d\n", reason,
+                this.boardCtrl.getBoardNumber(), this.commandDeque.size());
+        return errorIo;
+    }
+
+    /**
+     * Send the queued commands one after another until the queue is empty&#46;
+     * If the drain is ended by an Error the queue is marked as not draining,
+     * so the next command starts a drain again.
+     */
+    private void drain() {
+        boolean emptied = false;
+        try {
+            while (true) {
+                Command command;
+                synchronized (this) {
+                    command = this.commandDeque.poll();
+                    if (command == null) {
+                        this.draining = false;
+                        emptied = true;
+                        return;
+                    }
+                }
+                sendCommand(command);
+            }
+        } finally {
+            if (!emptied) {
+                synchronized (this) {
+                    this.draining = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a command, or fail it if its deadline has passed.
+     *
+     * @param command the command taken from the queue
+     */
+    private void sendCommand(Command command) {
+        if (System.nanoTime() - command.deadlineNanos > 0) {
+            synchronized (this) {
+                this.expiredCount++;
+            }
+            command.sendFuture.complete(queueError(command.sendIo, -86, "deadline passed in queue"));
+            return;
+        }
+        try {
+            byte[][] frameArr = Im8FrameCodec.getFrames(command.setBits, command.onBits);
+
+            this.boardCtrl.lockBoard();
+            try {
+                this.boardCtrl.sendBatch2TheBoard(command.sendIo, frameArr,
+                        Im8FrameCodec.getRelayNumberArr(frameArr), true);
+            } finally {
+                this.boardCtrl.unlockBoard();
+            }
+            Im8StatePersister.sequenceEnded();
+
+            synchronized (this) {
+                this.sentCount++;
+            }
+            command.sendFuture.complete(command.sendIo);
+
+        } catch (RuntimeException ex) {
+            command.sendFuture.completeExceptionally(ex);
+
+        } catch (Error ex) {
+            // the caller is not left waiting, and the drain ends
+            command.sendFuture.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the queue metrics of each board that has had a queued command, as
+     * lines of the form:
+     * <pre>
+     * Queue:b-2:depth=3:max=16:sent=120:rejected=4:dropped=0:coalesced=0:expired=0
+     * </pre>
+     *
+     * @return metrics lines in board order
+     */
+    static ArrayList<String> getMetrics() {
+        ArrayList<Im8BoardQueue> queueList;
+        synchronized (Im8BoardQueue.class) {
+            queueList = new ArrayList<>(boardQueueHash.values());
+        }
+        ArrayList<String> metricsList = new ArrayList<>();
+        for (Im8BoardQueue boardQueue : queueList) {
+            metricsList.add(boardQueue.getMetricsLine());
+        }
+        return metricsList;
+    }
+
+    private synchronized String getMetricsLine() {
+        return String.format("Queue:b-%d:depth=%d:max=%d:sent=%d:rejected=%d:dropped=%d:coalesced=%d:expired=%d",
+                this.boardCtrl.getBoardNumber(), this.commandDeque.size(), this.maxDepth,
+                this.sentCount, this.rejectedCount, this.droppedCount, this.coalescedCount, this.expiredCount);
+    }
+
+    /**
+     * Get the number of commands queued for a board.
+     *
+     * @param boardN board number
+     *
+     * @return queued commands, 0 if the board has no queue
+     */
+    static int getDepth(int boardN) {
+        Im8BoardQueue boardQueue;
+        synchronized (Im8BoardQueue.class) {
+            boardQueue = boardQueueHash.get(boardN);
+        }
+        if (boardQueue == null) {
+            return 0;
+        }
+        synchronized (boardQueue) {
+            return boardQueue.commandDeque.size();
+        }
+    }
+
+    private static synchronized ExecutorService getDrainExecutor() {
+        if (drainExecutor == null) {
+            drainExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    // daemon so a library user is not kept running
+                    Thread thread = new Thread(runnable, "Im8BoardQueue-drain");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return drainExecutor;
+    }
+}
@@ -37,6 +37,9 @@ import java.util.ArrayList;
  */
 class Im8Common {
 
+    /** argument 0 values that are a help or license request */
+    private static final String[] HELP_LICENSE_ARGS_ARR = new String[]{"help", "l", "-help", "/?", "?", "license"};
+
     static String[] tokenSingleLine(String readLn) {
         ArrayList<String> tokenList = new ArrayList<>();
 
@@ -64,7 +67,7 @@ class Im8Common {
      */
     static boolean checkForHelpOrLicense(Im8Io m8Io, String arg0LC) {
         // check for each help/license command type in the 0 argument
-        for (String exitStr : new String[]{"help", "l", "-help", "/?", "?", "license"}) {
+        for (String exitStr : HELP_LICENSE_ARGS_ARR) {
             if (arg0LC.equals(exitStr)) {
                 if (arg0LC.startsWith("l")) {
                     // user request license 
@@ -80,6 +83,23 @@ class Im8Common {
         return false;
     }
 
+    /**
+     * Check if the argument is a help, license or define IP request rather
+     * than relay operations, without processing the request.
+     *
+     * @param arg0LC string of lower-case argument 0
+     *
+     * @return true if a help, license or define IP request
+     */
+    static boolean isNoneActionRequest(String arg0LC) {
+        for (String exitStr : HELP_LICENSE_ARGS_ARR) {
+            if (arg0LC.equals(exitStr)) {
+                return true;
+            }
+        }
+        return arg0LC.equals("defip") || arg0LC.startsWith("defip-");
+    }
+
     /**
      * Process the argument if it is a define IP address request.
      *
@@ -176,8 +196,15 @@ class Im8Common {
                     boardsIniFile.getAbsolutePath());
             return true;
         }
-        // define the board-N INI file
-        Im8BoardIni.defineBoardNIni(m8Io, nBoard, ipArg);
+        if (Im8RelayRecorder.isBinaryStateStore()
+                && Im8BinaryStateStore.getStore().loadIpV4Addr(m8Io, nBoard) != null) {
+            m8Io.err(-1).sprintf(ERROR_ARG, "defip-N: N %d already exists in %s.\n",
+                    nBoard, Im8BinaryStateStore.STATE_FILE_NAME);
+            return true;
+        }
+        // define the board-N INI file (or binary record), and the board
+        // object if it is loaded
+        Im8BoardController.defineBoardObject(m8Io, nBoard, ipArg);
 
         // this was a success so continue
         return true;
@@ -194,6 +221,12 @@ class Im8Common {
         String.format(" or    - Interactive mode  = '%s.jar'", Imatic8Prog.programName),
         "          I>[ args | exit | quit | q]     [eg. I>'on 1 2 ms:500 on 3 ] b-2 on 4' | 'exit'",
         "          I> ---> next",
+        String.format(" or    - Daemon mode       = '%s.jar daemon [port]'  (loopback port, 30800)", Imatic8Prog.programName),
+        String.format("          '%s.jar client [port] args'    (run by the daemon, or here if none;",
+        Imatic8Prog.programName),
+        "                                      the daemon's INI files and scenes are used )",
+        String.format(" or    - HTTP mode         = '%s.jar http [port]'    (POST /exec, loopback port 30880)",
+        Imatic8Prog.programName),
         "[args...]",
         "   help | -help | /? | ? | license | l",
         " - setup -",
@@ -206,7 +239,11 @@ class Im8Common {
         "   s:N | ms:N                      ( pause N seconds/milliseconds )",
         "   status                          ( 'Status:b-1:12--5---'    b-N=board-N  digit=ON",
         "                                       b-1 if no preceding b-N",
-        "                                      > board has no query, so best guess status <  )"
+        "                                      > board has no query, so best guess status <  )",
+        "   scene NAME                      ( set the boards of a scene in Imatic8Scenes.ini",
+        "                                      eg. 'NAME.b-2=12------', 'Scene:b-2:ok' per board",
+        "                                      > set board by board, not atomic: a board that",
+        "                                        fails keeps its states, the others are set <  )"
     };
 
     /** Print the help information. */
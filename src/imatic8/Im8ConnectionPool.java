@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Class that keeps board connections alive between command sequences so a
+ * keep-alive library user does not pay a TCP connect for every request.
+ * <p>
+ * Connections are pooled per board-server 'ip:port' key (as defined in the
+ * board-N INI file). An idle connection is evicted after the idle period, and a
+ * connection that has been idle for a while is health probed before it is
+ * handed out again. A connection that turns out to be dead is discarded and the
+ * board controller reconnects transparently.
+ *
+ * @author dbradley
+ */
+class Im8ConnectionPool {
+
+    /** Default time a connection may stay idle in the pool (milliseconds). */
+    static final long DEFAULT_IDLE_EVICT_MILLIS = 30000;
+
+    /** Idle time after which a connection is probed before reuse. */
+    private static final long PROBE_AFTER_IDLE_MILLIS = 1000;
+
+    /** Read timeout used by the health probe (milliseconds). */
+    private static final int PROBE_READ_TIMEOUT = 1;
+
+    private static long idleEvictMillis = DEFAULT_IDLE_EVICT_MILLIS;
+
+    /**
+     * key: board-server 'ip:port'
+     *
+     * element: the idle connection parked for the board-server
+     */
+    private final static HashMap<String, PooledSocket> idleSocketHash = new HashMap<>();
+
+    private static Timer evictTimer = null;
+
+    /**
+     * An idle connection and the time it was returned to the pool.
+     */
+    private static class PooledSocket {
+
+        final Socket socket;
+        final long idleSinceMillis;
+
+        PooledSocket(Socket socketP) {
+            this.socket = socketP;
+            this.idleSinceMillis = System.currentTimeMillis();
+        }
+    }
+
+    private Im8ConnectionPool() {
+        //
+    }
+
+    /**
+     * Get the pool key for a board-server.
+     *
+     * @param ipAddr board IP address
+     * @param portNo board port number
+     *
+     * @return string 'ip:port'
+     */
+    static String poolKey(String ipAddr, int portNo) {
+        return String.format("%s:%d", ipAddr, portNo);
+    }
+
+    /**
+     * Set the time a connection may stay idle in the pool before it is closed.
+     *
+     * @param idleEvictMillisP milliseconds, values less than 1 use the default
+     */
+    static synchronized void setIdleEvictMillis(long idleEvictMillisP) {
+        idleEvictMillis = idleEvictMillisP < 1 ? DEFAULT_IDLE_EVICT_MILLIS : idleEvictMillisP;
+    }
+
+    /**
+     * Take an idle connection for the board-server out of the pool&#46; The
+     * connection is taken under the pool lock, but is checked and probed
+     * outside it, so other boards are not held up by a probe.
+     *
+     * @param ipAddr board IP address
+     * @param portNo board port number
+     *
+     * @return a healthy connected socket, or null if none is available
+     */
+    static Socket borrow(String ipAddr, int portNo) {
+        PooledSocket pooled;
+        synchronized (Im8ConnectionPool.class) {
+            pooled = idleSocketHash.remove(poolKey(ipAddr, portNo));
+        }
+        if (pooled == null) {
+            return null;
+        }
+        long idleMillis = System.currentTimeMillis() - pooled.idleSinceMillis;
+
+        if (idleMillis >= idleEvictMillis || !isConnected(pooled.socket)) {
+            discard(pooled.socket);
+            return null;
+        }
+        // a connection that has been sitting for a while may have been
+        // dropped by the board, so check it before it is used
+        if (idleMillis >= PROBE_AFTER_IDLE_MILLIS && !probe(pooled.socket)) {
+            discard(pooled.socket);
+            return null;
+        }
+        return pooled.socket;
+    }
+
+    /**
+     * Return a connection to the pool for reuse by a later command sequence.
+     *
+     * @param ipAddr board IP address
+     * @param portNo board port number
+     * @param socket the connection to park
+     */
+    static synchronized void release(String ipAddr, int portNo, Socket socket) {
+        if (!isConnected(socket)) {
+            discard(socket);
+            return;
+        }
+        PooledSocket previous = idleSocketHash.put(poolKey(ipAddr, portNo), new PooledSocket(socket));
+
+        if (previous != null && previous.socket != socket) {
+            discard(previous.socket);
+        }
+        startEvictTimer();
+    }
+
+    /**
+     * Close all the pooled connections.
+     */
+    static synchronized void closeAll() {
+        for (PooledSocket pooled : idleSocketHash.values()) {
+            discard(pooled.socket);
+        }
+        idleSocketHash.clear();
+
+        if (evictTimer != null) {
+            evictTimer.cancel();
+            evictTimer = null;
+        }
+    }
+
+    /**
+     * Close a connection ignoring any errors as it is of no further use.
+     *
+     * @param socket the connection to close
+     */
+    static void discard(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // nothing can be done
+        }
+    }
+
+    /**
+     * Close the connections that have been idle for the eviction period.
+     */
+    private static synchronized void evictIdle() {
+        long nowMillis = System.currentTimeMillis();
+
+        Iterator<Map.Entry<String, PooledSocket>> iter = idleSocketHash.entrySet().iterator();
+        while (iter.hasNext()) {
+            PooledSocket pooled = iter.next().getValue();
+
+            if (nowMillis - pooled.idleSinceMillis >= idleEvictMillis) {
+                discard(pooled.socket);
+                iter.remove();
+            }
+        }
+    }
+
+    private static void startEvictTimer() {
+        if (evictTimer != null) {
+            return;
+        }
+        // daemon so a library user is not kept running by the pool
+        evictTimer = new Timer("Im8ConnectionPool-evict", true);
+
+        long period = Math.max(idleEvictMillis / 2, 100);
+        evictTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, period, period);
+    }
+
+    private static boolean isConnected(Socket socket) {
+        return socket != null
+                && socket.isConnected()
+                && !socket.isClosed()
+                && !socket.isInputShutdown()
+                && !socket.isOutputShutdown();
+    }
+
+    /**
+     * Probe the connection by a very short read. A board that has closed the
+     * connection gives end-of-stream, a live one times out. Any stale bytes
+     * waiting on the connection are dropped as they belong to no request.
+     *
+     * @param socket the connection to probe
+     *
+     * @return true if the connection is usable
+     */
+    private static boolean probe(Socket socket) {
+        byte[] staleBytesArr = new byte[64];
+        try {
+            socket.setSoTimeout(PROBE_READ_TIMEOUT);
+            InputStream iStream = socket.getInputStream();
+
+            while (true) {
+                if (iStream.read(staleBytesArr) == -1) {
+                    return false;
+                }
+            }
+        } catch (SocketTimeoutException ex) {
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+}
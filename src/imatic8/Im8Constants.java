@@ -46,6 +46,9 @@ class Im8Constants {
     /** Connection send/receive timeout */
     static final int TIMEOUT_FOR_CONNECTION_SETUP = 2000;
 
+    /** Response timeout, the longest wait for the responses of an exchange */
+    static final int TIMEOUT_FOR_RESPONSE = 1000;
+
     // send messages indexes and codes 
     /** Relay byte location index in the send message array. */
     static final int RELAY_NUMBER_BYTE_INDEX = 3;
@@ -75,6 +78,21 @@ class Im8Constants {
     /** Relay state (on/off) byte location index in the response message array. */
     static final int RESPONSE_ON_OFF_STATE_BYTE_INDEX = 2;
 
+    /** Length of a single response message, FD &lt;relayNo&gt; &lt;on/off&gt; 5D. */
+    static final int RESPONSE_MSG_LENGTH = 4;
+
+    /** Maximum number of frames sent to a board in one batch write. */
+    static final int BATCH_MAX_FRAMES = 16;
+
+    /** A pause of this many milliseconds or more releases the board connections. */
+    static final int RELEASE_CONNECTION_PAUSE = 2000;
+
+    /** Loopback port of the daemon mode control socket. */
+    static final int DAEMON_PORT_NO = Integer.getInteger("imatic8.daemon.port", 30800);
+
+    /** Milliseconds the thin client waits for the daemon's report of a line. */
+    static final int CLIENT_REPLY_TIMEOUT = Integer.getInteger("imatic8.client.timeout", 60000);
+
     /**
      * Byte array of message to be sent to the Imatic8 board where indexes 3 and
      * 4 need to be filled/changed for relay number and on/off state values
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Class that debounces the relay actions for each board, so actions for the
+ * same relays that arrive within a window are collapsed into their final
+ * states before any frame is sent.
+ * <p>
+ * The first action for a board opens its window&#46; Later actions in the
+ * window overwrite the states of their relays (last writer wins), and when
+ * the window ends the board is sent only the frames that take its recorded
+ * relay states to the final states, as one batch&#46; An intermediate state
+ * never goes out on the wire&#46; Every action of the window shares the
+ * outcome of that send.
+ *
+ * @author dbradley
+ */
+class Im8Debouncer {
+
+    /**
+     * key: board number
+     *
+     * element: the relay states waiting for the end of the board's window
+     */
+    private static final HashMap<Integer, PendingBoard> pendingBoardHash = new HashMap<>();
+
+    /** threads the windows are sent on, apart from the timer wheel thread */
+    private static ExecutorService flushExecutor = null;
+
+    private static long actionCount = 0;
+
+    private static long flushCount = 0;
+
+    /**
+     * Relay states of a board waiting for the end of its window.
+     */
+    private static class PendingBoard {
+
+        final Im8BoardController boardCtrl;
+
+        /** IO object for the send, with the settings of the first action */
+        final Im8Io flushIo;
+
+        /** relays that have been set in the window */
+        int setBits = 0;
+
+        /** the final on states of the set relays */
+        int onBits = 0;
+
+        /** completed with the flush IO object once the window is sent */
+        final CompletableFuture<Im8Io> flushFuture = new CompletableFuture<>();
+
+        PendingBoard(Im8BoardController boardCtrlP, Im8Io flushIoP) {
+            this.boardCtrl = boardCtrlP;
+            this.flushIo = flushIoP;
+        }
+    }
+
+    private Im8Debouncer() {
+        //
+    }
+
+    /**
+     * Add relay states to the window of a board, opening a window if there is
+     * none.
+     *
+     * @param m8IoP        the IO object of the action
+     * @param boardCtrl    the board
+     * @param setBits      relays set by the action
+     * @param onBits       on states of the set relays
+     * @param windowMillis milliseconds of a new window
+     *
+     * @return future completed with the IO object of the send, which has any
+     *         error of the send
+     */
+    static synchronized CompletableFuture<Im8Io> submit(Im8Io m8IoP, Im8BoardController boardCtrl,
+            int setBits, int onBits, long windowMillis) {
+        final int boardN = boardCtrl.getBoardNumber();
+
+        PendingBoard pending = pendingBoardHash.get(boardN);
+        if (pending == null) {
+            pending = new PendingBoard(boardCtrl, m8IoP.createFanOutChild());
+            pendingBoardHash.put(boardN, pending);
+
+            Im8TimerWheel.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // the send is blocking so is not done on the wheel thread
+                    getFlushExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(boardN);
+                        }
+                    });
+                }
+            }, windowMillis);
+        }
+        // the last writer of a relay wins
+        pending.onBits = (pending.onBits & ~setBits) | (onBits & setBits);
+        pending.setBits |= setBits;
+
+        actionCount++;
+        return pending.flushFuture;
+    }
+
+    /**
+     * Send the final relay states of a board's window.
+     *
+     * @param boardN board number
+     */
+    private static void flush(int boardN) {
+        PendingBoard pending;
+        synchronized (Im8Debouncer.class) {
+            pending = pendingBoardHash.remove(boardN);
+            flushCount++;
+        }
+        Im8BoardController boardCtrl = pending.boardCtrl;
+        Im8Io flushIo = pending.flushIo;
+
+        boardCtrl.lockBoard();
+        try {
+            int currentMask = boardCtrl.getRelayMask(flushIo) & 0xff;
+            byte targetMask = (byte) ((currentMask & ~pending.setBits) | pending.onBits);
+
+            byte[][] frameArr = Im8FrameCodec.planFrames((byte) currentMask, targetMask);
+            if (frameArr.length == 0) {
+                boardCtrl.closeCommunication(flushIo, false);
+            } else {
+                boardCtrl.sendBatch2TheBoard(flushIo, frameArr, Im8FrameCodec.getRelayNumberArr(frameArr), true);
+            }
+        } catch (RuntimeException ex) {
+            pending.flushFuture.completeExceptionally(ex);
+            return;
+        } finally {
+            boardCtrl.unlockBoard();
+        }
+        Im8StatePersister.sequenceEnded();
+
+        pending.flushFuture.complete(flushIo);
+    }
+
+    /**
+     * Get the number of relay actions that have been debounced.
+     *
+     * @return count of actions
+     */
+    static synchronized long getActionCount() {
+        return actionCount;
+    }
+
+    /**
+     * Get the number of windows that have been sent, each being at most one
+     * batch of frames.
+     *
+     * @return count of windows
+     */
+    static synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    private static synchronized ExecutorService getFlushExecutor() {
+        if (flushExecutor == null) {
+            flushExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    // daemon so a library user is not kept running
+                    Thread thread = new Thread(runnable, "Im8Debouncer-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return flushExecutor;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Class that provides the event loop used by asynchronous library requests.
+ * <p>
+ * A single thread runs the requests in submission order. A pause (s:N or
+ * ms:N) in a request is scheduled as a continuation of the request rather than
+ * a Thread.sleep, so the loop thread continues with other requests while one
+ * is paused. Many requests may thus be in flight without a thread each.
+ * <p>
+ * The board I/O of a request is not run on the loop thread, as a slow or
+ * unreachable board would hold up every other request&#46; It is run on the
+ * board I/O threads and the request continues on the loop once it is done.
+ *
+ * @author dbradley
+ */
+class Im8EventLoop {
+
+    private static ScheduledExecutorService eventLoop = null;
+
+    private static ExecutorService boardIoExecutor = null;
+
+    private Im8EventLoop() {
+        //
+    }
+
+    /**
+     * Get the event loop, creating it the first time.
+     *
+     * @return the scheduled executor acting as the event loop
+     */
+    static synchronized ScheduledExecutorService get() {
+        if (eventLoop == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                    new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    // daemon so a library user is not kept running by the loop
+                    Thread thread = new Thread(runnable, "Im8EventLoop");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            eventLoop = executor;
+        }
+        return eventLoop;
+    }
+
+    /**
+     * Get the threads the board I/O of the event loop requests is run on,
+     * creating them the first time.
+     *
+     * @return the executor for the board I/O
+     */
+    static synchronized ExecutorService getBoardIo() {
+        if (boardIoExecutor == null) {
+            boardIoExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Im8BoardIo");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return boardIoExecutor;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import static imatic8.Im8Constants.MAX_RELAY_NUMBER;
+import static imatic8.Im8Constants.MIN_RELAY_NUMBER;
+import static imatic8.Im8Constants.RELAY_ALL_NUMBER;
+import static imatic8.Im8Constants.RELAY_NUMBER_BYTE_INDEX;
+import static imatic8.Im8Constants.RELAY_MSG_ARRAY;
+
+/**
+ * Class that holds the frames of every relay action encoded once: the on and
+ * off frames for each of the relays 1-8, plus the all-on and all-off frames&#46;
+ * <p>
+ * The frames are shared by all boards and callers, so a frame from this
+ * class is only ever read (sent) and never written into&#46; Sending a relay
+ * action then allocates no message bytes.
+ *
+ * @author dbradley
+ */
+final class Im8FrameCodec {
+
+    /** length of a relay action frame, FD 02 20 &lt;relayNo&gt; &lt;on/off&gt; 5D */
+    static final int FRAME_LENGTH = RELAY_MSG_ARRAY.length;
+
+    /** on frames indexed by relay number, index 0 is unused */
+    private static final byte[][] RELAY_ON_FRAME_ARR = encodeRelayFrames(Im8RelayInfo.RELAY_ON);
+
+    /** off frames indexed by relay number, index 0 is unused */
+    private static final byte[][] RELAY_OFF_FRAME_ARR = encodeRelayFrames(Im8RelayInfo.RELAY_OFF);
+
+    private static final byte[] RELAY_ALL_ON_FRAME_ARR = Im8RelayInfo.RELAY_ALL_ON.getMessageBytesForRelayAction(-1);
+
+    private static final byte[] RELAY_ALL_OFF_FRAME_ARR = Im8RelayInfo.RELAY_ALL_OFF.getMessageBytesForRelayAction(-1);
+
+    private Im8FrameCodec() {
+        // 
+    }
+
+    private static byte[][] encodeRelayFrames(Im8RelayInfo action) {
+        byte[][] frameArr = new byte[MAX_RELAY_NUMBER + 1][];
+
+        for (int relayNumber = MIN_RELAY_NUMBER; relayNumber <= MAX_RELAY_NUMBER; relayNumber++) {
+            frameArr[relayNumber] = action.getMessageBytesForRelayAction(relayNumber);
+        }
+        return frameArr;
+    }
+
+    /**
+     * Get the shared frame for a relay action&#46; The frame must not be
+     * changed.
+     *
+     * @param action      relay action
+     * @param relayNumber 1-8 relay to operate on (ALL relay is ignored)
+     *
+     * @return byte[] of the message to do the action
+     */
+    static byte[] getFrame(Im8RelayInfo action, int relayNumber) {
+        switch (action) {
+            case RELAY_ON:
+                return RELAY_ON_FRAME_ARR[relayNumber];
+            case RELAY_OFF:
+                return RELAY_OFF_FRAME_ARR[relayNumber];
+            case RELAY_ALL_ON:
+                return RELAY_ALL_ON_FRAME_ARR;
+            case RELAY_ALL_OFF:
+                return RELAY_ALL_OFF_FRAME_ARR;
+            default:
+                // missing code if this happens
+                throw new RuntimeException(String.format("incorrect call on type: %s\n", action));
+        }
+    }
+
+    /**
+     * Get the relay number of a frame.
+     *
+     * @param frame relay action frame
+     *
+     * @return 1-8 relay number, -1 is all
+     */
+    static int getRelayNumber(byte[] frame) {
+        if (frame[RELAY_NUMBER_BYTE_INDEX] == RELAY_ALL_NUMBER) {
+            return -1;
+        }
+        return frame[RELAY_NUMBER_BYTE_INDEX];
+    }
+
+    /**
+     * Get the relay numbers of frames.
+     *
+     * @param frameArr relay action frames
+     *
+     * @return 1-8 relay numbers, -1 is all
+     */
+    static int[] getRelayNumberArr(byte[][] frameArr) {
+        int[] relayNumberArr = new int[frameArr.length];
+        for (int i = 0; i < frameArr.length; i++) {
+            relayNumberArr[i] = getRelayNumber(frameArr[i]);
+        }
+        return relayNumberArr;
+    }
+
+    /**
+     * Plan the frames that take the relays of a board from their current
+     * states to target states&#46; The relays that differ are sent, except
+     * that an all on/off frame replaces them when the target is every relay
+     * on or every relay off&#46; No frame ever commands a relay to a state
+     * other than its target, so a relay that does not differ never switches.
+     *
+     * @param currentMask current relay states
+     * @param targetMask  target relay states
+     *
+     * @return the frames in the order to send, empty if the states are the
+     *         same
+     */
+    static byte[][] planFrames(byte currentMask, byte targetMask) {
+        int diffBits = (currentMask ^ targetMask) & 0xff;
+        int individualCount = Integer.bitCount(diffBits);
+
+        if (individualCount > 1) {
+            byte[] allFrame = getAllFrame(targetMask);
+            if (allFrame != null) {
+                return new byte[][]{allFrame};
+            }
+        }
+        byte[][] frameArr = new byte[individualCount][];
+        addRelayFrames(frameArr, 0, targetMask, diffBits);
+        return frameArr;
+    }
+
+    /**
+     * Get the all on/off frame of target states that are every relay on or
+     * every relay off.
+     *
+     * @param targetMask target relay states
+     *
+     * @return the all on or all off frame, null if the relays are mixed
+     */
+    private static byte[] getAllFrame(byte targetMask) {
+        switch (targetMask & 0xff) {
+            case 0xff:
+                return RELAY_ALL_ON_FRAME_ARR;
+            case 0x00:
+                return RELAY_ALL_OFF_FRAME_ARR;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get one frame per relay 1-8 that sets it to its target state, without
+     * an all on/off frame, so each frame is idempotent.
+     *
+     * @param targetMask target relay states
+     *
+     * @return the eight frames in relay order
+     */
+    static byte[][] getRelayFrames(byte targetMask) {
+        byte[][] frameArr = new byte[MAX_RELAY_NUMBER][];
+        addRelayFrames(frameArr, 0, targetMask, 0xff);
+        return frameArr;
+    }
+
+    /**
+     * Get the frames that set relays to on/off states, without regard to
+     * their current states&#46; An all on/off frame is used only when every
+     * relay is set to the same state.
+     *
+     * @param setBits relays to set
+     * @param onBits  on states of the set relays
+     *
+     * @return the frames in the order to send
+     */
+    static byte[][] getFrames(int setBits, int onBits) {
+        if ((setBits & 0xff) == 0xff) {
+            byte[] allFrame = getAllFrame((byte) onBits);
+            if (allFrame != null) {
+                return new byte[][]{allFrame};
+            }
+        }
+        byte[][] frameArr = new byte[Integer.bitCount(setBits & 0xff)][];
+        addRelayFrames(frameArr, 0, (byte) onBits, setBits & 0xff);
+        return frameArr;
+    }
+
+    private static void addRelayFrames(byte[][] frameArr, int frameIndex, byte targetMask, int relayBits) {
+        for (int relayNumber = MIN_RELAY_NUMBER; relayNumber <= MAX_RELAY_NUMBER; relayNumber++) {
+            int bit = 1 << (relayNumber - 1);
+            if ((relayBits & bit) != 0) {
+                frameArr[frameIndex++] = (targetMask & bit) != 0
+                        ? RELAY_ON_FRAME_ARR[relayNumber] : RELAY_OFF_FRAME_ARR[relayNumber];
+            }
+        }
+    }
+
+    /**
+     * Encode frames one after the other into a buffer, for a single write.
+     *
+     * @param frameArr  the frames to encode
+     * @param bufferArr buffer of at least frames x FRAME_LENGTH bytes
+     *
+     * @return number of bytes encoded into the buffer
+     */
+    static int encodeFrames(byte[][] frameArr, byte[] bufferArr) {
+        for (int i = 0; i < frameArr.length; i++) {
+            System.arraycopy(frameArr[i], 0, bufferArr, i * FRAME_LENGTH, FRAME_LENGTH);
+        }
+        return frameArr.length * FRAME_LENGTH;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import static imatic8.Im8Constants.MAX_RELAY_NUMBER;
+import static imatic8.Im8Constants.MIN_RELAY_NUMBER;
+
+/**
+ * Class that keeps the relay states as 'R1'..'R8' on/off properties in the
+ * board-N INI file (the default backend).
+ *
+ * @author dbradley
+ */
+class Im8IniStateBackend implements Im8StateBackend {
+
+    /** the single instance as the backend has no state of its own */
+    static final Im8IniStateBackend INI_BACKEND = new Im8IniStateBackend();
+
+    /** 'R1'..'R8' property keys by relay number */
+    private static final String[] RELAY_KEY_ARR = new String[]{
+        null, "R1", "R2", "R3", "R4", "R5", "R6", "R7", "R8"
+    };
+
+    private Im8IniStateBackend() {
+        //
+    }
+
+    @Override
+    public boolean storeRelayMask(Im8Io m8Io, Im8BoardController boardCtrl, byte relayMask) {
+        Im8BoardIni propIni = boardCtrl.propIni;
+
+        for (int i = MIN_RELAY_NUMBER; i <= MAX_RELAY_NUMBER; i++) {
+            boolean relayOn = (relayMask & Im8RelayState.relayBit(i)) != 0;
+
+            propIni.setProperty(RELAY_KEY_ARR[i], relayOn
+                    ? Im8BoardIni.IMATIC8_INI_ON_STATE : Im8BoardIni.IMATIC8_INI_OFF_STATE);
+        }
+        // store the properties
+        if (m8Io.isWriteBehind()) {
+            // stored with other changes on the next flush
+            Im8StatePersister.markDirty(m8Io, propIni);
+            return true;
+        }
+        return propIni.storeProperties(m8Io);
+    }
+
+    @Override
+    public byte loadRelayMask(Im8Io m8Io, Im8BoardController boardCtrl) {
+        byte relayMask = Im8RelayState.ALL_OFF_MASK;
+
+        // the INI file may have been changed since the board was defined
+        if (!boardCtrl.propIni.loadProperties(m8Io)) {
+            return relayMask;
+        }
+        for (int i = MIN_RELAY_NUMBER; i <= MAX_RELAY_NUMBER; i++) {
+            String state = boardCtrl.propIni.getProperty(RELAY_KEY_ARR[i]);
+
+            if (state != null && !state.equals(Im8BoardIni.IMATIC8_INI_OFF_STATE)) {
+                relayMask |= Im8RelayState.relayBit(i);
+            }
+        }
+        return relayMask;
+    }
+}
@@ -31,6 +31,9 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Class that provides a JAR library interface to use the Imatic8Prog program.
@@ -114,6 +117,30 @@ class Im8Io {
     private final Im8PseudoStreamOut out;
     private final Im8PseudoStreamErr err;
 
+    /** true if board connections are kept alive between command sequences */
+    private boolean keepAlive = false;
+
+    /** true if the actions of different boards are run concurrently */
+    private boolean fanOut = Boolean.getBoolean("imatic8.fanout");
+
+    /** true if the relay states are stored write-behind */
+    private boolean writeBehind = Boolean.getBoolean("imatic8.writebehind");
+
+    /** true if consecutive relay actions for a board are sent as a batch */
+    private boolean batch = Boolean.getBoolean("imatic8.batch");
+
+    /** true if consecutive relay actions for a board are sent pipelined */
+    private boolean pipelined = Boolean.getBoolean("imatic8.pipeline");
+
+    /** true if relay actions for a board send only the frames that change state */
+    private boolean converge = Boolean.getBoolean("imatic8.converge");
+
+    /** milliseconds relay actions for a board are debounced over, 0 for none */
+    private long debounceMillis = Long.getLong("imatic8.debounce", 0);
+
+    /** true if relay actions go through the board command queues */
+    private boolean queued = Boolean.getBoolean("imatic8.queue");
+
     /**
      * Create an instance that will process Imatic8Prog arguments and perform
      * actions.
@@ -160,6 +187,162 @@ class Im8Io {
         return userDir;
     }
 
+    /**
+     * Set if board connections are to be kept alive (pooled) after a command
+     * sequence completes, rather than closed.
+     *
+     * @param keepAliveP true to keep connections alive
+     */
+    final void setKeepAlive(boolean keepAliveP) {
+        this.keepAlive = keepAliveP;
+    }
+
+    final boolean isKeepAlive() {
+        return this.keepAlive;
+    }
+
+    /**
+     * Set if the actions for different boards are to be run concurrently
+     * (fan-out), rather than one after another. May also be set with the
+     * 'imatic8.fanout' property.
+     *
+     * @param fanOutP true to fan-out board actions
+     */
+    final void setFanOut(boolean fanOutP) {
+        this.fanOut = fanOutP;
+    }
+
+    final boolean isFanOut() {
+        return this.fanOut;
+    }
+
+    /**
+     * Set if the relay states are stored write-behind, coalesced into a store
+     * per board rather than a store per relay response. May also be set with
+     * the 'imatic8.writebehind' property.
+     *
+     * @param writeBehindP true to store write-behind
+     */
+    final void setWriteBehind(boolean writeBehindP) {
+        this.writeBehind = writeBehindP;
+    }
+
+    final boolean isWriteBehind() {
+        return this.writeBehind;
+    }
+
+    /**
+     * Set if consecutive relay actions for the same board are sent as a batch,
+     * with all their frames in a single write. May also be set with the
+     * 'imatic8.batch' property.
+     *
+     * @param batchP true to send batches
+     */
+    final void setBatch(boolean batchP) {
+        this.batch = batchP;
+    }
+
+    final boolean isBatch() {
+        return this.batch;
+    }
+
+    /**
+     * Set if consecutive relay actions for the same board are sent pipelined,
+     * with a window of frames sent ahead of their responses. May also be set
+     * with the 'imatic8.pipeline' property.
+     *
+     * @param pipelinedP true to send pipelined
+     */
+    final void setPipelined(boolean pipelinedP) {
+        this.pipelined = pipelinedP;
+    }
+
+    final boolean isPipelined() {
+        return this.pipelined;
+    }
+
+    /**
+     * Set if consecutive relay actions for the same board are converged, so
+     * only the frames that change the recorded relay states are sent. May also
+     * be set with the 'imatic8.converge' property.
+     *
+     * @param convergeP true to converge relay actions
+     */
+    final void setConverge(boolean convergeP) {
+        this.converge = convergeP;
+    }
+
+    final boolean isConverge() {
+        return this.converge;
+    }
+
+    /**
+     * Set the window relay actions for a board are debounced over, so only
+     * the final states of the relays are sent. May also be set with the
+     * 'imatic8.debounce' property.
+     *
+     * @param debounceMillisP milliseconds, 0 for no debouncing
+     */
+    final void setDebounceMillis(long debounceMillisP) {
+        this.debounceMillis = Math.max(debounceMillisP, 0);
+    }
+
+    final long getDebounceMillis() {
+        return this.debounceMillis;
+    }
+
+    /**
+     * Set if relay actions go through the bounded command queue of each
+     * board, rather than the callers waiting on the board. May also be set
+     * with the 'imatic8.queue' property.
+     *
+     * @param queuedP true to queue relay actions
+     */
+    final void setQueued(boolean queuedP) {
+        this.queued = queuedP;
+    }
+
+    final boolean isQueued() {
+        return this.queued;
+    }
+
+    /**
+     * Create an IO object with the same settings as this one, to collect the
+     * messages of a board's actions run concurrently with other boards.
+     *
+     * @return IO object for the board's actions
+     */
+    final Im8Io createFanOutChild() {
+        Im8Io childIo = new Im8Io(this.args);
+        childIo.keepAlive = this.keepAlive;
+        childIo.writeBehind = this.writeBehind;
+        childIo.batch = this.batch;
+        childIo.pipelined = this.pipelined;
+        childIo.converge = this.converge;
+        childIo.debounceMillis = this.debounceMillis;
+        childIo.queued = this.queued;
+
+        return childIo;
+    }
+
+    /**
+     * Merge the messages of a fan-out child into this IO object. An error in
+     * the child becomes the exit code of this object.
+     *
+     * @param childIo the child IO object
+     *
+     * @return true if the child had no error
+     */
+    final boolean mergeFanOutChild(Im8Io childIo) {
+        this.out.append(childIo.out);
+
+        if (childIo.exitCode != 0) {
+            this.err(childIo.exitCode).append(childIo.err);
+            return false;
+        }
+        return true;
+    }
+
     final int getExitCode() {
         return this.exitCode;
     }
@@ -200,14 +383,82 @@ class Im8Io {
      * the library call arrangement.
      */
     final public void runAsLib() {
-        // flush out any old settings
-        this.exitCode = -9999;
+        if (runNoneActionRequests()) {
+            return;
+        }
+        // command mode operation
+        new Im8ProcessArgs(this).doProcessArgs(args);
+    }
 
-        this.err.clear();
-        this.out.clear();
+    /**
+     * Run the Imatic8Prog as a library accessed object on the event loop, the
+     * same as <code>runAsLib</code> but the relay actions do not block the
+     * event loop during any pause.
+     *
+     * @param eventLoop the event loop the request is being run on
+     *
+     * @return future completed when the request is done and the exitCode and
+     *         reports are available
+     */
+    final CompletableFuture<Void> runAsLibAsync(ScheduledExecutorService eventLoop) {
+        if (runNoneActionRequests()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        // command mode operation
+        return new Im8ProcessArgs(this).doProcessArgsAsync(args, eventLoop);
+    }
 
-        // for testing purposes need to overlay a test environment
-        checkTestEnvironment();
+    /**
+     * Validate the relay operations of the arguments into the actions of a
+     * program, which <code>runProgramAsLib</code> may run many times&#46; The
+     * exitCode is 0 if the arguments are valid, otherwise the errors are in
+     * the 'err' messages.
+     *
+     * @return the actions of the program, or null if the arguments have errors
+     */
+    final List<Im8Action> compileAsLib() {
+        prepareRun();
+
+        return new Im8ProcessArgs(this).compileArgs(args);
+    }
+
+    /**
+     * Run the actions of a compiled program, the same as
+     * <code>runAsLib</code> without the arguments being parsed.
+     *
+     * @param programList the actions of the compiled program
+     */
+    final void runProgramAsLib(List<Im8Action> programList) {
+        prepareRun();
+
+        new Im8ProcessArgs(this).doProcessProgram(programList);
+    }
+
+    /**
+     * Run the actions of a compiled program on the event loop, the same as
+     * <code>runAsLibAsync</code> without the arguments being parsed.
+     *
+     * @param programList the actions of the compiled program
+     * @param eventLoop   the event loop the request is being run on
+     *
+     * @return future completed when the request is done and the exitCode and
+     *         reports are available
+     */
+    final CompletableFuture<Void> runProgramAsLibAsync(List<Im8Action> programList,
+            ScheduledExecutorService eventLoop) {
+        prepareRun();
+
+        return new Im8ProcessArgs(this).doProcessProgramAsync(programList, eventLoop);
+    }
+
+    /**
+     * Prepare for a run and process any help, license or define IP request.
+     *
+     * @return true if the request was processed, false if the arguments are
+     *         relay operations still to process
+     */
+    private boolean runNoneActionRequests() {
+        prepareRun();
 
         //
         // command line mode
@@ -218,14 +469,24 @@ class Im8Io {
 
         if (Im8Common.checkForHelpOrLicense(this, arg0)) {
             // this.exitCode = 0;
-            return;
+            return true;
         }
         if (Im8Common.processCheckForDefineIP(this, arg0, args)) {
             // this.exitCode = 0 or -1;
-            return;
+            return true;
         }
-        // command mode operation
-        new Im8ProcessArgs(this).doProcessArgs(args);
+        return false;
+    }
+
+    private void prepareRun() {
+        // flush out any old settings
+        this.exitCode = -9999;
+
+        this.err.clear();
+        this.out.clear();
+
+        // for testing purposes need to overlay a test environment
+        checkTestEnvironment();
     }
 
     private void checkTestEnvironment() {
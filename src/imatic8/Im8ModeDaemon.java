@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import static imatic8.Im8Constants.CLIENT_REPLY_TIMEOUT;
+import static imatic8.Im8Constants.DAEMON_PORT_NO;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Class for the daemon mode, a long-running process that keeps the board
+ * objects, the board connections (keep-alive) and the relay states warm, and
+ * takes argument lines on a loopback control socket.
+ * <p>
+ * Started with 'daemon [port]'&#46; Each line sent to the socket is run as
+ * the arguments of a command-line invocation, and answered with the report
+ * lines, each prefixed by 'out:' or 'err:', and a last line of 'exit:N' with
+ * the exit code:
+ * <pre>
+ * b-2 on 1 status
+ * out:Status:b-2:1-------
+ * exit:0
+ * </pre> A connection may send any number of lines, and is closed with
+ * 'exit', 'quit' or 'q'&#46; A 'shutdown' line stops the daemon, and an
+ * empty line is answered with 'exit:-1'.
+ * <p>
+ * A line with a tab in it has its arguments separated by tabs, each
+ * argument ended by a tab, which is how the thin client ('client [port]
+ * args') sends them so an argument may hold spaces; any other line is split
+ * as an interactive line&#46; The board INI files and the scenes file are
+ * those of the daemon's directory, not the client's, whatever directory the
+ * client is run in.
+ *
+ * @author dbradley
+ */
+class Im8ModeDaemon {
+
+    private static final String OUT_PREFIX = "out:";
+
+    private static final String ERR_PREFIX = "err:";
+
+    private static final String EXIT_PREFIX = "exit:";
+
+    /** ends each argument of a line sent by the thin client */
+    private static final char ARG_SEPARATOR = '\t';
+
+    private static volatile ServerSocket serverSocket = null;
+
+    private Im8ModeDaemon() {
+        //
+    }
+
+    /**
+     * Run the daemon until a 'shutdown' line is received.
+     *
+     * @param args 'daemon' and an optional port number
+     */
+    static void processDaemonMode(String[] args) {
+        int portNo = DAEMON_PORT_NO;
+        if (args.length > 1) {
+            try {
+                portNo = Integer.parseInt(args[1]);
+            } catch (NumberFormatException ex) {
+                System.err.printf("daemon port invalid: %s\n", args[1]);
+                System.exit(-1);
+            }
+        }
+        ExecutorService clientExecutor = getClientExecutor();
+
+        try {
+            // loopback only, the socket has no authentication
+            serverSocket = new ServerSocket(portNo, 50, InetAddress.getLoopbackAddress());
+            System.out.printf("%s daemon on %s:%d\n", Imatic8Prog.programName,
+                    serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort());
+
+            while (!serverSocket.isClosed()) {
+                final Socket clientSocket;
+                try {
+                    clientSocket = serverSocket.accept();
+                } catch (IOException ex) {
+                    // closed by a shutdown
+                    break;
+                }
+                clientExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serveClient(clientSocket);
+                    }
+                });
+            }
+        } catch (IOException ex) {
+            System.err.printf("daemon socket: %s\n", ex.getMessage());
+            System.exit(-1);
+        }
+        // any kept-alive connections and write-behind states are closed/stored
+        Im8ConnectionPool.closeAll();
+        Im8StatePersister.flush();
+        System.exit(0);
+    }
+
+    /**
+     * Run the argument lines of a client connection until it closes.
+     *
+     * @param clientSocket the client connection
+     */
+    static void serveClient(Socket clientSocket) {
+        try (Socket socket = clientSocket) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+
+            String readLn;
+            while ((readLn = reader.readLine()) != null) {
+                String[] argsArr = splitArgsLine(readLn);
+
+                if (argsArr.length == 0) {
+                    // answered, as the client waits on a report for every line
+                    writer.write(ERR_PREFIX + "no arguments\n" + EXIT_PREFIX + "-1\n");
+                    writer.flush();
+                    continue;
+                }
+                String arg0LC = argsArr[0].toLowerCase();
+                if (arg0LC.equals("exit") || arg0LC.equals("quit") || arg0LC.equals("q")) {
+                    break;
+                }
+                if (arg0LC.equals("shutdown")) {
+                    writer.write(EXIT_PREFIX + "0\n");
+                    writer.flush();
+                    serverSocket.close();
+                    break;
+                }
+                Im8Io m8Io = new Im8Io(argsArr);
+                // the board connections are kept for the next line
+                m8Io.setKeepAlive(true);
+                m8Io.runAsLib();
+
+                writeReport(writer, m8Io);
+                writer.flush();
+            }
+        } catch (IOException ex) {
+            // the client has gone, nothing to report to
+        }
+    }
+
+    /**
+     * Split a line into its arguments, on the tabs of a thin client line,
+     * otherwise as an interactive line.
+     *
+     * @param readLn the line as read
+     *
+     * @return the arguments, empty if none
+     */
+    static String[] splitArgsLine(String readLn) {
+        if (readLn.indexOf(ARG_SEPARATOR) < 0) {
+            return Im8Common.tokenSingleLine(readLn);
+        }
+        // each argument is ended by a tab, so there are no trailing empties
+        return readLn.split(String.valueOf(ARG_SEPARATOR));
+    }
+
+    /**
+     * Join arguments into a thin client line, each argument ended by a tab
+     * so its spaces are kept.
+     *
+     * @param args      the arguments
+     * @param argsStart index of the first argument to join
+     *
+     * @return the line, without a line end
+     */
+    static String joinArgsLine(String[] args, int argsStart) {
+        StringBuilder lineBuilder = new StringBuilder();
+        for (int i = argsStart; i < args.length; i++) {
+            lineBuilder.append(args[i]).append(ARG_SEPARATOR);
+        }
+        return lineBuilder.toString();
+    }
+
+    /**
+     * Write the report of a line, each report line prefixed by its stream,
+     * and the exit code.
+     *
+     * @param writer the client writer
+     * @param m8Io   the IO object of the line
+     */
+    private static void writeReport(Writer writer, Im8Io m8Io) throws IOException {
+        int exitCode = m8Io.getExitCode();
+        String prefix = exitCode == 0 ? OUT_PREFIX : ERR_PREFIX;
+
+        for (String report : m8Io.getReportIntoArray()) {
+            // a report may be more than one line
+            for (String reportLn : report.split("\n", -1)) {
+                writer.write(prefix);
+                writer.write(reportLn);
+                writer.write('\n');
+            }
+        }
+        writer.write(EXIT_PREFIX + exitCode + "\n");
+    }
+
+    /**
+     * Get the threads for the client connections, virtual threads in the
+     * virtual-thread mode.
+     *
+     * @return executor for the client connections
+     */
+    private static ExecutorService getClientExecutor() {
+        if (Boolean.getBoolean("imatic8.virtualthreads")) {
+            return Im8VirtualThreads.get();
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Im8Daemon-client");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Forward the arguments to a running daemon as the thin client, and print
+     * its report and exit with its exit code&#46; A first argument of only
+     * digits is the daemon's port, as given to 'daemon [port]'&#46; If no
+     * daemon is running the arguments are run in this process as in
+     * command-line mode&#46; With no arguments to forward it exits with -1,
+     * and with no report from the daemon within the reply timeout with -99.
+     *
+     * @param args 'client', an optional port number, then the arguments to
+     *             forward
+     */
+    static void processClientMode(String[] args) {
+        int portNo = DAEMON_PORT_NO;
+        int argsStart = 1;
+        if (args.length > 1 && isPortArg(args[1])) {
+            try {
+                portNo = Integer.parseInt(args[1]);
+            } catch (NumberFormatException ex) {
+                System.err.printf("daemon port invalid: %s\n", args[1]);
+                System.exit(-1);
+            }
+            argsStart = 2;
+        }
+        if (argsStart >= args.length) {
+            System.err.printf("client needs arguments: '%s.jar client [port] args'\n", Imatic8Prog.programName);
+            System.exit(-1);
+        }
+        String argsLine = joinArgsLine(args, argsStart);
+
+        Socket daemonSocket;
+        try {
+            daemonSocket = new Socket(InetAddress.getLoopbackAddress(), portNo);
+        } catch (IOException ex) {
+            // no daemon, so run here
+            String[] argsArr = new String[args.length - argsStart];
+            System.arraycopy(args, argsStart, argsArr, 0, argsArr.length);
+
+            Im8ModeCmdLine.processCmdLineMode(argsArr);
+            return;
+        }
+        int exitCode;
+        try (Socket socket = daemonSocket) {
+            // a daemon that never answers does not hold up the client for ever
+            socket.setSoTimeout(CLIENT_REPLY_TIMEOUT);
+
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            writer.write(argsLine + '\n');
+            writer.flush();
+
+            exitCode = readReport(new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)));
+
+        } catch (SocketTimeoutException ex) {
+            System.err.printf("daemon: no report within %d ms\n", CLIENT_REPLY_TIMEOUT);
+            exitCode = -99;
+
+        } catch (IOException ex) {
+            // the line may have been run, so it is not run again here
+            System.err.printf("daemon: %s\n", ex.getMessage());
+            exitCode = -99;
+        }
+        System.exit(exitCode);
+    }
+
+    /**
+     * Is an argument a port number, all digits.
+     *
+     * @param arg the argument
+     *
+     * @return true if a port number
+     */
+    static boolean isPortArg(String arg) {
+        if (arg.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < arg.length(); i++) {
+            if (!Character.isDigit(arg.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read and print the report of a line from the daemon.
+     *
+     * @param reader the daemon reader
+     *
+     * @return the exit code
+     */
+    private static int readReport(BufferedReader reader) throws IOException {
+        ArrayList<String> reportList = new ArrayList<>();
+
+        String readLn;
+        while ((readLn = reader.readLine()) != null) {
+            if (readLn.startsWith(EXIT_PREFIX)) {
+                int exitCode = Integer.parseInt(readLn.substring(EXIT_PREFIX.length()));
+
+                for (String reportLn : reportList) {
+                    (exitCode == 0 ? System.out : System.err).println(reportLn);
+                }
+                return exitCode;
+            }
+            reportList.add(readLn.substring(readLn.indexOf(':') + 1));
+        }
+        throw new IOException("daemon closed the connection");
+    }
+}
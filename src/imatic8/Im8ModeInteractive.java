@@ -30,6 +30,11 @@ package imatic8;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  *
@@ -37,11 +42,25 @@ import java.io.InputStreamReader;
  */
 class Im8ModeInteractive {
 
+    /**
+     * Lock of the report printing in virtual-thread mode, not a monitor as
+     * the console write blocks and would pin the carrier of a virtual thread.
+     */
+    private static final ReentrantLock reportLock = new ReentrantLock();
+
     /**
      * Process with the input from console in interactive mode.
+     * <p>
+     * In virtual-thread mode (the 'imatic8.virtualthreads' property) each line
+     * runs on a virtual thread of its own and the next line may be entered
+     * while it runs, so timed sequences from many lines run together.
      */
     static void processInteractiveMode() {
         // interactive mode
+        boolean virtualThreads = Boolean.getBoolean("imatic8.virtualthreads");
+
+        // lines still running in virtual-thread mode
+        ArrayList<Future<?>> runningLineList = new ArrayList<>();
 
         // launch a window frame for processing the relays
         BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
@@ -63,14 +82,36 @@ class Im8ModeInteractive {
 
                     // this will system exit 
                     if (checkForExit(arg0LC)) {
+                        waitForRunningLines(runningLineList);
+
                         System.out.println("Exiting program.");
                         return;
                     }
                     //  process the arguments
-                    Im8Io m8Io = new Im8Io(argsArr);
-                    m8Io.runAsLib();
+                    final Im8Io m8Io = new Im8Io(argsArr);
+
+                    if (virtualThreads) {
+                        removeCompletedLines(runningLineList);
 
-                    m8Io.printReport();
+                        runningLineList.add(Im8VirtualThreads.get().submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                m8Io.runAsLib();
+
+                                // a report is not mixed with the report of another line
+                                reportLock.lock();
+                                try {
+                                    m8Io.printReport();
+                                } finally {
+                                    reportLock.unlock();
+                                }
+                            }
+                        }));
+                    } else {
+                        m8Io.runAsLib();
+
+                        m8Io.printReport();
+                    }
                 }
             } catch (IOException ex) {
                 System.err.println("Unable to read from input/STDIN system.");
@@ -79,6 +120,37 @@ class Im8ModeInteractive {
         } // while true loop
     }
 
+    private static void removeCompletedLines(ArrayList<Future<?>> runningLineList) {
+        Iterator<Future<?>> lineIter = runningLineList.iterator();
+        while (lineIter.hasNext()) {
+            if (lineIter.next().isDone()) {
+                lineIter.remove();
+            }
+        }
+    }
+
+    /**
+     * Wait for the lines still running in virtual-thread mode to complete
+     * before exiting.
+     *
+     * @param runningLineList the lines that may still be running
+     */
+    private static void waitForRunningLines(ArrayList<Future<?>> runningLineList) {
+        removeCompletedLines(runningLineList);
+
+        if (!runningLineList.isEmpty()) {
+            System.out.printf("Waiting for %d running line(s).\n", runningLineList.size());
+        }
+        for (Future<?> runningLine : runningLineList) {
+            try {
+                runningLine.get();
+
+            } catch (InterruptedException | ExecutionException ex) {
+                // the line has ended one way or another
+            }
+        }
+    }
+
     /**
      * Check if an exit is provided in interactive mode and system exit
      *
@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Class that provides a non-blocking transport to the board-servers where all
+ * board connections are multiplexed by a selector on one I/O thread.
+ * <p>
+ * A caller of <code>connect</code> or <code>exchange</code> hands the request
+ * to the I/O thread and waits on its completion (with a timeout), the I/O
+ * thread does all the channel work. Each connection has direct byte buffers
+ * for the relay frame written and the response read.
+ *
+ * @author dbradley
+ */
+class Im8NioTransport {
+
+    /** Response buffer size, as per the blocking transport. */
+    private static final int RESPONSE_BUFFER_SIZE = 1024;
+
+    private static Im8NioTransport instance = null;
+
+    private final Selector selector;
+
+    private final Thread ioThread;
+
+    /** requests from callers waiting to be taken on by the I/O thread */
+    private final ConcurrentLinkedQueue<Runnable> pendingQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * key: board-server 'ip:port'
+     *
+     * element: the connection to the board-server (I/O thread access only)
+     */
+    private final HashMap<String, Connection> connectionHash = new HashMap<>();
+
+    /**
+     * A relay frame to write and the response to read.
+     */
+    private static class Exchange {
+
+        final byte[] frameArr;
+        final int frameLength;
+        final byte[] responseArr;
+        final int expectedBytes;
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        Exchange(byte[] frameArrP, int frameLengthP, byte[] responseArrP, int expectedBytesP) {
+            this.frameArr = frameArrP;
+            this.frameLength = frameLengthP;
+            this.responseArr = responseArrP;
+            this.expectedBytes = expectedBytesP;
+        }
+    }
+
+    /**
+     * A channel to a board-server and its exchanges (one in progress at a
+     * time, in order of request).
+     */
+    private static class Connection {
+
+        final String key;
+        final SocketChannel channel;
+
+        final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(
+                Im8Constants.RELAY_MSG_ARRAY.length * Im8Constants.BATCH_MAX_FRAMES);
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(RESPONSE_BUFFER_SIZE);
+
+        final CompletableFuture<Void> connectFuture = new CompletableFuture<>();
+        final ArrayDeque<Exchange> exchangeQueue = new ArrayDeque<>();
+
+        SelectionKey selectionKey;
+
+        Connection(String keyP, SocketChannel channelP) {
+            this.key = keyP;
+            this.channel = channelP;
+        }
+    }
+
+    private Im8NioTransport() throws IOException {
+        this.selector = Selector.open();
+
+        this.ioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ioLoop();
+            }
+        }, "Im8NioTransport");
+        // daemon so a library user is not kept running by the transport
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    /**
+     * Get the transport, creating it and its I/O thread the first time.
+     *
+     * @return the transport object
+     *
+     * @throws IOException selector could not be opened
+     */
+    static synchronized Im8NioTransport getInstance() throws IOException {
+        if (instance == null) {
+            instance = new Im8NioTransport();
+        }
+        return instance;
+    }
+
+    /**
+     * Connect to a board-server if not already connected.
+     *
+     * @param ipAddr    board IP address
+     * @param portNo    board port number
+     * @param timeoutMs connect timeout in milliseconds
+     *
+     * @return true if an existing connection is being reused
+     *
+     * @throws IOException connect failed or timed out
+     */
+    boolean connect(final String ipAddr, final int portNo, int timeoutMs) throws IOException {
+        final CompletableFuture<Connection> connectRequest = new CompletableFuture<>();
+        final boolean[] reusedArr = new boolean[1];
+
+        // the timeout covers both the hand over and the connect
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+        // any look up of the address is done here, not on the I/O thread
+        final InetSocketAddress connectAddress = Im8Socket.getConnectAddress(ipAddr, portNo);
+
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String key = Im8ConnectionPool.poolKey(ipAddr, portNo);
+
+                    reusedArr[0] = connectionHash.containsKey(key);
+                    connectRequest.complete(getOrOpenConnection(key, connectAddress));
+                } catch (IOException | RuntimeException ex) {
+                    connectRequest.completeExceptionally(ex);
+                }
+            }
+        });
+        try {
+            Connection conn = await(connectRequest, remainingMillis(deadlineNanos));
+            await(conn.connectFuture, remainingMillis(deadlineNanos));
+
+        } catch (SocketTimeoutException ex) {
+            close(ipAddr, portNo);
+            throw new SocketTimeoutException("connect timed out");
+        }
+        return reusedArr[0];
+    }
+
+    /**
+     * Write a relay frame to a connected board-server and read its response.
+     *
+     * @param ipAddr      board IP address
+     * @param portNo      board port number
+     * @param frameArr    the frame bytes to send
+     * @param responseArr buffer to copy the response into
+     * @param timeoutMs   read timeout in milliseconds
+     *
+     * @return number of response bytes, -1 the board-server closed the
+     *         connection
+     *
+     * @throws IOException write or read failed, or timed out
+     */
+    int exchange(final String ipAddr, final int portNo,
+            byte[] frameArr, byte[] responseArr, int timeoutMs) throws IOException {
+        return exchange(ipAddr, portNo, frameArr, frameArr.length, responseArr, 1, timeoutMs);
+    }
+
+    /**
+     * Send a batch of frames to a board-server in one write, and wait until
+     * the expected number of response bytes have been read&#46;
+     *
+     * @param ipAddr        board IP address
+     * @param portNo        board port number
+     * @param frameArr      the frames to send, one after the other
+     * @param frameLength   number of bytes of frameArr to send
+     * @param responseArr   buffer to copy the responses into
+     * @param expectedBytes number of response bytes to wait for
+     * @param timeoutMs     read timeout in milliseconds
+     *
+     * @return number of response bytes, -1 the board-server closed the
+     *         connection
+     *
+     * @throws IOException write or read failed, or timed out
+     */
+    int exchange(final String ipAddr, final int portNo,
+            byte[] frameArr, int frameLength, byte[] responseArr, int expectedBytes, int timeoutMs)
+            throws IOException {
+        final Exchange exchange = new Exchange(frameArr, frameLength, responseArr, expectedBytes);
+
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                Connection conn = connectionHash.get(Im8ConnectionPool.poolKey(ipAddr, portNo));
+                if (conn == null) {
+                    exchange.future.completeExceptionally(new ClosedChannelException());
+                    return;
+                }
+                conn.exchangeQueue.add(exchange);
+                if (conn.exchangeQueue.size() == 1) {
+                    startExchange(conn);
+                }
+            }
+        });
+        try {
+            return await(exchange.future, timeoutMs);
+
+        } catch (SocketTimeoutException ex) {
+            // the response is out of step with requests now, so drop the connection
+            close(ipAddr, portNo);
+            throw new SocketTimeoutException("Read timed out");
+        }
+    }
+
+    /**
+     * Close the connection to a board-server, any waiting exchanges fail.
+     *
+     * @param ipAddr board IP address
+     * @param portNo board port number
+     */
+    void close(final String ipAddr, final int portNo) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                Connection conn = connectionHash.get(Im8ConnectionPool.poolKey(ipAddr, portNo));
+                if (conn != null) {
+                    closeConnection(conn, new ClosedChannelException());
+                }
+            }
+        });
+    }
+
+    private void submit(Runnable request) {
+        this.pendingQueue.add(request);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Get the time left to a deadline.
+     *
+     * @param deadlineNanos the deadline as of System.nanoTime()
+     *
+     * @return milliseconds left, 0 if passed
+     */
+    private static int remainingMillis(long deadlineNanos) {
+        long remainingNanos = deadlineNanos - System.nanoTime();
+
+        return remainingNanos <= 0 ? 0 : (int) TimeUnit.NANOSECONDS.toMillis(remainingNanos);
+    }
+
+    private static <T> T await(CompletableFuture<T> future, int timeoutMs) throws IOException {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+
+        } catch (TimeoutException ex) {
+            throw new SocketTimeoutException();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * The I/O thread selector loop&#46; A failure of a connection fails its
+     * waiting callers, who report it, a failure of the selector fails all
+     * the connections and is reported here as there is no caller to report
+     * it.
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    private void ioLoop() {
+        while (true) {
+            try {
+                this.selector.select();
+
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                closeAllConnections(ex);
+                continue;
+            }
+            Runnable request;
+            while ((request = this.pendingQueue.poll()) != null) {
+                try {
+                    request.run();
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            Iterator<SelectionKey> iter = this.selector.selectedKeys().iterator();
+            while (iter.hasNext()) {
+                SelectionKey key = iter.next();
+                iter.remove();
+
+                try {
+                    processReadyKey(key);
+                } catch (RuntimeException ex) {
+                    // e.g. the key was cancelled, the callers get the reason
+                    closeConnection((Connection) key.attachment(), new IOException(ex));
+                }
+            }
+        }
+    }
+
+    private void closeAllConnections(IOException reason) {
+        for (Connection conn : new ArrayList<>(this.connectionHash.values())) {
+            closeConnection(conn, reason);
+        }
+    }
+
+    private Connection getOrOpenConnection(String key, InetSocketAddress connectAddress) throws IOException {
+        Connection conn = this.connectionHash.get(key);
+        if (conn != null) {
+            return conn;
+        }
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+
+        conn = new Connection(key, channel);
+        this.connectionHash.put(key, conn);
+
+        try {
+            if (channel.connect(connectAddress)) {
+                conn.selectionKey = channel.register(this.selector, 0, conn);
+                conn.connectFuture.complete(null);
+            } else {
+                conn.selectionKey = channel.register(this.selector, SelectionKey.OP_CONNECT, conn);
+            }
+        } catch (IOException ex) {
+            closeConnection(conn, ex);
+        } catch (RuntimeException ex) {
+            // e.g. an unresolved address
+            closeConnection(conn, new IOException(ex));
+        }
+        return conn;
+    }
+
+    private void processReadyKey(SelectionKey key) {
+        Connection conn = (Connection) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                conn.channel.finishConnect();
+                key.interestOps(0);
+                conn.connectFuture.complete(null);
+
+                if (!conn.exchangeQueue.isEmpty()) {
+                    startExchange(conn);
+                }
+                return;
+            }
+            if (key.isWritable()) {
+                writeFrame(conn);
+            }
+            if (key.isValid() && key.isReadable()) {
+                readResponse(conn);
+            }
+        } catch (IOException ex) {
+            closeConnection(conn, ex);
+        }
+    }
+
+    private void startExchange(Connection conn) {
+        if (!conn.connectFuture.isDone()) {
+            // will be started once connected
+            return;
+        }
+        Exchange exchange = conn.exchangeQueue.peek();
+
+        conn.writeBuffer.clear();
+        conn.writeBuffer.put(exchange.frameArr, 0, exchange.frameLength);
+        conn.writeBuffer.flip();
+        try {
+            writeFrame(conn);
+        } catch (IOException ex) {
+            closeConnection(conn, ex);
+        }
+    }
+
+    private void writeFrame(Connection conn) throws IOException {
+        conn.channel.write(conn.writeBuffer);
+
+        if (conn.writeBuffer.hasRemaining()) {
+            conn.selectionKey.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            conn.readBuffer.clear();
+            conn.selectionKey.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void readResponse(Connection conn) throws IOException {
+        int numBytes = conn.channel.read(conn.readBuffer);
+
+        if (numBytes == 0) {
+            return;
+        }
+        Exchange exchange = conn.exchangeQueue.peek();
+
+        if (numBytes > 0 && exchange != null
+                && conn.readBuffer.position() < exchange.expectedBytes
+                && conn.readBuffer.hasRemaining()) {
+            // more responses of a batch are still to come
+            return;
+        }
+        conn.exchangeQueue.poll();
+
+        if (numBytes == -1) {
+            // a batch may have part of its responses before the close
+            int copyBytes = conn.readBuffer.position() == 0 ? -1 : copyResponse(conn, exchange);
+
+            closeConnection(conn, null);
+            if (exchange != null) {
+                exchange.future.complete(copyBytes);
+            }
+            return;
+        }
+        conn.selectionKey.interestOps(0);
+
+        if (exchange != null) {
+            exchange.future.complete(copyResponse(conn, exchange));
+        }
+        if (!conn.exchangeQueue.isEmpty()) {
+            startExchange(conn);
+        }
+    }
+
+    private int copyResponse(Connection conn, Exchange exchange) {
+        if (exchange == null) {
+            return -1;
+        }
+        conn.readBuffer.flip();
+        int copyBytes = Math.min(conn.readBuffer.remaining(), exchange.responseArr.length);
+        conn.readBuffer.get(exchange.responseArr, 0, copyBytes);
+
+        return copyBytes;
+    }
+
+    private void closeConnection(Connection conn, IOException reason) {
+        // a newer connection to the board-server may have the key by now
+        this.connectionHash.remove(conn.key, conn);
+
+        if (conn.selectionKey != null) {
+            conn.selectionKey.cancel();
+        }
+        try {
+            conn.channel.close();
+        } catch (IOException ex) {
+            // nothing can be done
+        }
+        IOException failure = reason == null ? new ClosedChannelException() : reason;
+
+        if (!conn.connectFuture.isDone()) {
+            conn.connectFuture.completeExceptionally(reason == null
+                    ? new ConnectException("Connection refused") : reason);
+        }
+        Exchange exchange;
+        while ((exchange = conn.exchangeQueue.poll()) != null) {
+            exchange.future.completeExceptionally(failure);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import static imatic8.Im8Constants.ON_OFF_STATE_BYTE_INDEX;
+import static imatic8.Im8Constants.RELAY_NUMBER_BYTE_INDEX;
+import static imatic8.Im8Constants.RESPONSE_MSG_LENGTH;
+import static imatic8.Im8Constants.RESPONSE_ON_OFF_STATE_BYTE_INDEX;
+import static imatic8.Im8Constants.RESPONSE_RELAY_NUMBER_BYTE_INDEX;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Class that tracks the frames of a pipelined send to a board, where up to a
+ * window of frames are outstanding (sent with no response yet) rather than one
+ * frame per round trip&#46;
+ * <p>
+ * A response is matched to the oldest outstanding frame with the same relay
+ * number and on/off state, and a frame with no response within the frame
+ * timeout (the board's response timeout) is sent again until its attempts are
+ * used up.
+ *
+ * @author dbradley
+ */
+class Im8Pipeline {
+
+    /** Default number of frames that may be outstanding at one time. */
+    static final int DEFAULT_WINDOW_SIZE = 4;
+
+    /** Attempts at sending a frame, the first send and its retries. */
+    static final int MAX_FRAME_ATTEMPTS = 3;
+
+    private static int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private final byte[][] frameArr;
+    private final int frameTimeout;
+    private final int[] attemptsArr;
+    private final long[] deadlineArr;
+
+    /** frames sent and waiting on a response, oldest first */
+    private final ArrayDeque<Integer> outstandingQueue = new ArrayDeque<>();
+
+    /** frames that had no response and are to be sent again */
+    private final ArrayDeque<Integer> retryQueue = new ArrayDeque<>();
+
+    private int nextNewFrame = 0;
+    private int confirmedCount = 0;
+
+    /** when the frame of the last matched response was sent */
+    private long lastMatchedSentMillis = 0;
+
+    /**
+     * Create the pipeline for the frames to send to a board.
+     *
+     * @param frameArrP     frames to send, in order
+     * @param frameTimeoutP time in milliseconds a frame waits for its
+     *                      response, the board's response timeout
+     */
+    Im8Pipeline(byte[][] frameArrP, int frameTimeoutP) {
+        this.frameArr = frameArrP;
+        this.frameTimeout = frameTimeoutP;
+        this.attemptsArr = new int[frameArrP.length];
+        this.deadlineArr = new long[frameArrP.length];
+    }
+
+    /**
+     * Set the number of frames that may be outstanding to a board at one time.
+     *
+     * @param windowSizeP number of frames, less than 1 is the default (4) and
+     *                    at most the batch maximum (16)
+     */
+    static synchronized void setWindowSize(int windowSizeP) {
+        windowSize = windowSizeP < 1 ? DEFAULT_WINDOW_SIZE
+                : Math.min(windowSizeP, Im8Constants.BATCH_MAX_FRAMES);
+    }
+
+    static synchronized int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Is there a response for every frame.
+     *
+     * @return true if complete
+     */
+    boolean isComplete() {
+        return this.confirmedCount == this.frameArr.length;
+    }
+
+    int getConfirmedCount() {
+        return this.confirmedCount;
+    }
+
+    /**
+     * Get when the frame of the last matched response was sent, for the round
+     * trip time of the board.
+     *
+     * @return time in milliseconds, as given when the frame was taken to send
+     */
+    long getLastMatchedSentMillis() {
+        return this.lastMatchedSentMillis;
+    }
+
+    /**
+     * Take the frames that may be sent now, frames to retry first and then new
+     * frames, so the window is full.
+     *
+     * @param nowMillis current time in milliseconds
+     *
+     * @return the frames one after the other, empty if the window is full
+     */
+    byte[] takeFramesToSend(long nowMillis) {
+        int window = getWindowSize();
+
+        ArrayList<Integer> sendList = new ArrayList<>();
+        while (this.outstandingQueue.size() + sendList.size() < window) {
+            if (!this.retryQueue.isEmpty()) {
+                sendList.add(this.retryQueue.poll());
+
+            } else if (this.nextNewFrame < this.frameArr.length
+                    && !isHeldBack(this.nextNewFrame, sendList)) {
+                sendList.add(this.nextNewFrame++);
+
+            } else {
+                break;
+            }
+        }
+        int frameLength = Im8Constants.RELAY_MSG_ARRAY.length;
+
+        byte[] sendArr = new byte[sendList.size() * frameLength];
+        for (int i = 0; i < sendList.size(); i++) {
+            int frameIndex = sendList.get(i);
+
+            System.arraycopy(this.frameArr[frameIndex], 0, sendArr, i * frameLength, frameLength);
+
+            this.attemptsArr[frameIndex]++;
+            this.deadlineArr[frameIndex] = nowMillis + this.frameTimeout;
+            this.outstandingQueue.add(frameIndex);
+        }
+        return sendArr;
+    }
+
+    /**
+     * Is a new frame held back as an earlier frame for the same relay (or for
+     * all relays) has no response yet, so a retry can not change the order
+     * the relays are set in.
+     *
+     * @param frameIndex index of the new frame
+     * @param sendList   frames being taken to send
+     *
+     * @return true if held back
+     */
+    private boolean isHeldBack(int frameIndex, ArrayList<Integer> sendList) {
+        return hasSameRelay(this.outstandingQueue, frameIndex)
+                || hasSameRelay(this.retryQueue, frameIndex)
+                || hasSameRelay(sendList, frameIndex);
+    }
+
+    private boolean hasSameRelay(Iterable<Integer> frameIndexes, int frameIndex) {
+        for (int earlierIndex : frameIndexes) {
+            if (isSameRelay(this.frameArr[earlierIndex], this.frameArr[frameIndex])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSameRelay(byte[] frameA, byte[] frameB) {
+        byte relayA = frameA[RELAY_NUMBER_BYTE_INDEX];
+        byte relayB = frameB[RELAY_NUMBER_BYTE_INDEX];
+
+        return relayA == relayB
+                || relayA == Im8Constants.RELAY_ALL_NUMBER || relayB == Im8Constants.RELAY_ALL_NUMBER;
+    }
+
+    /**
+     * Get the time until the first outstanding frame times out.
+     *
+     * @param nowMillis current time in milliseconds
+     *
+     * @return milliseconds, at least 1
+     */
+    int getTimeToNextDeadline(long nowMillis) {
+        long deadline = nowMillis + this.frameTimeout;
+        for (int frameIndex : this.outstandingQueue) {
+            deadline = Math.min(deadline, this.deadlineArr[frameIndex]);
+        }
+        return (int) Math.max(1, deadline - nowMillis);
+    }
+
+    /**
+     * Match the decoded responses from the board to the outstanding frames&#46;
+     * A response with no outstanding frame (such as the late response of a
+     * frame sent again) is dropped.
+     *
+     * @param responseArr        decoded responses, one after the other
+     * @param responseCount      number of responses
+     * @param matchedResponseArr buffer the matched responses are copied to,
+     *                           one after the other
+     *
+     * @return number of matched responses
+     */
+    int acceptResponses(byte[] responseArr, int responseCount, byte[] matchedResponseArr) {
+        int matchedCount = 0;
+
+        for (int i = 0; i < responseCount; i++) {
+            int offset = i * RESPONSE_MSG_LENGTH;
+
+            if (matchResponse(responseArr, offset)) {
+                System.arraycopy(responseArr, offset, matchedResponseArr,
+                        matchedCount * RESPONSE_MSG_LENGTH, RESPONSE_MSG_LENGTH);
+                matchedCount++;
+            }
+        }
+        return matchedCount;
+    }
+
+    private boolean matchResponse(byte[] responseArr, int offset) {
+        byte relayNumber = responseArr[offset + RESPONSE_RELAY_NUMBER_BYTE_INDEX];
+        byte onOffState = responseArr[offset + RESPONSE_ON_OFF_STATE_BYTE_INDEX];
+
+        Iterator<Integer> outstandingIter = this.outstandingQueue.iterator();
+        while (outstandingIter.hasNext()) {
+            int frameIndex = outstandingIter.next();
+            byte[] frame = this.frameArr[frameIndex];
+
+            if (frame[RELAY_NUMBER_BYTE_INDEX] == relayNumber
+                    && frame[ON_OFF_STATE_BYTE_INDEX] == onOffState) {
+                outstandingIter.remove();
+                this.confirmedCount++;
+                this.lastMatchedSentMillis = this.deadlineArr[frameIndex] - this.frameTimeout;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move the outstanding frames that have timed out to be sent again.
+     *
+     * @param nowMillis current time in milliseconds
+     *
+     * @return false if a frame has used up its attempts
+     */
+    boolean expireFrames(long nowMillis) {
+        Iterator<Integer> outstandingIter = this.outstandingQueue.iterator();
+        while (outstandingIter.hasNext()) {
+            int frameIndex = outstandingIter.next();
+
+            if (this.deadlineArr[frameIndex] <= nowMillis) {
+                if (this.attemptsArr[frameIndex] >= MAX_FRAME_ATTEMPTS) {
+                    return false;
+                }
+                outstandingIter.remove();
+                this.retryQueue.add(frameIndex);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move all the outstanding frames to be sent again, as the connection to
+     * the board was lost.
+     *
+     * @return false if a frame has used up its attempts
+     */
+    boolean resendOutstanding() {
+        while (!this.outstandingQueue.isEmpty()) {
+            int frameIndex = this.outstandingQueue.poll();
+
+            if (this.attemptsArr[frameIndex] >= MAX_FRAME_ATTEMPTS) {
+                return false;
+            }
+            this.retryQueue.add(frameIndex);
+        }
+        return true;
+    }
+}
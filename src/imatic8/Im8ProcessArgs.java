@@ -29,14 +29,35 @@ package imatic8;
 
 import static imatic8.Im8ProcessArgs.ArgType.ERROR_ARGUMENT;
 import static imatic8.Im8ProcessArgs.ArgType.MS;
+import static imatic8.Im8ProcessArgs.ArgType.OFF;
+import static imatic8.Im8ProcessArgs.ArgType.ON;
 import static imatic8.Im8ProcessArgs.ArgType.RELAY_NUMBER;
+import static imatic8.Im8ProcessArgs.ArgType.SCENE;
 import static imatic8.Im8ProcessArgs.ArgType.STATUS;
+import static imatic8.Im8Constants.BATCH_MAX_FRAMES;
 import static imatic8.Im8Constants.MAX_RELAY_NUMBER;
 import static imatic8.Im8Constants.MIN_RELAY_NUMBER;
+import static imatic8.Im8Constants.RELEASE_CONNECTION_PAUSE;
 import static imatic8.Im8Io.ErrorKind.CRITICAL;
 import static imatic8.Im8Io.ErrorKind.ERROR_ARG;
-import java.io.File;
+import static imatic8.Im8Io.ErrorKind.ERROR_RT_IO;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 /**
  * Class to process the arguments for all modes (command-line, interactive and
@@ -77,6 +98,8 @@ class Im8ProcessArgs {
         RELAY_NUMBER,
         /** status request */
         STATUS,
+        /** apply a named scene, the scene name being the next argument */
+        SCENE,
         /** none
          * of the above is being processed, so there is an error */
         ERROR_ARGUMENT,
@@ -91,6 +114,9 @@ class Im8ProcessArgs {
 
     Im8Io m8Io;
 
+    /** threads running the board groups of a fan-out */
+    private static ExecutorService fanOutExecutor = null;
+
     Im8ProcessArgs(Im8Io m8IoP) {
         this.m8Io = m8IoP;
     }
@@ -102,6 +128,148 @@ class Im8ProcessArgs {
      * @param args String array of the arguments.
      */
     void doProcessArgs(String[] args) {
+        // if the command has no errors then we can process the 
+        // actions
+        if (parseArgs(args)) {
+            processParsedActions();
+        }
+    }
+
+    /**
+     * Validate the command line arguments into the actions of a program that
+     * may be run many times with <code>doProcessProgram</code>, without the
+     * arguments being parsed again.
+     *
+     * @param args String array of the arguments.
+     *
+     * @return the actions of the program, or null if the arguments have errors
+     */
+    List<Im8Action> compileArgs(String[] args) {
+        if (!parseArgs(args)) {
+            return null;
+        }
+        m8Io.out(0);
+
+        return new ArrayList<>(this.operationsList);
+    }
+
+    /**
+     * Process the actions of a compiled program, as per
+     * <code>doProcessArgs</code>.
+     *
+     * @param programList the actions of the compiled program
+     */
+    void doProcessProgram(List<Im8Action> programList) {
+        bindProgram(programList);
+        processParsedActions();
+    }
+
+    /**
+     * Process the actions of a compiled program, as per
+     * <code>doProcessArgsAsync</code>.
+     *
+     * @param programList the actions of the compiled program
+     * @param eventLoop   the event loop to perform the actions on
+     *
+     * @return future completed when all actions are done
+     */
+    CompletableFuture<Void> doProcessProgramAsync(List<Im8Action> programList,
+            ScheduledExecutorService eventLoop) {
+        bindProgram(programList);
+        return processParsedActionsAsync(eventLoop);
+    }
+
+    private void bindProgram(List<Im8Action> programList) {
+        operationsList.clear();
+
+        for (Im8Action compiledAction : programList) {
+            operationsList.add(compiledAction.bindToIo(m8Io));
+        }
+    }
+
+    /**
+     * Perform the actions of the operations list, and store any write-behind
+     * relay states at the end of the sequence.
+     */
+    private void processParsedActions() {
+        boolean success = processAction();
+
+        sequenceEnded(success);
+    }
+
+    /**
+     * Store any write-behind relay states at the end of the sequence, and set
+     * the exit-code 0 only if the actions and the store succeeded.
+     *
+     * @param success true if every action succeeded
+     */
+    private void sequenceEnded(boolean success) {
+        // write-behind relay states are stored at the end of the sequence
+        boolean stored = Im8StatePersister.sequenceEnded();
+
+        if (success && stored) {
+            m8Io.out(0);
+        } else if (success && m8Io.getExitCode() != -99) {
+            // the store's error went to the request that changed the states
+            m8Io.err(-99).sprintln(CRITICAL, "relay states not stored, see trace.");
+        }
+    }
+
+    /**
+     * Process the command line arguments as per <code>doProcessArgs</code> but
+     * with the actions performed on the event loop, and any pause scheduled
+     * rather than slept.
+     *
+     * @param args      String array of the arguments
+     * @param eventLoop the event loop to perform the actions on
+     *
+     * @return future completed when all actions are done
+     */
+    CompletableFuture<Void> doProcessArgsAsync(String[] args, ScheduledExecutorService eventLoop) {
+        if (!parseArgs(args)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return processParsedActionsAsync(eventLoop);
+    }
+
+    /**
+     * Perform the actions of the operations list on the event loop.
+     *
+     * @param eventLoop the event loop to perform the actions on
+     *
+     * @return future completed when all actions are done
+     */
+    private CompletableFuture<Void> processParsedActionsAsync(ScheduledExecutorService eventLoop) {
+        final CompletableFuture<Void> doneFuture = new CompletableFuture<>();
+
+        CompletableFuture<Boolean> actionsFuture = new CompletableFuture<>();
+        processActionAsync(eventLoop, 0, actionsFuture);
+
+        actionsFuture.whenComplete(new BiConsumer<Boolean, Throwable>() {
+            @Override
+            public void accept(Boolean success, Throwable ex) {
+                if (ex != null) {
+                    Im8StatePersister.sequenceEnded();
+
+                    doneFuture.completeExceptionally(ex);
+                    return;
+                }
+                sequenceEnded(success);
+
+                doneFuture.complete(null);
+            }
+        });
+        return doneFuture;
+    }
+
+    /**
+     * Validate the arguments and build the operations list to perform.
+     *
+     * @param args String array of the arguments.
+     *
+     * @return true if there were no errors in the arguments
+     */
+    private boolean parseArgs(String[] args) {
         operationsList.clear();
 
         // the board that is being operated upon may be changed
@@ -124,7 +292,14 @@ class Im8ProcessArgs {
         boolean onOrOffSet = false;
         boolean errorFound = false;
 
+        boolean sceneNameNext = false;
+
         for (String argI : args) {
+            if (sceneNameNext) {
+                sceneNameNext = false;
+                errorFound |= !parseScene(argI, errorFound);
+                continue;
+            }
             // the first time an ON or OFF is needed
             ArgType type = processArgType(onOrOffSet, argI);
 
@@ -189,6 +364,12 @@ class Im8ProcessArgs {
                         operationsList.add(new Im8Action(m8Io, activeBoardN, STATUS, 0));
                     }
                     break;
+                case SCENE:
+                    onOrOffSet = false;
+                    timerIntroduced = false;
+
+                    sceneNameNext = true;
+                    break;
                 case ON:
                     // this is a setting rather than an action
                     onOrOffSet = true;
@@ -225,20 +406,49 @@ class Im8ProcessArgs {
                     break;
             }
         }
-        // if the command has no errors then we can process the 
-        // actions
-        if (!errorFound) {
-            if(processAction()){
-                 m8Io.out(0);
+        if (sceneNameNext) {
+            this.m8Io.err(-2).sprintf(ERROR_ARG, "scene name missing\n");
+            errorFound = true;
+        }
+        return !errorFound;
+    }
+
+    /**
+     * Add the actions of a scene, one per board of the scene.
+     *
+     * @param sceneName  name of the scene
+     * @param errorFound true if an error has already been found, so no
+     *                   actions are added
+     *
+     * @return false if the scene or one of its boards is not defined
+     */
+    private boolean parseScene(String sceneName, boolean errorFound) {
+        Map<Integer, Byte> boardMaskHash = Im8SceneIni.getScene(this.m8Io, sceneName);
+        if (boardMaskHash == null) {
+            return false;
+        }
+        for (Map.Entry<Integer, Byte> entry : boardMaskHash.entrySet()) {
+            int boardN = entry.getKey();
+
+            if (!Im8BoardController.isBoardDefined(m8Io, boardN)
+                    || !Im8BoardController.loadBoardObject(m8Io, boardN)) {
+                m8Io.err(-2).sprintf(ERROR_ARG, "Board %d not defined: scene %s\n", boardN, sceneName);
+                return false;
+            }
+            if (!errorFound) {
+                operationsList.add(new Im8Action(m8Io, boardN, SCENE, entry.getValue() & 0xff));
             }
         }
+        return true;
     }
 
     /**
      * Process an action that was from the command line.
      */
     private boolean processAction() {
-
+        if (this.m8Io.isFanOut()) {
+            return processActionFanOut();
+        }
         int lengthOfActionsToDo = this.operationsList.size();
 
         int lastItem = lengthOfActionsToDo - 1;
@@ -247,34 +457,555 @@ class Im8ProcessArgs {
             Im8Action imaticAction = this.operationsList.get(i);
 
             boolean closeConnectionOnLastItem = (i == lastItem);
-            switch (imaticAction.action) {
-                case ON:
-                    if (imaticAction.setRelayOn(closeConnectionOnLastItem) == null) {
-                        // some error occurred which is unrecoverable
-                        return false;
+
+            if (imaticAction.action == MS) {
+                releaseConnectionsForPause(i);
+
+                // Java usually warns with a sleep-timer in a loop so
+                // use a method instead.
+                imaticAction.timerWaitAction(closeConnectionOnLastItem);
+                continue;
+            }
+            int batchEnd = batchRunEnd(this.operationsList, i, lengthOfActionsToDo);
+
+            if (!performActions(this.operationsList.subList(i, batchEnd), batchEnd - 1 == lastItem)) {
+                // some error occurred which is unrecoverable
+                return false;
+            }
+            i = batchEnd - 1;
+        }
+        return true;
+    }
+
+    /**
+     * Process the actions with the actions of different boards run
+     * concurrently&#46; The operations list is split into segments by the
+     * pause (s:N, ms:N) actions, which act as a barrier for all boards. In a
+     * segment the actions are grouped by board, each board's group is run in
+     * order and the groups are run concurrently.
+     *
+     * @return false if an unrecoverable error occurred
+     */
+    private boolean processActionFanOut() {
+        int lengthOfActionsToDo = this.operationsList.size();
+
+        // a board's connection is closed by its last action in the sequence
+        HashMap<Integer, Integer> lastIndexForBoardHash = new HashMap<>();
+        for (int i = 0; i < lengthOfActionsToDo; i++) {
+            lastIndexForBoardHash.put(this.operationsList.get(i).getBoardNumber(), i);
+        }
+        int segmentStart = 0;
+        for (int i = 0; i <= lengthOfActionsToDo; i++) {
+            if (i < lengthOfActionsToDo && this.operationsList.get(i).action != MS) {
+                continue;
+            }
+            if (!processSegmentFanOut(segmentStart, i, lastIndexForBoardHash)) {
+                return false;
+            }
+            if (i < lengthOfActionsToDo) {
+                // the barrier for all boards
+                releaseConnectionsForPause(i);
+                this.operationsList.get(i).timerWaitAction(i == lengthOfActionsToDo - 1);
+            }
+            segmentStart = i + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Process a segment of the operations list with a concurrent group of
+     * actions per board.
+     *
+     * @param fromIndex             first action of the segment
+     * @param toIndex               index after the last action of the segment
+     * @param lastIndexForBoardHash index of the last action for each board
+     *
+     * @return false if an unrecoverable error occurred
+     */
+    private boolean processSegmentFanOut(int fromIndex, int toIndex,
+            final Map<Integer, Integer> lastIndexForBoardHash) {
+        // group the actions by board, keeping their order
+        LinkedHashMap<Integer, ArrayList<Integer>> boardGroupHash = new LinkedHashMap<>();
+
+        for (int i = fromIndex; i < toIndex; i++) {
+            int boardN = this.operationsList.get(i).getBoardNumber();
+
+            if (!boardGroupHash.containsKey(boardN)) {
+                boardGroupHash.put(boardN, new ArrayList<Integer>());
+            }
+            boardGroupHash.get(boardN).add(i);
+        }
+        if (boardGroupHash.size() < 2) {
+            // nothing to run concurrently
+            for (int i = fromIndex; i < toIndex; i++) {
+                Im8Action imaticAction = this.operationsList.get(i);
+
+                int batchEnd = batchRunEnd(this.operationsList, i, toIndex);
+
+                boolean closeConnection = lastIndexForBoardHash.get(imaticAction.getBoardNumber()) == batchEnd - 1;
+                if (!performActions(this.operationsList.subList(i, batchEnd), closeConnection)) {
+                    return false;
+                }
+                i = batchEnd - 1;
+            }
+            return true;
+        }
+        ArrayList<Im8Io> childIoList = new ArrayList<>();
+        ArrayList<Future<Boolean>> groupFutureList = new ArrayList<>();
+
+        for (final ArrayList<Integer> groupIndexList : boardGroupHash.values()) {
+            // each board's messages are collected apart and merged in order
+            final Im8Io childIo = this.m8Io.createFanOutChild();
+            childIoList.add(childIo);
+
+            groupFutureList.add(getFanOutExecutor().submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return performBoardGroup(groupIndexList, childIo, lastIndexForBoardHash);
+                }
+            }));
+        }
+        boolean success = true;
+        for (int i = 0; i < groupFutureList.size(); i++) {
+            Im8Io childIo = childIoList.get(i);
+            try {
+                groupFutureList.get(i).get();
+
+            } catch (InterruptedException | ExecutionException ex) {
+                childIo.err(-99).sprintln(CRITICAL, String.format("fan-out board action: %s", ex));
+            }
+            success &= this.m8Io.mergeFanOutChild(childIo);
+        }
+        return success;
+    }
+
+    /**
+     * Perform one board's group of actions in order with the messages going to
+     * the board's IO object.
+     *
+     * @param groupIndexList        indexes of the board's actions
+     * @param childIo               IO object for the board's messages
+     * @param lastIndexForBoardHash index of the last action for each board
+     *
+     * @return false if an unrecoverable error occurred
+     */
+    private boolean performBoardGroup(ArrayList<Integer> groupIndexList, Im8Io childIo,
+            Map<Integer, Integer> lastIndexForBoardHash) {
+        ArrayList<Im8Action> groupActionList = new ArrayList<>();
+        for (int i : groupIndexList) {
+            groupActionList.add(this.operationsList.get(i));
+        }
+        int groupSize = groupActionList.size();
+
+        for (int k = 0; k < groupSize; k++) {
+            Im8Action imaticAction = groupActionList.get(k);
+
+            int batchEnd = batchRunEnd(groupActionList, k, groupSize);
+
+            boolean closeConnection = lastIndexForBoardHash.get(imaticAction.getBoardNumber())
+                    == groupIndexList.get(batchEnd - 1).intValue();
+
+            Im8Io actionIo = imaticAction.m8Io;
+            imaticAction.m8Io = childIo;
+            try {
+                if (!performActions(groupActionList.subList(k, batchEnd), closeConnection)) {
+                    return false;
+                }
+            } finally {
+                imaticAction.m8Io = actionIo;
+            }
+            k = batchEnd - 1;
+        }
+        return true;
+    }
+
+    /**
+     * Apply the boards of a scene concurrently, each board being sent only
+     * the frames that change its relay states&#46; Every board is applied even
+     * if another fails, and the boards' messages are merged in board order.
+     * <p>
+     * A scene is applied per board and is not atomic: a board that fails
+     * (no connection, or a frame with no response) is left in the states it
+     * reached, and the boards that succeeded are not rolled back&#46; The
+     * 'Scene:b-N:ok' line of each board that succeeded tells the caller
+     * which boards are in the scene's states.
+     *
+     * @param sceneList                 the scene actions, one per board
+     * @param closeConnectionOnLastItem true if the last action is the last
+     *                                  request in the sequence
+     *
+     * @return false if a board failed
+     */
+    private boolean applyScene(List<Im8Action> sceneList, final boolean closeConnectionOnLastItem) {
+        if (sceneList.size() == 1) {
+            Im8Action sceneAction = sceneList.get(0);
+            return sceneAction.applyScene(sceneAction.m8Io, closeConnectionOnLastItem);
+        }
+        ArrayList<Im8Io> childIoList = new ArrayList<>();
+        ArrayList<Future<Boolean>> boardFutureList = new ArrayList<>();
+
+        for (final Im8Action sceneAction : sceneList) {
+            final Im8Io childIo = this.m8Io.createFanOutChild();
+            childIoList.add(childIo);
+
+            boardFutureList.add(getFanOutExecutor().submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    // the connection is not kept for a later action of the board
+                    return sceneAction.applyScene(childIo, true);
+                }
+            }));
+        }
+        boolean success = true;
+        for (int i = 0; i < boardFutureList.size(); i++) {
+            Im8Io childIo = childIoList.get(i);
+            try {
+                boardFutureList.get(i).get();
+
+            } catch (InterruptedException | ExecutionException ex) {
+                childIo.err(-99).sprintln(CRITICAL, String.format("scene board action: %s", ex));
+            }
+            success &= this.m8Io.mergeFanOutChild(childIo);
+        }
+        return success;
+    }
+
+    private static synchronized ExecutorService getFanOutExecutor() {
+        if (fanOutExecutor == null) {
+            fanOutExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    // daemon so a library user is not kept running by the fan-out
+                    Thread thread = new Thread(runnable, "Im8FanOut");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return fanOutExecutor;
+    }
+
+    /**
+     * Process the actions from an index onward on the event loop&#46; A pause
+     * action schedules the remaining actions to continue after the pause, and
+     * the board I/O of a run of actions is done off the loop, so the event
+     * loop thread is not held while waiting.
+     *
+     * @param eventLoop     the event loop to perform the actions on
+     * @param fromIndex     index of the first action to process
+     * @param actionsFuture completed with true if all actions succeed
+     */
+    private void processActionAsync(final ScheduledExecutorService eventLoop,
+            int fromIndex, final CompletableFuture<Boolean> actionsFuture) {
+        try {
+            int lengthOfActionsToDo = this.operationsList.size();
+
+            int lastItem = lengthOfActionsToDo - 1;
+            for (int i = fromIndex; i < lengthOfActionsToDo; i++) {
+
+                Im8Action imaticAction = this.operationsList.get(i);
+
+                boolean closeConnectionOnLastItem = (i == lastItem);
+
+                if (imaticAction.action == MS) {
+                    if (closeConnectionOnLastItem) {
+                        imaticAction.releaseConnection();
+                    } else {
+                        releaseConnectionsForPause(i);
                     }
-                    break;
+                    // continue with the next action on the event loop once
+                    // the pause is over
+                    final int nextIndex = i + 1;
+                    Im8TimerWheel.getInstance().schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            eventLoop.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    processActionAsync(eventLoop, nextIndex, actionsFuture);
+                                }
+                            });
+                        }
+                    }, imaticAction.valueForAction);
+                    return;
+                }
+                int batchEnd = batchRunEnd(this.operationsList, i, lengthOfActionsToDo);
 
-                case OFF:
-                    if (imaticAction.setRelayOff(closeConnectionOnLastItem) == null) {
-                        // some error occurred which is unrecoverable
-                        return false;
+                if (isDeferred(imaticAction)) {
+                    // continue on the event loop once the run is sent, so
+                    // the event loop thread is not held waiting
+                    continueAfterDeferred(eventLoop, this.operationsList.subList(i, batchEnd), batchEnd,
+                            actionsFuture);
+                    return;
+                }
+                continueAfterActions(eventLoop, this.operationsList.subList(i, batchEnd), batchEnd,
+                        batchEnd - 1 == lastItem, actionsFuture);
+                return;
+            }
+            actionsFuture.complete(true);
+
+        } catch (RuntimeException ex) {
+            actionsFuture.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Perform a run of actions on the board I/O threads and continue with the
+     * next action on the event loop once the run is done.
+     *
+     * @param eventLoop     the event loop to perform the actions on
+     * @param runList       the run of actions
+     * @param nextIndex     index of the action after the run
+     * @param isLastRun     true if the run ends with the last action
+     * @param actionsFuture completed with true if all actions succeed
+     */
+    private void continueAfterActions(final ScheduledExecutorService eventLoop, final List<Im8Action> runList,
+            final int nextIndex, final boolean isLastRun, final CompletableFuture<Boolean> actionsFuture) {
+
+        Im8EventLoop.getBoardIo().execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean runOk;
+                try {
+                    runOk = performActions(runList, isLastRun);
+
+                } catch (RuntimeException ex) {
+                    actionsFuture.completeExceptionally(ex);
+                    return;
+                }
+                eventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!runOk) {
+                            // some error occurred which is unrecoverable
+                            actionsFuture.complete(false);
+                        } else {
+                            processActionAsync(eventLoop, nextIndex, actionsFuture);
+                        }
                     }
-                    break;
+                });
+            }
+        });
+    }
 
-                case MS:
-                    // Java usually warns with a sleep-timer in a loop so
-                    // use a method instead.
-                    imaticAction.timerWaitAction(closeConnectionOnLastItem);
-                    break;
+    /**
+     * Hand a run of relay actions to the board's debounce window or command
+     * queue and continue with the next action on the event loop once the run
+     * is sent, or has not been sent within the window or queue deadline and
+     * a send.
+     *
+     * @param eventLoop     the event loop to perform the actions on
+     * @param runList       the run of relay actions
+     * @param nextIndex     index of the action after the run
+     * @param actionsFuture completed with true if all actions succeed
+     */
+    private void continueAfterDeferred(final ScheduledExecutorService eventLoop, List<Im8Action> runList,
+            final int nextIndex, final CompletableFuture<Boolean> actionsFuture) {
+        final Im8Io actionIo = runList.get(0).m8Io;
+        final int boardN = runList.get(0).getBoardNumber();
+        final long waitMillis = Im8Action.getSubmitWaitMillis(actionIo);
 
-                case STATUS:
-                    imaticAction.statusReport(closeConnectionOnLastItem);
-                    break;
-                default:
-                // not an action that is allowed so just ignore
+        // completed with null if the wait runs out, the send's future is shared
+        final CompletableFuture<Im8Io> boundedFuture = new CompletableFuture<>();
+        Im8Action.submitRelays(runList).whenComplete(new BiConsumer<Im8Io, Throwable>() {
+            @Override
+            public void accept(Im8Io flushIo, Throwable ex) {
+                if (ex != null) {
+                    boundedFuture.completeExceptionally(ex);
+                } else {
+                    boundedFuture.complete(flushIo);
+                }
+            }
+        });
+        final Im8TimerWheel.Timeout waitTimeout = Im8TimerWheel.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                boundedFuture.complete(null);
+            }
+        }, waitMillis);
+
+        boundedFuture.whenComplete(new BiConsumer<Im8Io, Throwable>() {
+            @Override
+            public void accept(final Im8Io flushIo, final Throwable ex) {
+                waitTimeout.cancel();
+
+                eventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (ex != null) {
+                            actionsFuture.completeExceptionally(ex);
+                        } else if (flushIo == null) {
+                            actionIo.err(-86).sprintf(ERROR_RT_IO,
+                                    "deferred relay action: no outcome within %d ms: b-%d\n", waitMillis, boardN);
+                            actionsFuture.complete(false);
+                        } else if (!actionIo.mergeFanOutChild(flushIo)) {
+                            actionsFuture.complete(false);
+                        } else {
+                            processActionAsync(eventLoop, nextIndex, actionsFuture);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Release the connections of the boards acted on before a long pause, so
+     * a board's socket is not held open while nothing is sent&#46; The next
+     * action for a board after the pause opens its connection again.
+     *
+     * @param pauseIndex index of the pause action
+     */
+    private void releaseConnectionsForPause(int pauseIndex) {
+        if (this.operationsList.get(pauseIndex).valueForAction < RELEASE_CONNECTION_PAUSE) {
+            return;
+        }
+        HashSet<Integer> releasedBoardSet = new HashSet<>();
+
+        for (int i = 0; i < pauseIndex; i++) {
+            Im8Action imaticAction = this.operationsList.get(i);
+
+            if (imaticAction.action != MS && releasedBoardSet.add(imaticAction.getBoardNumber())) {
+                imaticAction.releaseConnection();
             }
         }
+    }
+
+    /**
+     * Get the end of the run of relay ON/OFF actions for the same board that
+     * starts at an index, the run being sent to the board as a batch,
+     * pipelined, converged, debounced or queued&#46; A run is only found when
+     * one of those modes is set, and only a batch or pipelined run is limited
+     * in length.
+     *
+     * @param actionList actions to look through
+     * @param fromIndex  index of the first action of the run
+     * @param toIndex    index after the last action that may be in the run
+     *
+     * @return index after the last action of the run, fromIndex + 1 if there
+     *         is no batch
+     */
+    private int batchRunEnd(List<Im8Action> actionList, int fromIndex, int toIndex) {
+        int runEnd = fromIndex + 1;
+
+        Im8Action firstAction = actionList.get(fromIndex);
+        if (firstAction.action == SCENE) {
+            // the boards of a scene are applied together
+            while (runEnd < toIndex && actionList.get(runEnd).action == SCENE) {
+                runEnd++;
+            }
+            return runEnd;
+        }
+        // a run folded into relay states needs at most one frame per relay
+        boolean folded = this.m8Io.isConverge() || isDeferred(firstAction);
+        if (!(this.m8Io.isBatch() || this.m8Io.isPipelined() || folded) || !isRelayAction(firstAction)) {
+            return runEnd;
+        }
+        while (runEnd < toIndex && (folded || runEnd - fromIndex < BATCH_MAX_FRAMES)) {
+            Im8Action nextAction = actionList.get(runEnd);
+
+            if (!isRelayAction(nextAction) || nextAction.getBoardNumber() != firstAction.getBoardNumber()) {
+                break;
+            }
+            runEnd++;
+        }
+        return runEnd;
+    }
+
+    private static boolean isRelayAction(Im8Action imaticAction) {
+        return imaticAction.action == ON || imaticAction.action == OFF;
+    }
+
+    /**
+     * Check if a relay action is handed to the board's debounce window or
+     * command queue, rather than sent by the caller.
+     *
+     * @param imaticAction the action
+     *
+     * @return true if debounced or queued
+     */
+    private boolean isDeferred(Im8Action imaticAction) {
+        return (this.m8Io.getDebounceMillis() > 0 || this.m8Io.isQueued()) && isRelayAction(imaticAction);
+    }
+
+    /**
+     * Hand a run of relay actions to the board's debounce window or command
+     * queue and wait for it to be sent, for no longer than the window or
+     * queue deadline and a send.
+     *
+     * @param runList the run of relay actions
+     *
+     * @return false if the send failed or was not done in time
+     */
+    private boolean performDeferred(List<Im8Action> runList) {
+        Im8Io actionIo = runList.get(0).m8Io;
+        long waitMillis = Im8Action.getSubmitWaitMillis(actionIo);
+        try {
+            return actionIo.mergeFanOutChild(Im8Action.submitRelays(runList).get(waitMillis, TimeUnit.MILLISECONDS));
+
+        } catch (TimeoutException ex) {
+            actionIo.err(-86).sprintf(ERROR_RT_IO, "deferred relay action: no outcome within %d ms: b-%d\n",
+                    waitMillis, runList.get(0).getBoardNumber());
+            return false;
+
+        } catch (InterruptedException | ExecutionException ex) {
+            actionIo.err(-99).sprintln(CRITICAL, String.format("deferred relay action: %s", ex));
+            return false;
+        }
+    }
+
+    /**
+     * Perform a single action, or a run of relay actions for one board as a
+     * batch, pipelined or converged.
+     *
+     * @param actionList                actions to perform
+     * @param closeConnectionOnLastItem true if the last action is the last
+     *                                  request in the sequence
+     *
+     * @return false if an unrecoverable error occurred
+     */
+    private boolean performActions(List<Im8Action> actionList, boolean closeConnectionOnLastItem) {
+        if (actionList.get(0).action == SCENE) {
+            return applyScene(actionList, closeConnectionOnLastItem);
+        }
+        if (isDeferred(actionList.get(0))) {
+            return performDeferred(actionList);
+        }
+        if (this.m8Io.isConverge() && isRelayAction(actionList.get(0))) {
+            return Im8Action.setRelaysConverged(actionList, closeConnectionOnLastItem);
+        }
+        if (actionList.size() == 1) {
+            return performAction(actionList.get(0), closeConnectionOnLastItem);
+        }
+        if (this.m8Io.isPipelined()) {
+            return Im8Action.setRelaysPipelined(actionList, closeConnectionOnLastItem);
+        }
+        return Im8Action.setRelaysBatch(actionList, closeConnectionOnLastItem);
+    }
+
+    /**
+     * Perform a relay or status action.
+     *
+     * @param imaticAction              the action to perform
+     * @param closeConnectionOnLastItem true if this is the last request in the
+     *                                  sequence
+     *
+     * @return false if an unrecoverable error occurred
+     */
+    private boolean performAction(Im8Action imaticAction, boolean closeConnectionOnLastItem) {
+        switch (imaticAction.action) {
+            case ON:
+                return imaticAction.setRelayOn(closeConnectionOnLastItem) != null;
+
+            case OFF:
+                return imaticAction.setRelayOff(closeConnectionOnLastItem) != null;
+
+            case STATUS:
+                imaticAction.statusReport(closeConnectionOnLastItem);
+                break;
+            default:
+            // not an action that is allowed so just ignore
+        }
         return true;
     }
 
@@ -299,6 +1030,8 @@ class Im8ProcessArgs {
                 return ArgType.ALL;
             case "status":
                 return ArgType.STATUS;
+            case "scene":
+                return ArgType.SCENE;
 
             default:
                 // one of 'b-', 's:', 'ms:' or 'N' for a relay number
@@ -444,12 +1177,9 @@ class Im8ProcessArgs {
             int boardValue = Integer.parseInt(boardNString);
 
             if (boardValue > 0) {
-                // need to check that there is an INI file for this
-                // board number, otherwise it is an error
-
-                File ini4Board = Im8BoardIni.getBoardIniFile(this.m8Io, boardValue);
-
-                if (ini4Board.isFile()) {
+                // need to check that there is an INI file (or binary record)
+                // for this board number, otherwise it is an error
+                if (Im8BoardController.isBoardDefined(this.m8Io, boardValue)) {
                     return boardValue;
                 }
                 // if the boardN is 1 and there is no INI file for it, automatically
@@ -54,6 +54,15 @@ class Im8PseudoStream {
         this.arrBuffer4String = new ArrayList<>();
     }
 
+    /**
+     * Append the messages of another stream to this messages buffer array.
+     *
+     * @param otherStream stream whose messages are appended
+     */
+    final void append(Im8PseudoStream otherStream) {
+        this.arrBuffer4String.addAll(otherStream.arrBuffer4String);
+    }
+
     /** Clear the messages buffer array. */
     final public void clear() {
         this.arrBuffer4String.clear();
@@ -115,6 +124,16 @@ class Im8PseudoStreamOut extends Im8PseudoStream {
         this.arrBuffer4String.add(formatted);
     }
 
+    /**
+     * Pseudo print an already formatted message, that ends with a new-line,
+     * into messages buffer array.
+     *
+     * @param formatted String add to buffer as is
+     */
+    final void sprint(String formatted) {
+        this.arrBuffer4String.add(formatted);
+    }
+
     /**
      * Pseudo print line message into messages buffer array.
      *
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Class that reconciles the relay states of the boards with the states asked
+ * of them.
+ * <p>
+ * A relay frame that had no response, or an invalid one, leaves the relay
+ * state the board has responded with different to the desired state&#46; On
+ * each pass the boards with such a divergence are repaired by sending the
+ * frames for only the relays that differ, and on the reassert interval each
+ * board is sent one on/off frame per relay at its desired state, as these
+ * frames are idempotent&#46; The frames sent are rate-limited by a token
+ * bucket so reconciliation can run continuously across many boards without
+ * crowding out requests&#46; A board with an action in progress is skipped
+ * until a later pass&#46;
+ * <p>
+ * The class lock is held for the bookkeeping of a pass only, never for the
+ * board I/O, so a slow board does not hold up a start, stop or the counts.
+ * <p>
+ * Only the boards used by this process are reconciled.
+ *
+ * @author dbradley
+ */
+class Im8Reconciler {
+
+    /** milliseconds between the reassert of all a board's relay states */
+    static final long DEFAULT_REASSERT_INTERVAL = 60000;
+
+    /** frames that may be sent per second across all boards */
+    static final int DEFAULT_MAX_FRAMES_PER_SECOND = 50;
+
+    /** milliseconds between reconcile passes */
+    private static final long PASS_INTERVAL = 100;
+
+    private static long reassertIntervalMillis = DEFAULT_REASSERT_INTERVAL;
+
+    private static int maxFramesPerSecond = DEFAULT_MAX_FRAMES_PER_SECOND;
+
+    /** frames that may be sent now, refilled at maxFramesPerSecond */
+    private static double tokens = 0;
+
+    private static long lastRefillNanos = 0;
+
+    /** next board to consider, so each pass does not favour the first boards */
+    private static int boardCursor = 0;
+
+    /**
+     * key: board number
+     *
+     * element: milliseconds of the board's last reassert
+     */
+    private static final HashMap<Integer, Long> lastReassertHash = new HashMap<>();
+
+    private static long repairedFrameCount = 0;
+
+    private static long reassertedFrameCount = 0;
+
+    private static Timer reconcileTimer = null;
+
+    private Im8Reconciler() {
+        //
+    }
+
+    /**
+     * Start reconciling the boards used by this process, replacing any
+     * previous settings.
+     *
+     * @param reassertIntervalMillisP milliseconds between the reassert of all
+     *                                a board's relays, 0 (or less) for repair
+     *                                only
+     * @param maxFramesPerSecondP     frames that may be sent per second
+     */
+    static synchronized void start(long reassertIntervalMillisP, int maxFramesPerSecondP) {
+        stop();
+
+        reassertIntervalMillis = Math.max(reassertIntervalMillisP, 0);
+        maxFramesPerSecond = Math.max(maxFramesPerSecondP, 1);
+        tokens = 0;
+        lastRefillNanos = System.nanoTime();
+
+        // daemon so a library user is not kept running by the timer
+        reconcileTimer = new Timer("Im8Reconciler", true);
+        reconcileTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                reconcilePass();
+            }
+        }, PASS_INTERVAL, PASS_INTERVAL);
+    }
+
+    /**
+     * Stop reconciling; a pass in progress completes.
+     */
+    static synchronized void stop() {
+        if (reconcileTimer != null) {
+            reconcileTimer.cancel();
+            reconcileTimer = null;
+        }
+    }
+
+    static synchronized boolean isRunning() {
+        return reconcileTimer != null;
+    }
+
+    static synchronized long getRepairedFrameCount() {
+        return repairedFrameCount;
+    }
+
+    static synchronized long getReassertedFrameCount() {
+        return reassertedFrameCount;
+    }
+
+    /**
+     * Refill the token bucket for the time since the last refill.
+     */
+    private static void refillTokens() {
+        long nowNanos = System.nanoTime();
+        double burst = Math.max(maxFramesPerSecond, 8);
+
+        tokens = Math.min(burst, tokens + (nowNanos - lastRefillNanos) * maxFramesPerSecond / 1e9);
+        lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Are there tokens for a frame.
+     *
+     * @return true if a frame may be sent
+     */
+    private static synchronized boolean hasToken() {
+        return tokens >= 1;
+    }
+
+    /**
+     * Take the tokens for frames, all or none.
+     *
+     * @param frameCount number of frames to send
+     *
+     * @return true if taken, false if there are not enough tokens
+     */
+    private static synchronized boolean takeTokens(int frameCount) {
+        if (tokens < frameCount) {
+            return false;
+        }
+        tokens -= frameCount;
+        return true;
+    }
+
+    /**
+     * Is a board due to be reasserted&#46; A board seen for the first time
+     * is due after an interval, to spread the first reasserts rather than
+     * all boards at once.
+     *
+     * @param boardN    board number
+     * @param nowMillis time of the pass
+     *
+     * @return true if due
+     */
+    private static synchronized boolean isReassertDue(int boardN, long nowMillis) {
+        Long lastReassert = lastReassertHash.get(boardN);
+        if (lastReassert == null) {
+            lastReassertHash.put(boardN, nowMillis);
+            return false;
+        }
+        return nowMillis - lastReassert >= reassertIntervalMillis;
+    }
+
+    /**
+     * Count the frames sent to a board.
+     *
+     * @param boardN    board number
+     * @param reassert  true if a reassert, false if a repair
+     * @param sentCount frames sent
+     * @param nowMillis time of the pass
+     */
+    private static synchronized void countSent(int boardN, boolean reassert, int sentCount, long nowMillis) {
+        if (reassert) {
+            lastReassertHash.put(boardN, nowMillis);
+            reassertedFrameCount += sentCount;
+        } else {
+            repairedFrameCount += sentCount;
+        }
+    }
+
+    /**
+     * Repair the diverged boards and reassert the boards that are due, for as
+     * many frames as the token bucket allows&#46; Run on the timer thread,
+     * with the class lock only taken for the bookkeeping between sends.
+     */
+    private static void reconcilePass() {
+        boolean reassertOn;
+        int cursor;
+        synchronized (Im8Reconciler.class) {
+            if (reconcileTimer == null) {
+                return;
+            }
+            refillTokens();
+            reassertOn = reassertIntervalMillis > 0;
+            cursor = boardCursor;
+        }
+        ArrayList<Im8BoardController> boardList = Im8BoardController.getLoadedBoards();
+        int boardCount = boardList.size();
+        if (boardCount == 0) {
+            return;
+        }
+        boolean framesSent = false;
+        long nowMillis = System.currentTimeMillis();
+
+        // repairs first, so a divergence is not left waiting behind reasserts
+        for (int pass = 0; pass < 2 && hasToken(); pass++) {
+            boolean reassert = pass == 1;
+            if (reassert && !reassertOn) {
+                break;
+            }
+            for (int i = 0; i < boardCount && hasToken(); i++) {
+                Im8BoardController board = boardList.get((cursor + i) % boardCount);
+                int boardN = board.getBoardNumber();
+
+                if (reassert && !isReassertDue(boardN, nowMillis)) {
+                    continue;
+                }
+                int sentCount = reconcileBoard(board, reassert);
+                if (sentCount < 0) {
+                    // not enough tokens for the board's frames
+                    break;
+                }
+                countSent(boardN, reassert, sentCount, nowMillis);
+                framesSent |= sentCount > 0;
+            }
+        }
+        synchronized (Im8Reconciler.class) {
+            boardCursor = (cursor + 1) % boardCount;
+        }
+        if (framesSent) {
+            Im8StatePersister.sequenceEnded();
+        }
+    }
+
+    /**
+     * Send a board the frames for its desired relay states.
+     *
+     * @param board    the board
+     * @param reassert true to send one frame per relay, false for only the
+     *                 relays whose states differ
+     *
+     * @return frames sent, 0 if none or the board is busy, -1 if there are not
+     *         enough tokens
+     */
+    private static int reconcileBoard(Im8BoardController board, boolean reassert) {
+        if (!board.tryLockBoard()) {
+            return 0;
+        }
+        try {
+            // errors are not reported, the next pass retries
+            Im8Io m8Io = new Im8Io();
+
+            byte desiredMask = board.getDesiredRelayMask(m8Io);
+
+            // a reassert is idempotent, each relay at its desired state
+            byte[][] frameArr = reassert
+                    ? Im8FrameCodec.getRelayFrames(desiredMask)
+                    : Im8FrameCodec.planFrames(board.getRelayMask(m8Io), desiredMask);
+            if (frameArr.length == 0) {
+                return 0;
+            }
+            if (!takeTokens(frameArr.length)) {
+                return -1;
+            }
+
+            board.sendBatch2TheBoard(m8Io, frameArr, Im8FrameCodec.getRelayNumberArr(frameArr), true);
+            return frameArr.length;
+        } finally {
+            board.unlockBoard();
+        }
+    }
+}
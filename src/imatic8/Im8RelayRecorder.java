@@ -27,14 +27,15 @@
  */
 package imatic8;
 
-import static imatic8.Im8Constants.MAX_RELAY_NUMBER;
-import static imatic8.Im8Constants.MIN_RELAY_NUMBER;
 import static imatic8.Im8Constants.RELAY_ALL_OFF_CODE;
 import static imatic8.Im8Constants.RELAY_ALL_ON_CODE;
 import static imatic8.Im8Constants.RELAY_OFF_CODE;
 import static imatic8.Im8Constants.RELAY_ON_CODE;
 import static imatic8.Im8Constants.RESPONSE_RELAY_NUMBER_BYTE_INDEX;
 import static imatic8.Im8Constants.RESPONSE_ON_OFF_STATE_BYTE_INDEX;
+import static imatic8.Im8Constants.RESPONSE_MSG_LENGTH;
+import static imatic8.Im8Constants.RELAY_NUMBER_BYTE_INDEX;
+import static imatic8.Im8Constants.ON_OFF_STATE_BYTE_INDEX;
 
 /**
  * Class that keeps a record of the relay settings.
@@ -45,6 +46,23 @@ class Im8RelayRecorder {
 
     private final Im8BoardController boardData;
 
+    /** the relay states of the board, loaded from the backend on first use */
+    private final Im8RelayState relayState;
+
+    /**
+     * the relay states asked of the board, which differ from the relay states
+     * while a frame has not had its response (or failed)
+     */
+    private final Im8RelayState desiredState;
+
+    private boolean relayStateLoaded = false;
+
+    /** the INI load count the relay states were taken from */
+    private int relayStateIniLoadCount = -1;
+
+    /** true if the binary state file is the backend rather than the INI files */
+    private static boolean binaryStateStore = "binary".equalsIgnoreCase(System.getProperty("imatic8.statestore"));
+
     /**
      * Create the Imatic8 recorder for the relay states. This only represents
      * the state as per command/argument request and not the actual board. The
@@ -52,6 +70,34 @@ class Im8RelayRecorder {
      */
     Im8RelayRecorder(Im8BoardController boardData) {
         this.boardData = boardData;
+        this.relayState = new Im8RelayState(boardData.getBoardNumber());
+        this.desiredState = new Im8RelayState(boardData.getBoardNumber());
+    }
+
+    /**
+     * Set the backend the relay states are kept in.
+     *
+     * @param binaryStateStoreP true for the binary state file, false for the
+     *                          board-N INI files
+     */
+    static void setBinaryStateStore(boolean binaryStateStoreP) {
+        binaryStateStore = binaryStateStoreP;
+    }
+
+    static boolean isBinaryStateStore() {
+        return binaryStateStore;
+    }
+
+    /**
+     * Get the backend the relay states are kept in.
+     *
+     * @return the state backend
+     */
+    static Im8StateBackend getStateBackend() {
+        if (binaryStateStore) {
+            return Im8BinaryStateStore.getStore();
+        }
+        return Im8IniStateBackend.INI_BACKEND;
     }
 
     /**
@@ -86,73 +132,168 @@ class Im8RelayRecorder {
     /**
      * Set the relay action just processed in the INI file.
      *
+     * @param m8Io                 the IO object when processing messages
      * @param boardResponseByteArr response bytes from an operation request to a
      *                             board
      * 
      * @return true if successful, otherwise false
      */
-    boolean setRelayRecord(byte[] boardResponseByteArr) {
-        Im8BoardIni propIni = this.boardData.propIni;
+    boolean setRelayRecord(Im8Io m8Io, byte[] boardResponseByteArr) {
+        Im8RelayState state = getRelayState(m8Io);
+        if (!applyResponse(state, boardResponseByteArr, 0)) {
+            return false;
+        }
+
+        return getStateBackend().storeRelayMask(m8Io, this.boardData, state.getRelayMask());
+    }
+
+    /**
+     * Set the relay actions of a batch of responses, the relay states are
+     * stored once for the whole batch&#46;
+     *
+     * @param m8Io                 the IO object when processing messages
+     * @param boardResponseByteArr response bytes, one response message after
+     *                             the other
+     * @param responseCount        number of response messages in the array
+     *
+     * @return true if successful, otherwise false
+     */
+    boolean setRelayRecords(Im8Io m8Io, byte[] boardResponseByteArr, int responseCount) {
+        Im8RelayState state = getRelayState(m8Io);
+
+        for (int i = 0; i < responseCount; i++) {
+            applyResponse(state, boardResponseByteArr, i * RESPONSE_MSG_LENGTH);
+        }
+        return getStateBackend().storeRelayMask(m8Io, this.boardData, state.getRelayMask());
+    }
 
+    /**
+     * Apply a single response message to the relay states.
+     *
+     * @param state                relay states of the board
+     * @param boardResponseByteArr response bytes
+     * @param offset               index of the response message in the array
+     *
+     * @return false if the response has an unknown on/off code
+     */
+    private boolean applyResponse(Im8RelayState state, byte[] boardResponseByteArr, int offset) {
         // successful action as a response received
-        byte relNumResponse = boardResponseByteArr[RESPONSE_RELAY_NUMBER_BYTE_INDEX];
-        byte relOnOffResponse = boardResponseByteArr[RESPONSE_ON_OFF_STATE_BYTE_INDEX];
+        return applyAction(state, boardResponseByteArr[offset + RESPONSE_RELAY_NUMBER_BYTE_INDEX],
+                boardResponseByteArr[offset + RESPONSE_ON_OFF_STATE_BYTE_INDEX]);
+    }
 
-        String state = "???";
+    /**
+     * Apply a relay number and on/off code, of a response or a frame, to the
+     * relay states.
+     *
+     * @param state            relay states of the board
+     * @param relNumResponse   relay number byte
+     * @param relOnOffResponse on/off code byte
+     *
+     * @return false if an unknown on/off code
+     */
+    private boolean applyAction(Im8RelayState state, byte relNumResponse, byte relOnOffResponse) {
+        boolean relayOn = false;
         int relayNum = -1;
 
         Im8RelayInfo boardAction = getActionCodeFromResponse(relOnOffResponse);
-
+        if (boardAction == null) {
+            // not a response to an on/off action, so nothing to record
+            return false;
+        }
         switch (boardAction) {
             case RELAY_ON:
-                state = Im8BoardIni.IMATIC8_INI_ON_STATE;
+                relayOn = true;
                 relayNum = relNumResponse;
                 break;
             case RELAY_OFF:
-                state = Im8BoardIni.IMATIC8_INI_OFF_STATE;
+                relayOn = false;
                 relayNum = relNumResponse;
                 break;
             case RELAY_ALL_ON:
-                state = Im8BoardIni.IMATIC8_INI_ON_STATE;;
+                relayOn = true;
                 relayNum = -1;
                 break;
             case RELAY_ALL_OFF:
-                state = Im8BoardIni.IMATIC8_INI_OFF_STATE;
+                relayOn = false;
                 relayNum = -1;
                 break;
         }
-        // process the properties for all
-        if (relayNum == -1) {
-            for (int i = MIN_RELAY_NUMBER; i <= MAX_RELAY_NUMBER; i++) {
-                propIni.setProperty(String.format("R%d", i), state);
-            }
-        } else {
-            propIni.setProperty(String.format("R%d", relayNum), state);
+        state.setRelay(relayNum, relayOn);
+        return true;
+    }
+
+    /**
+     * Set the relay state asked of the board by a frame about to be sent.
+     *
+     * @param m8Io  the IO object when processing messages
+     * @param frame the frame of the relay action
+     */
+    void setDesiredRelay(Im8Io m8Io, byte[] frame) {
+        // the desired states start from the recorded states
+        getRelayState(m8Io);
+
+        applyAction(this.desiredState, frame[RELAY_NUMBER_BYTE_INDEX], frame[ON_OFF_STATE_BYTE_INDEX]);
+    }
+
+    /**
+     * Set the relay states asked of the board by the frames about to be sent.
+     *
+     * @param m8Io     the IO object when processing messages
+     * @param frameArr the frames, one per relay action
+     */
+    void setDesiredRelays(Im8Io m8Io, byte[][] frameArr) {
+        for (byte[] frame : frameArr) {
+            setDesiredRelay(m8Io, frame);
         }
-        // store the properties
-        return propIni.storeProperties();
     }
 
-    /** 
-     * Report the relay states (best guess) from the INI file. 
+    /**
+     * Get the relay states asked of the board&#46; Where these differ from the
+     * recorded relay states a frame had no response, or failed.
+     *
+     * @param m8Io the IO object when processing messages
+     *
+     * @return mask of the desired relay states
      */
-    void reportRelayStates() {
-        Im8BoardIni boardIni = this.boardData.propIni;
+    byte getDesiredRelayMask(Im8Io m8Io) {
+        getRelayState(m8Io);
 
-        // get the board number for the status report
-        int brdN = this.boardData.getBoardNumber();
+        return this.desiredState.getRelayMask();
+    }
 
-        // propertiesObject.list(System.out);
-        // does not output in 1 to 8 order (that its random)
-        String lineOfStates = String.format("Status:b-%d:", brdN);
+    /**
+     * Get the relay states of the board, loading them from the backend the
+     * first time, or again if the board's INI file has been changed outside
+     * the program.
+     *
+     * @param m8Io the IO object when processing messages
+     *
+     * @return the relay states object
+     */
+    Im8RelayState getRelayState(Im8Io m8Io) {
+        Im8StateBackend backend = getStateBackend();
+
+        int iniLoadCount = this.boardData.propIni == null ? 0 : this.boardData.propIni.getLoadCount();
 
-        for (int i = MIN_RELAY_NUMBER; i <= MAX_RELAY_NUMBER; i++) {
-            String key = String.format("R%d", i);
-            String c = boardIni.getProperty(key)
-                    .equals(Im8BoardIni.IMATIC8_INI_OFF_STATE) ? "-" : String.format("%d", i);
+        if (!this.relayStateLoaded
+                || (backend == Im8IniStateBackend.INI_BACKEND && iniLoadCount != this.relayStateIniLoadCount)) {
+            this.relayState.setRelayMask(backend.loadRelayMask(m8Io, this.boardData));
+            this.desiredState.setRelayMask(this.relayState.getRelayMask());
 
-            lineOfStates = String.format("%s%s", lineOfStates, c);
+            this.relayStateLoaded = true;
+            this.relayStateIniLoadCount = iniLoadCount;
         }
-        this.boardData.m8Io.out(0).sprintf("%s\n", lineOfStates);
+        return this.relayState;
+    }
+
+    /** 
+     * Report the relay states (best guess) from the INI file. 
+     *
+     * @param m8Io the IO object the report is output to
+     */
+    void reportRelayStates(Im8Io m8Io) {
+        // the line is kept by the relay states object for each mask value
+        m8Io.out(0).sprint(getRelayState(m8Io).getStatusLine());
     }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import static imatic8.Im8Constants.MAX_RELAY_NUMBER;
+import static imatic8.Im8Constants.MIN_RELAY_NUMBER;
+
+/**
+ * Class that holds the relay states of a board as a bit-mask (bit 0 = relay 1
+ * ... bit 7 = relay 8, 1 = on).
+ * <p>
+ * The status line for a mask value is formatted once and kept, so status
+ * reporting does not allocate once a board's states have been seen.
+ *
+ * @author dbradley
+ */
+class Im8RelayState {
+
+    /** All relays on mask. */
+    static final byte ALL_ON_MASK = (byte) 0xFF;
+
+    /** All relays off mask. */
+    static final byte ALL_OFF_MASK = (byte) 0x00;
+
+    private final int boardN;
+
+    private byte relayMask = ALL_OFF_MASK;
+
+    /** 'Status:b-N:12--5678\n' lines by mask value, filled on first use */
+    private final String[] statusLineArr = new String[256];
+
+    Im8RelayState(int boardNP) {
+        this.boardN = boardNP;
+    }
+
+    /**
+     * Get the bit for a relay in the mask.
+     *
+     * @param relayNumber 1-8 relay number, -1 is all relays
+     *
+     * @return the bit(s) of the relay
+     */
+    static byte relayBit(int relayNumber) {
+        if (relayNumber == -1) {
+            return ALL_ON_MASK;
+        }
+        return (byte) (1 << (relayNumber - 1));
+    }
+
+    /**
+     * Set the state of a relay, or all relays.
+     *
+     * @param relayNumber 1-8 relay number, -1 is all relays
+     * @param relayOn     true if on, false if off
+     */
+    synchronized void setRelay(int relayNumber, boolean relayOn) {
+        byte relayBits = relayBit(relayNumber);
+
+        this.relayMask = relayOn ? (byte) (this.relayMask | relayBits) : (byte) (this.relayMask & ~relayBits);
+    }
+
+    /**
+     * Is the relay on.
+     *
+     * @param relayNumber 1-8 relay number
+     *
+     * @return true if on
+     */
+    synchronized boolean isRelayOn(int relayNumber) {
+        return (this.relayMask & relayBit(relayNumber)) != 0;
+    }
+
+    synchronized byte getRelayMask() {
+        return this.relayMask;
+    }
+
+    synchronized void setRelayMask(byte relayMaskP) {
+        this.relayMask = relayMaskP;
+    }
+
+    /**
+     * Get the status line for the relay states, which would look like:
+     * <pre>
+     * Status:b-1:123-5-78
+     * </pre> digit = ON dash = OFF
+     *
+     * @return status line ending with a new-line
+     */
+    synchronized String getStatusLine() {
+        int maskIndex = this.relayMask & 0xFF;
+
+        String statusLine = this.statusLineArr[maskIndex];
+        if (statusLine == null) {
+            StringBuilder lineBuilder = new StringBuilder(24);
+            lineBuilder.append("Status:b-").append(this.boardN).append(':');
+
+            for (int i = MIN_RELAY_NUMBER; i <= MAX_RELAY_NUMBER; i++) {
+                lineBuilder.append((maskIndex & (1 << (i - 1))) != 0 ? (char) ('0' + i) : '-');
+            }
+            statusLine = lineBuilder.append('\n').toString();
+            this.statusLineArr[maskIndex] = statusLine;
+        }
+        return statusLine;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import static imatic8.Im8Constants.MAX_RELAY_NUMBER;
+import static imatic8.Im8Constants.MIN_RELAY_NUMBER;
+import static imatic8.Im8Constants.RELAY_ALL_OFF_CODE;
+import static imatic8.Im8Constants.RELAY_ALL_ON_CODE;
+import static imatic8.Im8Constants.RELAY_OFF_CODE;
+import static imatic8.Im8Constants.RELAY_ON_CODE;
+import static imatic8.Im8Constants.RESPONSE_MSG_LENGTH;
+import static imatic8.Im8Constants.RESPONSE_ON_OFF_STATE_BYTE_INDEX;
+import static imatic8.Im8Constants.RESPONSE_RELAY_NUMBER_BYTE_INDEX;
+
+/**
+ * Class that decodes the byte stream from a board into response messages,
+ * FD &lt;relayNo&gt; &lt;on/off&gt; 5D&#46;
+ * <p>
+ * A read may hold part of a response, or several responses, so the bytes of
+ * a response split over reads are kept until the response is complete&#46;
+ * Each complete response is checked for its start and end bytes, a known
+ * on/off code and a relay number in range, and one that fails is discarded;
+ * the stream is then taken up again from the next start byte.
+ *
+ * @author dbradley
+ */
+final class Im8ResponseDecoder {
+
+    /** first byte of a response message */
+    static final byte RESPONSE_START_BYTE = (byte) 0xfd;
+
+    /** last byte of a response message */
+    static final byte RESPONSE_END_BYTE = (byte) 0x5d;
+
+    /** bytes of a response that is split over reads */
+    private final byte[] partResponseArr = new byte[RESPONSE_MSG_LENGTH];
+    private int partResponseLength = 0;
+
+    /** responses and stray bytes discarded since the count was cleared */
+    private int invalidCount = 0;
+
+    /**
+     * Drop any part response, as for a new connection.
+     */
+    void reset() {
+        this.partResponseLength = 0;
+    }
+
+    /**
+     * Get the number of invalid responses (and stray bytes between responses)
+     * discarded since the count was cleared.
+     *
+     * @return count of invalid responses
+     */
+    int getInvalidCount() {
+        return this.invalidCount;
+    }
+
+    void clearInvalidCount() {
+        this.invalidCount = 0;
+    }
+
+    /**
+     * Decode bytes read from the board, adding each complete and valid
+     * response to the responses array&#46; Responses beyond the space in the
+     * array are discarded.
+     *
+     * @param bufferInputBytesArr bytes read from the board
+     * @param numBytes            number of bytes read
+     * @param responseArr         responses, one response message after the
+     *                            other
+     * @param responseCount       number of responses already in the array
+     * @param maxResponses        number of responses the array has space for
+     *
+     * @return number of responses added to the array
+     */
+    int decode(byte[] bufferInputBytesArr, int numBytes, byte[] responseArr, int responseCount,
+            int maxResponses) {
+        int addedCount = 0;
+
+        for (int i = 0; i < numBytes; i++) {
+            byte inByte = bufferInputBytesArr[i];
+
+            if (this.partResponseLength == 0 && inByte != RESPONSE_START_BYTE) {
+                // not the start of a response, so out of step with the stream
+                this.invalidCount++;
+                continue;
+            }
+            this.partResponseArr[this.partResponseLength++] = inByte;
+
+            if (this.partResponseLength < RESPONSE_MSG_LENGTH) {
+                continue;
+            }
+            if (!isValidResponse(this.partResponseArr, 0)) {
+                this.invalidCount++;
+                resynchronize();
+                continue;
+            }
+            this.partResponseLength = 0;
+
+            if (responseCount + addedCount < maxResponses) {
+                System.arraycopy(this.partResponseArr, 0, responseArr,
+                        (responseCount + addedCount) * RESPONSE_MSG_LENGTH, RESPONSE_MSG_LENGTH);
+                addedCount++;
+            }
+        }
+        return addedCount;
+    }
+
+    /**
+     * Take the stream up again from the next start byte of an invalid
+     * response, as a response may begin part way through it.
+     */
+    private void resynchronize() {
+        for (int i = 1; i < RESPONSE_MSG_LENGTH; i++) {
+            if (this.partResponseArr[i] == RESPONSE_START_BYTE) {
+                System.arraycopy(this.partResponseArr, i, this.partResponseArr, 0, RESPONSE_MSG_LENGTH - i);
+                this.partResponseLength = RESPONSE_MSG_LENGTH - i;
+                return;
+            }
+        }
+        this.partResponseLength = 0;
+    }
+
+    /**
+     * Check a response message has its start and end bytes, a known on/off
+     * code and, for a single relay code, a relay number in range.
+     *
+     * @param responseArr response bytes
+     * @param offset      index of the response message in the array
+     *
+     * @return true if a valid response
+     */
+    static boolean isValidResponse(byte[] responseArr, int offset) {
+        if (responseArr[offset] != RESPONSE_START_BYTE
+                || responseArr[offset + RESPONSE_MSG_LENGTH - 1] != RESPONSE_END_BYTE) {
+            return false;
+        }
+        int relayNumber = responseArr[offset + RESPONSE_RELAY_NUMBER_BYTE_INDEX] & 0xff;
+
+        switch (responseArr[offset + RESPONSE_ON_OFF_STATE_BYTE_INDEX]) {
+            case RELAY_ON_CODE:
+            case RELAY_OFF_CODE:
+                return relayNumber >= MIN_RELAY_NUMBER && relayNumber <= MAX_RELAY_NUMBER;
+            case RELAY_ALL_ON_CODE:
+            case RELAY_ALL_OFF_CODE:
+                // the relay number of an all response is not used
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import static imatic8.Im8Constants.MAX_RELAY_NUMBER;
+import static imatic8.Im8Constants.MIN_RELAY_NUMBER;
+import static imatic8.Im8Io.ErrorKind.ERROR_ARG;
+import static imatic8.Im8Io.ErrorKind.ERROR_INI;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class for the named scenes, each scene being the relay states of one or
+ * more boards, that are applied with a 'scene NAME' argument.
+ * <p>
+ * The scenes are in the Imatic8Scenes.ini file alongside the board-N INI
+ * files, with a property per board of a scene in the status form:
+ * <pre>
+ * evening.b-1=12------
+ * evening.b-2=--------
+ * away.b-1=--------
+ * </pre> digit = ON dash = OFF
+ *
+ * @author dbradley
+ */
+class Im8SceneIni {
+
+    static final String SCENES_FILE_NAME = "Imatic8Scenes.ini";
+
+    private static final String BOARD_KEY_PART = ".b-";
+
+    /** the scenes file as last loaded */
+    private static Properties sceneProperties = null;
+
+    private static File loadedFile = null;
+
+    private static long loadedModifiedMillis = -1;
+
+    /** lock of the scenes file, not a monitor as its load blocks on I/O */
+    private static final ReentrantLock sceneLock = new ReentrantLock();
+
+    private Im8SceneIni() {
+        //
+    }
+
+    /**
+     * Get the file-path of the scenes file.
+     *
+     * @return scenes File object
+     */
+    static File getScenesFile() {
+        return new File(Im8Io.getUserDir(), SCENES_FILE_NAME);
+    }
+
+    /**
+     * Get the relay states of each board of a scene, the scenes file being
+     * loaded again if it has changed.
+     *
+     * @param m8IoP     the IO object when processing messages
+     * @param sceneName name of the scene, not case sensitive
+     *
+     * @return key: board number, element: relay states mask; null if an error
+     */
+    static TreeMap<Integer, Byte> getScene(Im8Io m8IoP, String sceneName) {
+        sceneLock.lock();
+        try {
+            return getSceneLocked(m8IoP, sceneName);
+        } finally {
+            sceneLock.unlock();
+        }
+    }
+
+    /**
+     * Get the relay states of each board of a scene, the scene lock being
+     * held.
+     *
+     * @param m8IoP     the IO object when processing messages
+     * @param sceneName name of the scene, not case sensitive
+     *
+     * @return key: board number, element: relay states mask; null if an error
+     */
+    private static TreeMap<Integer, Byte> getSceneLocked(Im8Io m8IoP, String sceneName) {
+        if (!loadScenes(m8IoP)) {
+            return null;
+        }
+        String keyLead = sceneName.toLowerCase() + BOARD_KEY_PART;
+
+        TreeMap<Integer, Byte> boardMaskHash = new TreeMap<>();
+        for (Map.Entry<Object, Object> entry : sceneProperties.entrySet()) {
+            String key = entry.getKey().toString().toLowerCase();
+            if (!key.startsWith(keyLead)) {
+                continue;
+            }
+            int boardN;
+            try {
+                boardN = Integer.parseInt(key.substring(keyLead.length()));
+            } catch (NumberFormatException ex) {
+                boardN = 0;
+            }
+            int relayMask = parseRelayStates(entry.getValue().toString().trim());
+
+            if (boardN < 1 || relayMask < 0) {
+                m8IoP.err(-6).sprintf(ERROR_INI, "scene property invalid: %s=%s\n",
+                        entry.getKey(), entry.getValue());
+                return null;
+            }
+            boardMaskHash.put(boardN, (byte) relayMask);
+        }
+        if (boardMaskHash.isEmpty()) {
+            m8IoP.err(-5).sprintf(ERROR_ARG, "scene not defined: %s\n", sceneName);
+            return null;
+        }
+        return boardMaskHash;
+    }
+
+    /**
+     * Parse relay states in the status form, '12-45---'.
+     *
+     * @param relayStates relay states string
+     *
+     * @return relay states mask, -1 if not valid
+     */
+    static int parseRelayStates(String relayStates) {
+        if (relayStates.length() != MAX_RELAY_NUMBER) {
+            return -1;
+        }
+        int relayMask = 0;
+        for (int i = MIN_RELAY_NUMBER; i <= MAX_RELAY_NUMBER; i++) {
+            char relayChar = relayStates.charAt(i - 1);
+
+            if (relayChar == (char) ('0' + i)) {
+                relayMask |= 1 << (i - 1);
+            } else if (relayChar != '-') {
+                return -1;
+            }
+        }
+        return relayMask;
+    }
+
+    /**
+     * Load the scenes file if it is not loaded or has changed.
+     *
+     * @param m8IoP the IO object when processing messages
+     *
+     * @return false if there is no scenes file or it could not be read
+     */
+    private static boolean loadScenes(Im8Io m8IoP) {
+        File scenesFile = getScenesFile();
+        long modifiedMillis = scenesFile.lastModified();
+
+        if (modifiedMillis == 0) {
+            m8IoP.err(-96).sprintf(ERROR_INI, "no scenes file: %s\n", scenesFile.getAbsolutePath());
+            return false;
+        }
+        if (sceneProperties != null && scenesFile.equals(loadedFile)
+                && modifiedMillis == loadedModifiedMillis) {
+            return true;
+        }
+        Properties loadProperties = new Properties();
+        try (InputStream iStream = new FileInputStream(scenesFile)) {
+            loadProperties.load(iStream);
+
+        } catch (IOException ex) {
+            m8IoP.err(-97).sprintf(ERROR_INI, "scenes file read: %s\n", ex.getMessage());
+            return false;
+        }
+        sceneProperties = loadProperties;
+        loadedFile = scenesFile;
+        loadedModifiedMillis = modifiedMillis;
+        return true;
+    }
+}
@@ -27,7 +27,9 @@
  */
 package imatic8;
 
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.function.Function;
 
 /**
  * Class that provides a socket for communication to a board-server port of a
@@ -47,6 +49,27 @@ class Im8Socket {
      */
     static Class<?> socketProvidedClass = Socket.class;
 
+    /** the mapping of a board address to the address the NIO transport
+     * connects to, null for none&#46; The emulator testing environment maps a
+     * board address to its emulator, as the socket-emulator does for the
+     * blocking transport.
+     */
+    static Function<InetSocketAddress, InetSocketAddress> connectAddressMapper = null;
+
+    /**
+     * The transport kinds for the board communication.
+     */
+    enum Transport {
+        /** a blocking socket per board connection */
+        BLOCKING,
+        /** non-blocking channels multiplexed on one I/O thread */
+        NIO
+    }
+
+    /** the transport in use, may be set by the 'imatic8.transport' property */
+    private static Transport transport = "nio".equalsIgnoreCase(System.getProperty("imatic8.transport"))
+            ? Transport.NIO : Transport.BLOCKING;
+
     private Im8Socket() {
         //
     }
@@ -65,6 +88,40 @@ class Im8Socket {
         return ((Class<Socket>) socketProvidedClass).newInstance();
     }
 
+    /**
+     * Set the transport to use for board communication.
+     *
+     * @param transportP BLOCKING or NIO transport
+     */
+    static void setTransport(Transport transportP) {
+        transport = transportP;
+    }
+
+    /**
+     * Determine if the NIO transport is in use.
+     *
+     * @return true if the NIO transport is to be used
+     */
+    static boolean isNioTransport() {
+        return transport == Transport.NIO;
+    }
+
+    /**
+     * Get the address to connect to for a board-server, as mapped by the
+     * emulator testing environment if it is in place.
+     *
+     * @param ipAddr board IP address
+     * @param portNo board port number
+     *
+     * @return the socket address to connect to
+     */
+    static InetSocketAddress getConnectAddress(String ipAddr, int portNo) {
+        InetSocketAddress boardAddress = new InetSocketAddress(ipAddr, portNo);
+
+        Function<InetSocketAddress, InetSocketAddress> mapper = connectAddressMapper;
+        return mapper == null ? boardAddress : mapper.apply(boardAddress);
+    }
+
 //99    /**
 //     * Determine if settings for the emulator socket testing environment are in
 //     * place.
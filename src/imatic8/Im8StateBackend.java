@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+/**
+ * Interface for where the best guess relay states of the boards are kept.
+ * <p>
+ * The board-N INI file is the default backend, a binary state file may be
+ * used instead where many boards are managed.
+ *
+ * @author dbradley
+ */
+interface Im8StateBackend {
+
+    /**
+     * Store the relay states of a board.
+     *
+     * @param m8Io      the IO object when processing messages
+     * @param boardCtrl the board controller of the relays
+     * @param relayMask the relay states bit-mask
+     *
+     * @return true if successful, otherwise false
+     */
+    boolean storeRelayMask(Im8Io m8Io, Im8BoardController boardCtrl, byte relayMask);
+
+    /**
+     * Load the stored relay states of a board.
+     *
+     * @param m8Io      the IO object when processing messages
+     * @param boardCtrl the board controller of the relays
+     *
+     * @return the relay states bit-mask
+     */
+    byte loadRelayMask(Im8Io m8Io, Im8BoardController boardCtrl);
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Class that persists the relay states of boards write-behind.
+ * <p>
+ * Rather than each relay response rewriting the board-N INI file, the board's
+ * INI properties are marked dirty and the changes of many responses are
+ * written together by a single store. The store is done at the end of a
+ * command sequence, or on an interval if one is set, and always at shutdown.
+ * A binary state store is written as it changes, so a flush only forces it to
+ * the storage device when the fsync policy is set.
+ *
+ * @author dbradley
+ */
+class Im8StatePersister {
+
+    /**
+     * When the INI file is forced to the storage device.
+     */
+    enum FsyncPolicy {
+        /** leave it to the operating system */
+        NONE,
+        /** sync the file to the device on every flush */
+        ON_FLUSH
+    }
+
+    /** 0 flushes at the end of each sequence, otherwise the flush interval */
+    private static long flushIntervalMillis = 0;
+
+    private static FsyncPolicy fsyncPolicy = FsyncPolicy.NONE;
+
+    /**
+     * key: the board-N INI file
+     *
+     * element: the INI properties that have changed and are not yet stored
+     */
+    private final static LinkedHashMap<File, DirtyIni> dirtyIniHash = new LinkedHashMap<>();
+
+    /**
+     * key: a binary state store that has changed since the last flush
+     *
+     * element: the IO object of the request that last changed it
+     */
+    private final static LinkedHashMap<Im8BinaryStateStore, Im8Io> dirtyStoreHash = new LinkedHashMap<>();
+
+    private static Timer flushTimer = null;
+
+    private static boolean shutdownHookAdded = false;
+
+    /**
+     * INI properties to store, with the IO object of the request that last
+     * changed them for any store error.
+     */
+    private static class DirtyIni {
+
+        final Im8BoardIni propIni;
+        final Im8Io m8Io;
+
+        DirtyIni(Im8BoardIni propIniP, Im8Io m8IoP) {
+            this.propIni = propIniP;
+            this.m8Io = m8IoP;
+        }
+    }
+
+    private Im8StatePersister() {
+        //
+    }
+
+    /**
+     * Set the interval the changed relay states are flushed on.
+     *
+     * @param flushIntervalMillisP milliseconds, 0 (or less) to flush at the end
+     *                             of each command sequence
+     */
+    static synchronized void setFlushInterval(long flushIntervalMillisP) {
+        flushIntervalMillis = Math.max(flushIntervalMillisP, 0);
+
+        if (flushTimer != null) {
+            // the new interval takes effect on the next change
+            flushTimer.cancel();
+            flushTimer = null;
+        }
+    }
+
+    /**
+     * Set when the INI files are forced to the storage device.
+     *
+     * @param fsyncPolicyP the policy
+     */
+    static synchronized void setFsyncPolicy(FsyncPolicy fsyncPolicyP) {
+        fsyncPolicy = fsyncPolicyP;
+    }
+
+    /**
+     * Mark the INI properties of a board as changed, to be stored on the next
+     * flush.
+     *
+     * @param m8Io    the IO object when processing messages
+     * @param propIni board INI properties
+     */
+    static synchronized void markDirty(Im8Io m8Io, Im8BoardIni propIni) {
+        dirtyIniHash.put(propIni.getPropertyFile(), new DirtyIni(propIni, m8Io));
+
+        scheduleFlush();
+    }
+
+    /**
+     * Mark a binary state store as changed, to be forced to the storage
+     * device on the next flush if the fsync policy is set.
+     *
+     * @param m8Io  the IO object when processing messages
+     * @param store the binary state store
+     */
+    static synchronized void markDirty(Im8Io m8Io, Im8BinaryStateStore store) {
+        dirtyStoreHash.put(store, m8Io);
+
+        scheduleFlush();
+    }
+
+    /**
+     * Make sure the changes are flushed at shutdown, and on the interval if
+     * one is set.
+     */
+    private static void scheduleFlush() {
+        if (!shutdownHookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, "Im8StatePersister-shutdown"));
+            shutdownHookAdded = true;
+        }
+        if (flushIntervalMillis > 0 && flushTimer == null) {
+            // daemon so a library user is not kept running by the timer
+            flushTimer = new Timer("Im8StatePersister-flush", true);
+            flushTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, flushIntervalMillis, flushIntervalMillis);
+        }
+    }
+
+    /**
+     * Flush at the end of a command sequence, unless an interval is set.
+     *
+     * @return true if nothing was left to store or all were stored, false if
+     *         the flush failed
+     */
+    static boolean sequenceEnded() {
+        boolean flushNow;
+        synchronized (Im8StatePersister.class) {
+            flushNow = flushIntervalMillis == 0 && (!dirtyIniHash.isEmpty() || !dirtyStoreHash.isEmpty());
+        }
+        if (flushNow) {
+            return flush();
+        }
+        return true;
+    }
+
+    /**
+     * Store all the changed INI properties, and force the changed binary
+     * state stores if the fsync policy is set.
+     *
+     * @return true if all were stored
+     */
+    static boolean flush() {
+        ArrayList<DirtyIni> toStoreList;
+        ArrayList<Map.Entry<Im8BinaryStateStore, Im8Io>> toForceList;
+        boolean fsync;
+
+        synchronized (Im8StatePersister.class) {
+            if (dirtyIniHash.isEmpty() && dirtyStoreHash.isEmpty()) {
+                return true;
+            }
+            toStoreList = new ArrayList<>(dirtyIniHash.values());
+            dirtyIniHash.clear();
+
+            toForceList = new ArrayList<>(dirtyStoreHash.entrySet());
+            dirtyStoreHash.clear();
+
+            fsync = fsyncPolicy == FsyncPolicy.ON_FLUSH;
+        }
+        boolean success = true;
+        for (DirtyIni dirtyIni : toStoreList) {
+            success &= dirtyIni.propIni.storeProperties(dirtyIni.m8Io, fsync);
+        }
+        if (fsync) {
+            // a binary store is written as it changes, only the force is left
+            for (Map.Entry<Im8BinaryStateStore, Im8Io> dirtyStore : toForceList) {
+                success &= dirtyStore.getKey().force(dirtyStore.getValue());
+            }
+        }
+        return success;
+    }
+}
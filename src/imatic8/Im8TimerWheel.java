@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class of a hashed timer wheel that runs the continuations of pauses (s:N
+ * and ms:N)&#46;
+ * <p>
+ * The wheel is a ring of buckets, each a tick of time, and a single thread
+ * moves around the ring one tick at a time running the tasks that are due in
+ * the bucket. A task due beyond one turn of the wheel stays in its bucket for
+ * the remaining turns (rounds). Scheduling and expiry are constant time
+ * whatever the number of pauses, and no thread sleeps per pause&#46;
+ * <p>
+ * Tasks run on the wheel thread and must be short, such as handing a
+ * continuation on to an executor or completing a future. A task runs on the
+ * first tick at or after its delay, so up to a tick late.
+ *
+ * @author dbradley
+ */
+class Im8TimerWheel {
+
+    /** Milliseconds of a tick of the wheel. */
+    static final int TICK_MILLIS = 10;
+
+    /** Number of buckets (ticks) in a turn of the wheel, a power of 2. */
+    static final int WHEEL_SIZE = 512;
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+
+    private static Im8TimerWheel instance = null;
+
+    /**
+     * A task scheduled on the wheel.
+     */
+    static class Timeout {
+
+        final Runnable task;
+        final long deadlineTick;
+
+        /** turns of the wheel before the task is due */
+        long remainingRounds;
+
+        volatile boolean cancelled = false;
+
+        Timeout(Runnable taskP, long deadlineTickP) {
+            this.task = taskP;
+            this.deadlineTick = deadlineTickP;
+        }
+
+        /**
+         * Cancel the task if it has not run yet.
+         */
+        void cancel() {
+            this.cancelled = true;
+        }
+    }
+
+    private final ArrayDeque<Timeout>[] bucketArr = newBucketArr(WHEEL_SIZE);
+
+    /** tasks scheduled by callers waiting to be put in a bucket by the wheel thread */
+    private final ConcurrentLinkedQueue<Timeout> pendingQueue = new ConcurrentLinkedQueue<>();
+
+    private final Thread wheelThread;
+
+    private final long startNanos;
+
+    /** the tick the wheel thread is on, only changed by the wheel thread */
+    private volatile long currentTick = 0;
+
+    /** number of tasks in the buckets, only used by the wheel thread */
+    private int bucketTaskCount = 0;
+
+    private Im8TimerWheel() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            this.bucketArr[i] = new ArrayDeque<>();
+        }
+        this.startNanos = System.nanoTime();
+
+        this.wheelThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                turnWheel();
+            }
+        }, "Im8TimerWheel");
+        // daemon so a library user is not kept running by the wheel
+        this.wheelThread.setDaemon(true);
+        this.wheelThread.start();
+    }
+
+    /**
+     * Create the ring of buckets, a generic array being created by a cast of
+     * a wildcard array.
+     *
+     * @param size number of buckets
+     *
+     * @return array of empty slots
+     */
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Timeout>[] newBucketArr(int size) {
+        return (ArrayDeque<Timeout>[]) new ArrayDeque<?>[size];
+    }
+
+    /**
+     * Get the timer wheel, starting it the first time.
+     *
+     * @return the timer wheel
+     */
+    static synchronized Im8TimerWheel getInstance() {
+        if (instance == null) {
+            instance = new Im8TimerWheel();
+        }
+        return instance;
+    }
+
+    /**
+     * Schedule a task to run after a delay.
+     *
+     * @param task        the task, run on the wheel thread
+     * @param delayMillis delay in milliseconds
+     *
+     * @return the scheduled task, which may be cancelled
+     */
+    Timeout schedule(Runnable task, long delayMillis) {
+        long elapsedNanos = System.nanoTime() - this.startNanos
+                + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+
+        // the first tick at or after the deadline
+        Timeout timeout = new Timeout(task, (elapsedNanos + TICK_NANOS - 1) / TICK_NANOS);
+
+        this.pendingQueue.add(timeout);
+        LockSupport.unpark(this.wheelThread);
+
+        return timeout;
+    }
+
+    /**
+     * Get a future completed after a delay.
+     *
+     * @param delayMillis delay in milliseconds
+     *
+     * @return future completed by the wheel thread
+     */
+    CompletableFuture<Void> delay(long delayMillis) {
+        final CompletableFuture<Void> delayFuture = new CompletableFuture<>();
+
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                delayFuture.complete(null);
+            }
+        }, delayMillis);
+
+        return delayFuture;
+    }
+
+    /**
+     * The loop of the wheel thread&#46; Nothing thrown by a tick, not even an
+     * Error, ends the loop, as the pauses of every request wait on it.
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    private void turnWheel() {
+        while (true) {
+            try {
+                tick();
+
+            } catch (Throwable ex) {
+                ex.printStackTrace();
+                // not a busy loop if the error repeats
+                LockSupport.parkNanos(this, TICK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Wait for the next tick, or a task to be scheduled, and run the tasks
+     * that are due.
+     */
+    private void tick() {
+        if (this.bucketTaskCount == 0 && this.pendingQueue.isEmpty()) {
+            // nothing is due, so wait for a task to be scheduled
+            LockSupport.park(this);
+        }
+        // catch up on the ticks that have passed
+        long nowTick = (System.nanoTime() - this.startNanos) / TICK_NANOS;
+
+        if (this.bucketTaskCount == 0 && this.currentTick < nowTick) {
+            // the buckets are empty, so the idle ticks are skipped
+            this.currentTick = nowTick;
+        }
+        transferPending();
+
+        while (this.currentTick <= nowTick) {
+            expireBucket(this.currentTick);
+            this.currentTick++;
+        }
+        if (this.bucketTaskCount > 0 || !this.pendingQueue.isEmpty()) {
+            long nextTickNanos = this.startNanos + this.currentTick * TICK_NANOS;
+            LockSupport.parkNanos(this, nextTickNanos - System.nanoTime());
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = this.pendingQueue.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // a task already due goes in the current bucket
+            long bucketTick = Math.max(timeout.deadlineTick, this.currentTick);
+
+            timeout.remainingRounds = (bucketTick - this.currentTick) / WHEEL_SIZE;
+            this.bucketArr[(int) (bucketTick & (WHEEL_SIZE - 1))].add(timeout);
+            this.bucketTaskCount++;
+        }
+    }
+
+    @SuppressWarnings("CallToPrintStackTrace")
+    private void expireBucket(long tick) {
+        Iterator<Timeout> bucketIter = this.bucketArr[(int) (tick & (WHEEL_SIZE - 1))].iterator();
+
+        while (bucketIter.hasNext()) {
+            Timeout timeout = bucketIter.next();
+
+            if (timeout.remainingRounds > 0 && !timeout.cancelled) {
+                timeout.remainingRounds--;
+                continue;
+            }
+            bucketIter.remove();
+            this.bucketTaskCount--;
+
+            if (!timeout.cancelled) {
+                try {
+                    timeout.task.run();
+
+                } catch (RuntimeException ex) {
+                    // a failed task does not stop the wheel
+                } catch (Error ex) {
+                    // nor does an Error, the other tasks of the tick still run
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Class that provides the executor for the virtual-thread mode, where each
+ * asynchronous library request, interactive line or daemon client runs on a
+ * thread of its own from start to end&#46;
+ * <p>
+ * On a Java runtime with virtual threads (21 or later) the executor starts a
+ * virtual thread per task, so blocking socket reads and the wait of a pause
+ * (s:N or ms:N) park the virtual thread rather than hold a platform thread.
+ * The locks held over blocking I/O on these paths are not monitors, which
+ * would pin the carrier thread.
+ * Many thousands of timed sequences may then be in flight. The program is
+ * built for Java 8 so the executor is looked up by reflection, and on an
+ * earlier runtime a cached pool of daemon threads is used instead.
+ *
+ * @author dbradley
+ */
+class Im8VirtualThreads {
+
+    private static ExecutorService executor = null;
+
+    private static boolean virtual = false;
+
+    private Im8VirtualThreads() {
+        //
+    }
+
+    /**
+     * Get the executor, creating it the first time.
+     *
+     * @return executor that runs each task on a (virtual) thread of its own
+     */
+    static synchronized ExecutorService get() {
+        if (executor == null) {
+            try {
+                Method newVirtualMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                executor = (ExecutorService) newVirtualMethod.invoke(null);
+                virtual = true;
+
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                // runtime without virtual threads
+                executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        // daemon so a library user is not kept running by the pool
+                        Thread thread = new Thread(runnable, "Im8Request");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                virtual = false;
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Are the tasks run on virtual threads, rather than the platform thread
+     * pool of an earlier runtime.
+     *
+     * @return true if virtual threads
+     */
+    static synchronized boolean isVirtual() {
+        get();
+        return virtual;
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class of an embedded HTTP server that takes Imatic8Prog requests as REST
+ * calls and answers with JSON, the requests being run as per
+ * <code>Imatic8LibMode.execute</code>.
+ * <p>
+ * The calls are:
+ * <pre>
+ *      POST /exec                  body: a line of arguments, 'b-2 on 1 3 status'
+ *      POST /boards/2/relays/3     body: 'on' or 'off', relay may be 'all'
+ *      GET  /boards/2              the status of board 2
+ * </pre> and the answer is, with HTTP status 200 for a successful exit-code
+ * (0 or positive), 400 for an argument error (exit-code -1, -2 or -5) and
+ * 500 for any other error:
+ * <pre>
+ *      {"exitCode":0,"responses":["Status:b-2:1-3-----"]}
+ * </pre> The server is bound to the loopback address unless all interfaces
+ * are asked for, as the calls have no authentication and switch real
+ * equipment&#46; The requests run on a bounded pool of worker threads with a
+ * bounded queue; a request when the queue is full is answered at once with
+ * HTTP status 503, so a burst of calls cannot exhaust threads or memory&#46;
+ * Board connections are kept alive between requests.
+ *
+ * @author dbradley
+ */
+public class Imatic8HttpServer {
+
+    /** default port */
+    public static final int DEFAULT_PORT = 30880;
+
+    /** default number of worker threads */
+    public static final int DEFAULT_WORKER_THREADS = 8;
+
+    /** default number of requests that may wait for a worker thread */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /** property to bind all interfaces in the command-line 'http' mode */
+    public static final String ALL_INTERFACES_PROPERTY = "imatic8.http.allinterfaces";
+
+    /** largest request body, a line of arguments */
+    private static final int MAX_BODY_LENGTH = 4096;
+
+    private static final Pattern RELAY_PATH_PATTERN = Pattern.compile("/boards/(\\d+)/relays/(\\d+|all)/?");
+
+    private static final Pattern BOARD_PATH_PATTERN = Pattern.compile("/boards/(\\d+)/?");
+
+    private final HttpServer httpServer;
+
+    private final ThreadPoolExecutor workerExecutor;
+
+    /** a permit for each request running or queued */
+    private final Semaphore requestPermits;
+
+    /**
+     * Create the server on a port of the loopback address, with the default
+     * worker threads and queue.
+     *
+     * @param port port number, 0 for any free port
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public Imatic8HttpServer(int port) throws IOException {
+        this(port, false);
+    }
+
+    /**
+     * Create the server on a port of the loopback address, or of all local
+     * addresses, with the default worker threads and queue&#46; All
+     * addresses exposes the relays to any host that can reach this one.
+     *
+     * @param port          port number, 0 for any free port
+     * @param allInterfaces true to bind all local addresses, false for the
+     *                      loopback address only
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public Imatic8HttpServer(int port, boolean allInterfaces) throws IOException {
+        this(allInterfaces
+                ? new InetSocketAddress(port)
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                DEFAULT_WORKER_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Create the server.
+     *
+     * @param address       address and port to bind
+     * @param workerThreads number of requests run at the same time
+     * @param queueCapacity number of requests that may wait for a worker
+     *                      thread
+     *
+     * @throws IOException if the address cannot be bound
+     */
+    public Imatic8HttpServer(InetSocketAddress address, int workerThreads, int queueCapacity) throws IOException {
+        int threads = Math.max(workerThreads, 1);
+        int capacity = Math.max(queueCapacity, 0);
+
+        this.requestPermits = new Semaphore(threads + capacity);
+        this.workerExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads + capacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Im8Http-worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.workerExecutor.allowCoreThreadTimeOut(true);
+
+        this.httpServer = HttpServer.create(address, 0);
+        this.httpServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                dispatch(exchange);
+            }
+        });
+    }
+
+    /**
+     * Run the server from the command-line, 'http [port]', until the process
+     * is stopped&#46; The loopback address is bound unless the
+     * 'imatic8.http.allinterfaces' property is true.
+     *
+     * @param args 'http' and an optional port number
+     */
+    static void processHttpMode(String[] args) {
+        try {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+
+            Imatic8HttpServer server = new Imatic8HttpServer(port, Boolean.getBoolean(ALL_INTERFACES_PROPERTY));
+            server.start();
+            System.out.printf("%s HTTP server on %s:%d\n", Imatic8Prog.programName,
+                    server.getAddress().getAddress().getHostAddress(), server.getPort());
+
+        } catch (NumberFormatException | IOException ex) {
+            System.err.printf("HTTP server: %s\n", ex.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Start taking requests.
+     */
+    public void start() {
+        this.httpServer.start();
+    }
+
+    /**
+     * Stop taking requests, waiting up to a delay for the running requests.
+     *
+     * @param delaySeconds seconds to wait for the running requests
+     */
+    public void stop(int delaySeconds) {
+        this.httpServer.stop(delaySeconds);
+        this.workerExecutor.shutdown();
+    }
+
+    /**
+     * Get the port the server is bound to.
+     *
+     * @return port number
+     */
+    public int getPort() {
+        return this.httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Get the address and port the server is bound to.
+     *
+     * @return socket address
+     */
+    public InetSocketAddress getAddress() {
+        return this.httpServer.getAddress();
+    }
+
+    /**
+     * Pass a request to a worker thread, or answer it as unavailable if the
+     * worker threads and queue are full&#46; This runs on the HTTP server's
+     * dispatch thread so must not block.
+     *
+     * @param exchange the request
+     */
+    private void dispatch(final HttpExchange exchange) throws IOException {
+        if (!this.requestPermits.tryAcquire()) {
+            sendJson(exchange, 503, errorJson("busy, try again"));
+            return;
+        }
+        this.workerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handleRequest(exchange);
+
+                } catch (IOException | RuntimeException ex) {
+                    try {
+                        sendJson(exchange, 500, errorJson(String.valueOf(ex.getMessage())));
+                    } catch (IOException | RuntimeException ex1) {
+                        // the client has gone
+                    }
+                } finally {
+                    exchange.close();
+                    requestPermits.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Map a request to the arguments of an Imatic8Prog request and run it.
+     *
+     * @param exchange the request
+     */
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+
+        String[] argsArr;
+        Matcher relayMatcher = RELAY_PATH_PATTERN.matcher(path);
+        Matcher boardMatcher = BOARD_PATH_PATTERN.matcher(path);
+
+        if (path.equals("/exec") || path.equals("/exec/")) {
+            if (!method.equals("POST")) {
+                sendJson(exchange, 405, errorJson("use POST"));
+                return;
+            }
+            String body = readBody(exchange);
+            if (body == null) {
+                return;
+            }
+            argsArr = Im8Common.tokenSingleLine(body);
+
+        } else if (relayMatcher.matches()) {
+            if (!method.equals("POST")) {
+                sendJson(exchange, 405, errorJson("use POST"));
+                return;
+            }
+            String body = readBody(exchange);
+            if (body == null) {
+                return;
+            }
+            String onOff = body.trim().toLowerCase();
+            if (!onOff.equals("on") && !onOff.equals("off")) {
+                sendJson(exchange, 400, errorJson("body must be 'on' or 'off'"));
+                return;
+            }
+            argsArr = new String[]{"b-" + relayMatcher.group(1), onOff, relayMatcher.group(2)};
+
+        } else if (boardMatcher.matches()) {
+            if (!method.equals("GET")) {
+                sendJson(exchange, 405, errorJson("use GET"));
+                return;
+            }
+            argsArr = new String[]{"b-" + boardMatcher.group(1), "status"};
+
+        } else {
+            sendJson(exchange, 404, errorJson("unknown path: " + path));
+            return;
+        }
+        if (argsArr.length == 0) {
+            sendJson(exchange, 400, errorJson("no arguments"));
+            return;
+        }
+        Imatic8LibMode libMode = new Imatic8LibMode();
+        libMode.setKeepAlive(true);
+        libMode.execute(argsArr);
+
+        int exitCode = libMode.getExitCode();
+        sendJson(exchange, getHttpStatus(exitCode), resultJson(exitCode, libMode.getResponses()));
+    }
+
+    /**
+     * Get the HTTP status of a request's exit-code: a success, an error in
+     * the arguments (the caller's), or an error running them.
+     *
+     * @param exitCode exit-code of the request
+     *
+     * @return 200, 400 or 500
+     */
+    static int getHttpStatus(int exitCode) {
+        if (exitCode >= 0) {
+            return 200;
+        }
+        switch (exitCode) {
+            case -1:
+            case -2:
+            case -5:
+                // argument errors, such as a relay number or scene not known
+                return 400;
+            default:
+                return 500;
+        }
+    }
+
+    /**
+     * Read the request body as text.
+     *
+     * @param exchange the request
+     *
+     * @return the body, null if too long and so answered
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream bodyStream = new ByteArrayOutputStream();
+        byte[] bufferArr = new byte[512];
+
+        try (InputStream iStream = exchange.getRequestBody()) {
+            int numBytes;
+            while ((numBytes = iStream.read(bufferArr)) != -1) {
+                bodyStream.write(bufferArr, 0, numBytes);
+
+                if (bodyStream.size() > MAX_BODY_LENGTH) {
+                    sendJson(exchange, 413, errorJson("body too long"));
+                    return null;
+                }
+            }
+        }
+        return new String(bodyStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void sendJson(HttpExchange exchange, int httpStatus, String json) throws IOException {
+        byte[] bodyArr = json.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(httpStatus, bodyArr.length);
+
+        try (OutputStream oStream = exchange.getResponseBody()) {
+            oStream.write(bodyArr);
+        }
+    }
+
+    private static String resultJson(int exitCode, List<String> responseList) {
+        StringBuilder jsonBuilder = new StringBuilder();
+        jsonBuilder.append("{\"exitCode\":").append(exitCode).append(",\"responses\":[");
+
+        if (responseList != null) {
+            for (int i = 0; i < responseList.size(); i++) {
+                if (i > 0) {
+                    jsonBuilder.append(',');
+                }
+                appendJsonString(jsonBuilder, responseList.get(i));
+            }
+        }
+        return jsonBuilder.append("]}").toString();
+    }
+
+    private static String errorJson(String message) {
+        StringBuilder jsonBuilder = new StringBuilder("{\"error\":");
+        appendJsonString(jsonBuilder, message);
+        return jsonBuilder.append('}').toString();
+    }
+
+    private static void appendJsonString(StringBuilder jsonBuilder, String str) {
+        jsonBuilder.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"':
+                    jsonBuilder.append("\\\"");
+                    break;
+                case '\\':
+                    jsonBuilder.append("\\\\");
+                    break;
+                case '\n':
+                    jsonBuilder.append("\\n");
+                    break;
+                case '\r':
+                    jsonBuilder.append("\\r");
+                    break;
+                case '\t':
+                    jsonBuilder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        jsonBuilder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        jsonBuilder.append(c);
+                    }
+            }
+        }
+        jsonBuilder.append('"');
+    }
+}
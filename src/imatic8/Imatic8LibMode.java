@@ -28,6 +28,10 @@
 package imatic8;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiConsumer;
 
 /**
  * Class to use as a library executor of the Imatic8Prog.
@@ -50,15 +54,68 @@ import java.util.ArrayList;
 public class Imatic8LibMode {
 
     /**
-     * Response on a platform will have cr-lf or lf at the end of the line
+     * What a board's command queue does with a command when it is full.
      */
-    private static final String crLf = String.format("\n");
+    public enum QueuePolicy {
+        /** the command fails at once */
+        REJECT,
+        /** the oldest queued command fails and the command is queued */
+        DROP_OLDEST,
+        /** the command is merged into the newest queued command, the command's
+         * relay states winning */
+        COALESCE
+    }
 
     /**
      *
      */
     private String userDirOverride = null;
 
+    /**
+     * Keep board connections alive (pooled) between execute requests.
+     */
+    private boolean keepAlive = false;
+
+    /**
+     * Run the actions of different boards concurrently.
+     */
+    private boolean fanOut = Boolean.getBoolean("imatic8.fanout");
+
+    /**
+     * Store the relay states write-behind.
+     */
+    private boolean writeBehind = Boolean.getBoolean("imatic8.writebehind");
+
+    /**
+     * Send consecutive relay actions for a board as a batch.
+     */
+    private boolean batch = Boolean.getBoolean("imatic8.batch");
+
+    /**
+     * Send consecutive relay actions for a board pipelined.
+     */
+    private boolean pipelined = Boolean.getBoolean("imatic8.pipeline");
+
+    /**
+     * Send only the relay frames that change the state of a board.
+     */
+    private boolean converge = Boolean.getBoolean("imatic8.converge");
+
+    /**
+     * Debounce window of the relay actions for a board.
+     */
+    private long debounceMillis = Long.getLong("imatic8.debounce", 0);
+
+    /**
+     * Send relay actions through the board command queues.
+     */
+    private boolean queued = Boolean.getBoolean("imatic8.queue");
+
+    /**
+     * Run each request on a virtual thread of its own.
+     */
+    private boolean virtualThreads = Boolean.getBoolean("imatic8.virtualthreads");
+
     /**
      * The exitCode that will be returned from the processing.
      */
@@ -80,6 +137,321 @@ public class Imatic8LibMode {
         this.userDirOverride = userDirOverride;
     }
 
+    /**
+     * Set the keep-alive mode where board connections are pooled between
+     * <code>execute</code> requests rather than connect-per-command&#46; A pooled
+     * connection that is idle for longer than the idle period is closed, and a
+     * dropped connection is reconnected transparently.
+     *
+     * @param keepAliveP true to keep board connections alive
+     */
+    public void setKeepAlive(boolean keepAliveP) {
+        this.keepAlive = keepAliveP;
+    }
+
+    /**
+     * Set the time a kept-alive connection may remain idle before it is
+     * closed.
+     *
+     * @param idleMillis milliseconds, less than 1 is the default (30 seconds)
+     */
+    public void setKeepAliveIdleTime(long idleMillis) {
+        Im8ConnectionPool.setIdleEvictMillis(idleMillis);
+    }
+
+    /**
+     * Close all kept-alive board connections&#46; Typically called when the
+     * library user shuts down.
+     */
+    public void closeKeptAliveConnections() {
+        Im8ConnectionPool.closeAll();
+    }
+
+    /**
+     * Set the fan-out mode where the actions for different boards in a request
+     * are run concurrently&#46; Each board's actions still run in the order
+     * given, and a pause (s:N or ms:N) waits for all boards before the
+     * following actions.
+     * <pre>
+     *      b-1 on all b-2 on all b-3 on all      (all boards at the same time)
+     * </pre>
+     *
+     * @param fanOutP true to run boards concurrently
+     */
+    public void setFanOut(boolean fanOutP) {
+        this.fanOut = fanOutP;
+    }
+
+    /**
+     * Set the write-behind mode where relay state changes are coalesced per
+     * board and the board-N INI file is stored once, rather than on every
+     * relay response (as 'on 1 2 3 4' would do)&#46; Changes are stored at the
+     * end of each request, or on the flush interval if one is set, and at JVM
+     * shutdown.
+     *
+     * @param writeBehindP true to store relay states write-behind
+     */
+    public void setWriteBehind(boolean writeBehindP) {
+        this.writeBehind = writeBehindP;
+    }
+
+    /**
+     * Set the batch mode where consecutive relay actions for the same board
+     * are encoded into one buffer and sent with a single write, the responses
+     * being read back together&#46; A group toggle such as 'on 1 2 3 4' is then
+     * one round trip to the board rather than four.
+     *
+     * @param batchP true to send relay actions as a batch
+     */
+    public void setBatch(boolean batchP) {
+        this.batch = batchP;
+    }
+
+    /**
+     * Set the pipelined mode where consecutive relay actions for the same
+     * board are sent with a window of frames outstanding, rather than one
+     * frame per round trip&#46; Responses are matched back to the frames by
+     * relay number and on/off state, and a frame with no response within a
+     * second is sent again (up to 3 attempts)&#46; Pipelined mode is used over
+     * batch mode if both are set.
+     *
+     * @param pipelinedP true to send relay actions pipelined
+     */
+    public void setPipelined(boolean pipelinedP) {
+        this.pipelined = pipelinedP;
+    }
+
+    /**
+     * Set the converge mode where consecutive relay actions for the same board
+     * are compared with the recorded relay states of the board, and only the
+     * frames that change them are sent&#46; No connection is made if the board
+     * is already in the requested state, and an all on/off frame is sent only
+     * when every relay is to be on, or every relay off&#46; Converge mode is
+     * used over the batch and pipelined modes if set.
+     *
+     * @param convergeP true to converge relay actions
+     */
+    public void setConverge(boolean convergeP) {
+        this.converge = convergeP;
+    }
+
+    /**
+     * Set the debounce window where the relay actions for a board that arrive
+     * within the window, from this and any other request, are collapsed into
+     * the final state of each relay (last writer wins)&#46; When the window
+     * ends only the frames that change the recorded relay states are sent, so
+     * intermediate states never go out&#46; A request waits for the end of the
+     * window, and every request of the window shares the outcome&#46; Used over
+     * the converge, batch and pipelined modes if set.
+     *
+     * @param debounceMillisP milliseconds, 0 for no debouncing (default)
+     */
+    public void setDebounceWindow(long debounceMillisP) {
+        this.debounceMillis = Math.max(debounceMillisP, 0);
+    }
+
+    /**
+     * Set the queued mode where the relay actions for a board are commands in
+     * a bounded queue of the board, sent one after another by a single task,
+     * rather than each request waiting on the board&#46; A request still waits
+     * for its command, but a full queue fails or is resolved at once by the
+     * queue policy, so an unresponsive board cannot tie up every caller&#46;
+     * Each command is sent as one batch&#46; The debounce window is used over
+     * the queued mode if both are set.
+     *
+     * @param queuedP true to queue relay actions
+     */
+    public void setQueued(boolean queuedP) {
+        this.queued = queuedP;
+    }
+
+    /**
+     * Set the capacity and full policy of the board command queues, process
+     * wide.
+     *
+     * @param capacity commands queued per board (default 16)
+     * @param policy   what is done with a command when its board's queue is
+     *                 full (default REJECT)
+     */
+    public void setBoardQueue(int capacity, QueuePolicy policy) {
+        Im8BoardQueue.configure(capacity, policy);
+    }
+
+    /**
+     * Set the capacity, full policy and command deadline of the board command
+     * queues, process wide&#46; A command still queued when its deadline
+     * passes fails rather than being sent late (exit-code -86).
+     *
+     * @param capacity       commands queued per board (default 16)
+     * @param policy         what is done with a command when its board's
+     *                       queue is full (default REJECT)
+     * @param deadlineMillis milliseconds a command may wait in the queue
+     *                       (default 10000)
+     */
+    public void setBoardQueue(int capacity, QueuePolicy policy, long deadlineMillis) {
+        Im8BoardQueue.configure(capacity, policy);
+        Im8BoardQueue.setDeadline(deadlineMillis);
+    }
+
+    /**
+     * Get the command queue metrics of the boards, one line per board of the
+     * form
+     * 'Queue:b-2:depth=3:max=16:sent=120:rejected=4:dropped=0:coalesced=0:expired=0'.
+     *
+     * @return metrics lines in board order
+     */
+    public List<String> getBoardQueueMetrics() {
+        return Im8BoardQueue.getMetrics();
+    }
+
+    /**
+     * Get the number of commands queued for a board.
+     *
+     * @param boardNumber board number
+     *
+     * @return queued commands
+     */
+    public int getBoardQueueDepth(int boardNumber) {
+        return Im8BoardQueue.getDepth(boardNumber);
+    }
+
+    /**
+     * Set the circuit breaker of the boards, process wide&#46; A board that
+     * fails the threshold number of times in a row fails fast, without a
+     * connect, until a background probe connects to it&#46; Then one action
+     * is let through as a trial, which closes the breaker or opens it again.
+     *
+     * @param failureThreshold    failures in a row that open a board's breaker
+     *                            (default 3), 0 never opens it
+     * @param probeIntervalMillis milliseconds between probes of a board whose
+     *                            breaker is open (default 5000)
+     */
+    public void setCircuitBreaker(int failureThreshold, long probeIntervalMillis) {
+        Im8BoardHealth.setCircuitBreaker(failureThreshold, probeIntervalMillis);
+    }
+
+    /**
+     * Get the health of the boards, one line per board of the form
+     * 'Health:b-2:state=CLOSED:failures=0:opened=1:fastFailed=6:rttP50=2:rttP99=5
+     * :connectP99=1:connectTimeout=200:responseTimeout=200', times in
+     * milliseconds and -1 before any sample.
+     *
+     * @return health lines in board order
+     */
+    public List<String> getBoardHealth() {
+        return Im8BoardHealth.getStatusLines();
+    }
+
+    /**
+     * Set the number of frames that may be outstanding to a board in pipelined
+     * mode.
+     *
+     * @param windowSize number of frames, less than 1 is the default (4) and
+     *                   at most 16
+     */
+    public void setPipelineWindow(int windowSize) {
+        Im8Pipeline.setWindowSize(windowSize);
+    }
+
+    /**
+     * Set the virtual-thread mode where each <code>executeAsync</code>
+     * request runs from start to end on a virtual thread of its own (Java 21
+     * or later, otherwise a pooled thread)&#46; Blocking board I/O and the
+     * pauses (s:N or ms:N) of a request then park its virtual thread, so tens
+     * of thousands of timed sequences such as 'on 1 s:30 off 1' may be in
+     * flight from one JVM.
+     * <p>
+     * An <code>execute</code> request runs on the calling thread in either
+     * mode, as the caller waits for it; call it from a virtual thread of
+     * your own for the same parking.
+     *
+     * @param virtualThreadsP true to run requests on virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreadsP) {
+        this.virtualThreads = virtualThreadsP;
+    }
+
+    /**
+     * Set the write-behind flush interval, so changes across many requests
+     * are coalesced into one store per board.
+     *
+     * @param flushIntervalMillis milliseconds, 0 to store at the end of each
+     *                            request (default)
+     */
+    public void setWriteBehindFlushInterval(long flushIntervalMillis) {
+        Im8StatePersister.setFlushInterval(flushIntervalMillis);
+    }
+
+    /**
+     * Set if a write-behind store forces the INI file to the storage device
+     * (fsync), for storage where a power loss may lose written data.
+     *
+     * @param fsync true to fsync on each store
+     */
+    public void setWriteBehindFsync(boolean fsync) {
+        Im8StatePersister.setFsyncPolicy(fsync
+                ? Im8StatePersister.FsyncPolicy.ON_FLUSH : Im8StatePersister.FsyncPolicy.NONE);
+    }
+
+    /**
+     * Store any write-behind relay state changes now.
+     *
+     * @return true if all changes were stored
+     */
+    public boolean flushRelayStates() {
+        return Im8StatePersister.flush();
+    }
+
+    /**
+     * Start reconciling the relay states of the boards used by this process
+     * in the background&#46; Relays whose frames had no response are repaired
+     * on the next pass, and every board has all its relay states re-sent on
+     * the reassert interval&#46; The frames sent are limited to a rate so
+     * reconciliation may run continuously across many boards&#46; Replaces any
+     * reconciliation already started.
+     *
+     * @param reassertIntervalMillis milliseconds between re-sending all the
+     *                               relay states of a board, 0 to only repair
+     * @param maxFramesPerSecond     frames that may be sent per second across
+     *                               all boards
+     */
+    public void startReconciliation(long reassertIntervalMillis, int maxFramesPerSecond) {
+        Im8Reconciler.start(reassertIntervalMillis, maxFramesPerSecond);
+    }
+
+    /**
+     * Stop the background reconciliation of relay states.
+     */
+    public void stopReconciliation() {
+        Im8Reconciler.stop();
+    }
+
+    /**
+     * Set the relay states to be kept in a single memory-mapped binary file
+     * (Imatic8Record.bin in the INI file directory) rather than the board-N
+     * INI files&#46; A board's states are taken from its INI file the first
+     * time it is used with the binary file&#46; The setting is process wide and
+     * may also be selected with <code>-Dimatic8.statestore=binary</code>.
+     *
+     * @param binaryStateStore true for the binary file, false for INI files
+     */
+    public void setBinaryStateStore(boolean binaryStateStore) {
+        Im8RelayRecorder.setBinaryStateStore(binaryStateStore);
+    }
+
+    /**
+     * Set the board communication to use the NIO transport, where all board
+     * connections are non-blocking channels multiplexed on a single I/O
+     * thread, instead of a blocking socket per board&#46; The transport is
+     * process wide and may also be selected with
+     * <code>-Dimatic8.transport=nio</code>.
+     *
+     * @param nioTransport true for NIO, false for blocking sockets
+     */
+    public void setNioTransport(boolean nioTransport) {
+        Im8Socket.setTransport(nioTransport ? Im8Socket.Transport.NIO : Im8Socket.Transport.BLOCKING);
+    }
+
     /**
      * Execute the argument (internally parsed) as requests to the Imatic8Prog
      * (as if in command-mode).
@@ -97,36 +469,231 @@ public class Imatic8LibMode {
      * @param argsArr string list of arguments that make requests
      */
     public void execute(String... argsArr) {
+        executeRequest(argsArr, null);
+    }
+
+    /**
+     * Compile the argument (internally parsed) into a program that may be
+     * executed many times with <code>execute(Imatic8Program)</code> or
+     * <code>executeAsync(Imatic8Program)</code>&#46; The arguments are
+     * validated and the boards checked once, here, rather than on every
+     * execute.
+     *
+     * @param argsInOneString string of a line of arguments which will be parsed
+     *
+     * @return the program, or null if there are errors in the arguments (the
+     *         errors are then in <code>getResponses()</code>)
+     */
+    public Imatic8Program compile(String argsInOneString) {
+        return compile(Im8Common.tokenSingleLine(argsInOneString));
+    }
+
+    /**
+     * Compile an arguments list into a program, as per
+     * <code>compile(String)</code>.
+     *
+     * @param argsArr string list of arguments that make requests
+     *
+     * @return the program, or null if there are errors in the arguments (the
+     *         errors are then in <code>getResponses()</code>)
+     */
+    public Imatic8Program compile(String... argsArr) {
+        exitCode = 0;
+        responseArr = null;
+
+        if (argsArr.length > 0 && Im8Common.isNoneActionRequest(argsArr[0].toLowerCase())) {
+            // nothing to compile, the request is processed on each execute
+            return new Imatic8Program(argsArr, null);
+        }
+        Im8Io m8Io = new Im8Io(argsArr);
+        Im8Io.setUserDir(this.userDirOverride);
+
+        List<Im8Action> programList = m8Io.compileAsLib();
+
+        Imatic8LibResult result = Imatic8LibResult.fromIo(m8Io);
+
+        this.exitCode = result.getExitCode();
+        this.responseArr = result.getResponses();
+
+        if (programList == null) {
+            return null;
+        }
+        return new Imatic8Program(argsArr, programList);
+    }
+
+    /**
+     * Execute a compiled program as requests to the Imatic8Prog (as if in
+     * command mode).
+     *
+     * @param program the program from <code>compile</code>
+     */
+    public void execute(Imatic8Program program) {
+        executeRequest(program.getArgsArr(), program.getActionList());
+    }
+
+    /**
+     * Execute the arguments, or the actions of a compiled program.
+     *
+     * @param argsArr     string list of arguments that make requests
+     * @param programList the actions of a compiled program, or null to parse
+     *                    the arguments
+     */
+    private void executeRequest(String[] argsArr, List<Im8Action> programList) {
         exitCode = 0;
         responseArr = null;
 
         //  process the arguments
         Im8Io m8Io = new Im8Io(argsArr);
-        m8Io.setUserDir(this.userDirOverride);
-        
-        m8Io.runAsLib();
+        Im8Io.setUserDir(this.userDirOverride);
+        m8Io.setKeepAlive(this.keepAlive);
+        m8Io.setFanOut(this.fanOut);
+        m8Io.setWriteBehind(this.writeBehind);
+        m8Io.setBatch(this.batch);
+        m8Io.setPipelined(this.pipelined);
+        m8Io.setConverge(this.converge);
+        m8Io.setDebounceMillis(this.debounceMillis);
+        m8Io.setQueued(this.queued);
+
+        runRequest(m8Io, programList);
 
         // store the response away so the user may use them
-        exitCode = m8Io.getExitCode();
+        Imatic8LibResult result = Imatic8LibResult.fromIo(m8Io);
 
-        ArrayList<String> responseFromM8IoArr = m8Io.getReportIntoArray();
+        this.exitCode = result.getExitCode();
+        this.responseArr = result.getResponses();
+    }
 
-        if (responseFromM8IoArr == null) {
-            this.responseArr = null;
-        } else if (responseFromM8IoArr.isEmpty()) {
-            this.responseArr = null;
-        } else {
-            // remove all the end-of-line line-feeds/carriage-returns from the strings
-            this.responseArr = new ArrayList<>();
+    /**
+     * Execute the argument (internally parsed) as requests to the Imatic8Prog
+     * without blocking the calling thread.
+     *
+     * @param argsInOneString string of a line of arguments which will be parsed
+     *
+     * @return future of the exit-code and responses of the request
+     */
+    public CompletableFuture<Imatic8LibResult> executeAsync(String argsInOneString) {
+        return executeAsync(Im8Common.tokenSingleLine(argsInOneString));
+    }
 
-            for (String s : responseFromM8IoArr) {
-                if (s.endsWith(crLf)) {
-                    // remove the crLf (windows cr&lf, *nix lf)
-                    s = s.substring(0, s.lastIndexOf(crLf));
+    /**
+     * Execute an arguments list as requests to the Imatic8Prog without
+     * blocking the calling thread&#46; The requests are queued onto a single
+     * event loop thread, any pause (s:N or ms:N) is scheduled rather than
+     * slept, and the board I/O is done off the loop thread, so many requests
+     * may be in flight at the same time and a slow board does not hold up the
+     * others.
+     * <p>
+     * The exit-code and responses are in the completed
+     * <code>Imatic8LibResult</code> (<code>getExitCode()</code> and
+     * <code>getResponses()</code> of this object are not changed).
+     *
+     * @param argsArr string list of arguments that make requests
+     *
+     * @return future of the exit-code and responses of the request
+     */
+    public CompletableFuture<Imatic8LibResult> executeAsync(String... argsArr) {
+        return executeRequestAsync(argsArr, null);
+    }
+
+    /**
+     * Execute a compiled program as requests to the Imatic8Prog without
+     * blocking the calling thread, as per <code>executeAsync(String...)</code>.
+     *
+     * @param program the program from <code>compile</code>
+     *
+     * @return future of the exit-code and responses of the request
+     */
+    public CompletableFuture<Imatic8LibResult> executeAsync(Imatic8Program program) {
+        return executeRequestAsync(program.getArgsArr(), program.getActionList());
+    }
+
+    /**
+     * Execute the arguments, or the actions of a compiled program, without
+     * blocking the calling thread.
+     *
+     * @param argsArr     string list of arguments that make requests
+     * @param programList the actions of a compiled program, or null to parse
+     *                    the arguments
+     *
+     * @return future of the exit-code and responses of the request
+     */
+    private CompletableFuture<Imatic8LibResult> executeRequestAsync(String[] argsArr,
+            final List<Im8Action> programList) {
+        final CompletableFuture<Imatic8LibResult> resultFuture = new CompletableFuture<>();
+
+        final Im8Io m8Io = new Im8Io(argsArr);
+        m8Io.setKeepAlive(this.keepAlive);
+        m8Io.setFanOut(this.fanOut);
+        m8Io.setWriteBehind(this.writeBehind);
+        m8Io.setBatch(this.batch);
+        m8Io.setPipelined(this.pipelined);
+        m8Io.setConverge(this.converge);
+        m8Io.setDebounceMillis(this.debounceMillis);
+        m8Io.setQueued(this.queued);
 
-                    this.responseArr.add(s);
+        final String userDirL = this.userDirOverride;
+
+        if (this.virtualThreads) {
+            // the request has a thread of its own, so pauses are slept
+            Im8VirtualThreads.get().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Im8Io.setUserDir(userDirL);
+                        runRequest(m8Io, programList);
+
+                        resultFuture.complete(Imatic8LibResult.fromIo(m8Io));
+
+                    } catch (RuntimeException ex) {
+                        resultFuture.completeExceptionally(ex);
+                    }
+                }
+            });
+            return resultFuture;
+        }
+        final ScheduledExecutorService eventLoop = Im8EventLoop.get();
+
+        eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Im8Io.setUserDir(userDirL);
+
+                    CompletableFuture<Void> requestFuture = programList == null
+                            ? m8Io.runAsLibAsync(eventLoop)
+                            : m8Io.runProgramAsLibAsync(programList, eventLoop);
+
+                    requestFuture.whenComplete(new BiConsumer<Void, Throwable>() {
+                        @Override
+                        public void accept(Void nothing, Throwable ex) {
+                            if (ex != null) {
+                                resultFuture.completeExceptionally(ex);
+                            } else {
+                                resultFuture.complete(Imatic8LibResult.fromIo(m8Io));
+                            }
+                        }
+                    });
+                } catch (RuntimeException ex) {
+                    resultFuture.completeExceptionally(ex);
                 }
             }
+        });
+        return resultFuture;
+    }
+
+    /**
+     * Run the arguments, or the actions of a compiled program, on the calling
+     * thread.
+     *
+     * @param m8Io        the IO object of the request
+     * @param programList the actions of a compiled program, or null to parse
+     *                    the arguments
+     */
+    private static void runRequest(Im8Io m8Io, List<Im8Action> programList) {
+        if (programList == null) {
+            m8Io.runAsLib();
+        } else {
+            m8Io.runProgramAsLib(programList);
         }
     }
 
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.util.ArrayList;
+
+/**
+ * Class that holds the outcome of an <code>Imatic8LibMode.executeAsync</code>
+ * request: the exit-code and any responses.
+ * <pre>
+ *      Imatic8LibMode libObject = new Imatic8LibMode();
+ *      libObject.executeAsync("on 1 s:30 off 1").thenAccept(result -&gt; {
+ *          if (result.getExitCode() &lt; 0) {
+ *              // process result.getResponses() error messages
+ *          }
+ *      });
+ * </pre>
+ *
+ * @author dbradley
+ */
+public class Imatic8LibResult {
+
+    /**
+     * Response on a platform will have cr-lf or lf at the end of the line
+     */
+    private static final String crLf = String.format("\n");
+
+    private final int exitCode;
+
+    private final ArrayList<String> responseArr;
+
+    private Imatic8LibResult(int exitCodeP, ArrayList<String> responseArrP) {
+        this.exitCode = exitCodeP;
+        this.responseArr = responseArrP;
+    }
+
+    /**
+     * Create the result from the exit-code and reports of a processed request.
+     *
+     * @param m8Io the IO object that processed the request
+     *
+     * @return result object
+     */
+    static Imatic8LibResult fromIo(Im8Io m8Io) {
+        ArrayList<String> responseFromM8IoArr = m8Io.getReportIntoArray();
+
+        if (responseFromM8IoArr == null || responseFromM8IoArr.isEmpty()) {
+            return new Imatic8LibResult(m8Io.getExitCode(), null);
+        }
+        // remove all the end-of-line line-feeds/carriage-returns from the strings
+        ArrayList<String> responseArrL = new ArrayList<>();
+
+        for (String s : responseFromM8IoArr) {
+            if (s.endsWith(crLf)) {
+                // remove the crLf (windows cr&lf, *nix lf)
+                s = s.substring(0, s.lastIndexOf(crLf));
+            }
+            responseArrL.add(s);
+        }
+        return new Imatic8LibResult(m8Io.getExitCode(), responseArrL);
+    }
+
+    /**
+     * Get the exit-code of the request&#46; Zero 0 or positive is a successful
+     * execution, while less than 0 (&lt;0) an error was detected.
+     *
+     * @return integer of the exit code
+     */
+    public int getExitCode() {
+        return this.exitCode;
+    }
+
+    /**
+     * Get an array list of strings that are any responses.
+     *
+     * @return array list of string(s), or null if no response stored
+     */
+    public ArrayList<String> getResponses() {
+        return this.responseArr;
+    }
+}
@@ -248,6 +248,15 @@ public class Imatic8Prog {
         if (args.length == 0) {
             // interactive mode
             Im8ModeInteractive.processInteractiveMode();
+        } else if (args[0].equalsIgnoreCase("daemon")) {
+            // long-running mode with a control socket
+            Im8ModeDaemon.processDaemonMode(args);
+        } else if (args[0].equalsIgnoreCase("client")) {
+            // forward to the daemon
+            Im8ModeDaemon.processClientMode(args);
+        } else if (args[0].equalsIgnoreCase("http")) {
+            // long-running mode with an HTTP/JSON server
+            Imatic8HttpServer.processHttpMode(args);
         } else {
             // command line mode
             Im8ModeCmdLine.processCmdLineMode(args);
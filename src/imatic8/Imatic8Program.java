@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017 dbradley.
+ *
+ * License: Imatic8Prog
+ *
+ * Free to use software and associated documentation (the "Software")
+ * without charge.
+ *
+ * Distribution, merge into other programs, copy of the software is
+ * permitted with the following a) to c) conditions:
+ *
+ * a) Software is provided as-is and without warranty of any kind. The user is
+ * responsible to ensure the "software" fits their needs. In no event shall the
+ * author(s) or copyholder be liable for any claim, damages or other liability
+ * in connection with the "Software".
+ *
+ * b) Permission is hereby granted to modify the "Software" with two sub-conditions:
+ *
+ * b.1) A 'Copyright (c) <year> <copyright-holder>.' is added above the original
+ * copyright line(s).
+ *
+ * b.2) The Main class name is changed to identify a different "program" name
+ * from the original.
+ *
+ * c) The above copyright notice and this permission/license notice shall
+ * be included in all copies or substantial portions of the Software.
+ */
+package imatic8;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class that holds a request compiled by <code>Imatic8LibMode.compile</code>:
+ * the arguments validated into actions, with the frames for the relay actions
+ * already encoded&#46; The program may be executed many times, from any
+ * thread, without the arguments being parsed again.
+ * <pre>
+ *      Imatic8LibMode libObject = new Imatic8LibMode();
+ *      Imatic8Program evening = libObject.compile("b-1 on 1 2 3 b-2 off all");
+ *
+ *      if (evening != null) {
+ *          libObject.execute(evening);
+ *      }
+ * </pre> A help, license or define IP request is kept as its arguments, and
+ * processed on each execute.
+ *
+ * @author dbradley
+ */
+public final class Imatic8Program {
+
+    private final String[] argsArr;
+
+    /**
+     * The validated actions, or null for a help, license or define IP request.
+     */
+    private final List<Im8Action> actionList;
+
+    Imatic8Program(String[] argsArrP, List<Im8Action> actionListP) {
+        this.argsArr = argsArrP.clone();
+        this.actionList = actionListP == null ? null : Collections.unmodifiableList(actionListP);
+    }
+
+    /**
+     * Get the arguments the program was compiled from.
+     *
+     * @return string array of the arguments
+     */
+    public String[] getArgs() {
+        return this.argsArr.clone();
+    }
+
+    final String[] getArgsArr() {
+        return this.argsArr;
+    }
+
+    final List<Im8Action> getActionList() {
+        return this.actionList;
+    }
+}
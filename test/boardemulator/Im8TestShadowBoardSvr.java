@@ -9,7 +9,13 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,6 +23,11 @@ import java.util.logging.Logger;
  * Class used as an emulation of an Imatic8 board for testing purposes&#46; The
  * class acts as a server on the network (local host) in the same manner as a
  * board is a server on the network.
+ * <p>
+ * Each connection is served on its own thread, and every relay frame on it is
+ * answered in order, so kept-alive and pipelined connections are emulated as
+ * well as the one-frame connections&#46; The relay states, the frames and the
+ * connections are counted for the test-cases to check.</p>
  *
  * @author dbradley
  */
@@ -70,16 +81,35 @@ public class Im8TestShadowBoardSvr {
     private Runnable runableSvr = null;
     private Thread boardSvrThreadAsEmulator = null;
 
-    private boolean testNoResponseToOnOrOff;
+    private volatile boolean testNoResponseToOnOrOff;
 
-    private boolean testBadResponse;
+    private volatile boolean testBadResponse;
     private final static byte[] badResponseBytes = new byte[]{10, 3, 5, 27};
 
-    private int testAlteredRelayNumber = -1;
+    private volatile int testAlteredRelayNumber = -1;
 
-    private int testAlternateOnOffValue = -1;
+    private volatile int testAlternateOnOffValue = -1;
 
-    private int testTimeoutOfResponse = -1;
+    private volatile int testTimeoutOfResponse = -1;
+
+    // conditions that stay until changed by the test-case
+    private volatile int testResponseDelay = 0;
+
+    private final AtomicInteger testDropResponseCount = new AtomicInteger();
+
+    // what the emulator has seen, for the test-case to check
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final AtomicInteger frameCount = new AtomicInteger();
+
+    private final List<String> frameLogList = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile int relayMask = 0;
+
+    private final Set<Socket> clientSocketSet
+            = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    private final static int FRAME_BYTE_COUNT = 6;
 
     private final static int endMsgByteCount = 20;
 
@@ -166,7 +196,13 @@ public class Im8TestShadowBoardSvr {
         }
         brdSrver = mapForShadowServer.get(realBoardIpKey);
 
-        brdSrver.startServer();
+        if (brdSrver.svrSocket.isClosed()) {
+            // ended by an earlier test-case, so a new server socket is needed
+            brdSrver.testRestartServer(0);
+
+        } else if (brdSrver.boardSvrThreadAsEmulator == null) {
+            brdSrver.startServer();
+        }
 
         return brdSrver;
     }
@@ -217,34 +253,24 @@ public class Im8TestShadowBoardSvr {
                 this.svrSocket.getLocalPort(),
                 this.shadowIpKey);
 
+        // a restart replaces the server socket, so each connection ends the
+        // server socket that accepted it
+        final ServerSocket acceptSvrSocket = this.svrSocket;
         try {
-            // wait on a message for ever
-
+            // wait on a connection for ever, each is served on its own thread
             while (true) {
-                Socket clientSocket = this.svrSocket.accept();
-
-                // each message coming in requires different actions:
-                // 1) respond right away
-                // 2) go into a wait-on state on the client
-                DataOutputStream toClient
-                        = new DataOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
-                DataInputStream fromClient
-                        = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
-
-                byte[] bytesArr = new byte[1024];
-                int bytesRead = fromClient.read(bytesArr);
-
-                if (processsEndServer(bytesArr, bytesRead)) {
-                    toClient.close();
-                    this.svrSocket.close();
-
-                    return;
-                }
-                // 
-                byte[] response = performAction(bytesArr, bytesRead);
-
-                toClient.write(response);
-                toClient.flush();
+                final Socket clientSocket = acceptSvrSocket.accept();
+                this.connectionCount.incrementAndGet();
+                this.clientSocketSet.add(clientSocket);
+
+                Thread clientThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serveClient(acceptSvrSocket, clientSocket);
+                    }
+                });
+                clientThread.setDaemon(true);
+                clientThread.start();
             }
         } catch (IOException e) {
             String reason = e.getMessage();
@@ -271,6 +297,176 @@ public class Im8TestShadowBoardSvr {
         }
     }
 
+    /**
+     * Serve the frames of a connection until it is closed by the client, or
+     * the end message is received&#46; The frames may arrive together or split
+     * over reads, and each is answered in order.
+     *
+     * @param acceptSvrSocket the server socket that accepted the connection
+     * @param clientSocket    the client connection
+     */
+    private void serveClient(ServerSocket acceptSvrSocket, Socket clientSocket) {
+        try (Socket socket = clientSocket) {
+            DataOutputStream toClient
+                    = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream fromClient
+                    = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            byte[] bytesArr = new byte[1024];
+            int bytesHeld = 0;
+
+            while (true) {
+                int bytesRead = fromClient.read(bytesArr, bytesHeld, bytesArr.length - bytesHeld);
+                if (bytesRead < 0) {
+                    return;
+                }
+                bytesHeld += bytesRead;
+
+                if (processsEndServer(bytesArr, bytesHeld)) {
+                    endAllConnections(acceptSvrSocket);
+                    return;
+                }
+                if (bytesHeld > 0 && bytesArr[0] == (byte) 0xEF) {
+                    // the rest of the end message is still to come
+                    continue;
+                }
+                int frameStart = 0;
+                while (bytesHeld - frameStart >= FRAME_BYTE_COUNT) {
+                    byte[] frameArr = new byte[FRAME_BYTE_COUNT];
+                    System.arraycopy(bytesArr, frameStart, frameArr, 0, FRAME_BYTE_COUNT);
+                    frameStart += FRAME_BYTE_COUNT;
+
+                    byte[] response = performAction(frameArr, FRAME_BYTE_COUNT);
+                    if (response == null) {
+                        // not a board frame, so the connection is dropped
+                        return;
+                    }
+                    if (this.testResponseDelay > 0) {
+                        Thread.sleep(this.testResponseDelay);
+                    }
+                    if (takeDropResponse()) {
+                        continue;
+                    }
+                    toClient.write(response);
+                }
+                toClient.flush();
+
+                // keep any part frame for the next read
+                System.arraycopy(bytesArr, frameStart, bytesArr, 0, bytesHeld - frameStart);
+                bytesHeld -= frameStart;
+            }
+        } catch (IOException | RuntimeException | InterruptedException ex) {
+            // the client has gone or sent an invalid frame
+        } finally {
+            this.clientSocketSet.remove(clientSocket);
+        }
+    }
+
+    /**
+     * Take one of the responses to drop, if any are left to drop.
+     *
+     * @return true if the response is to be dropped
+     */
+    private boolean takeDropResponse() {
+        while (true) {
+            int dropCount = this.testDropResponseCount.get();
+            if (dropCount <= 0) {
+                return false;
+            }
+            if (this.testDropResponseCount.compareAndSet(dropCount, dropCount - 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * End the server and close every connection it is serving.
+     *
+     * @param acceptSvrSocket the server socket to close
+     *
+     * @throws IOException unable to close the server socket
+     */
+    private void endAllConnections(ServerSocket acceptSvrSocket) throws IOException {
+        acceptSvrSocket.close();
+
+        for (Socket socket : this.clientSocketSet) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * Get the number of connections accepted since the counters were reset.
+     *
+     * @return integer count of connections
+     */
+    public int getConnectionCount() {
+        return this.connectionCount.get();
+    }
+
+    /**
+     * Get the number of relay frames received since the counters were reset.
+     *
+     * @return integer count of frames
+     */
+    public int getFrameCount() {
+        return this.frameCount.get();
+    }
+
+    /**
+     * Get the frames received since the counters were reset, each as
+     * 'relay-N:on|off', or 'all:on|off' for an all relay frame.
+     *
+     * @return list of the frames in order received
+     */
+    public List<String> getFrameLog() {
+        synchronized (this.frameLogList) {
+            return new ArrayList<>(this.frameLogList);
+        }
+    }
+
+    /**
+     * Get the relay states of the emulated board, bit 0 is relay 1.
+     *
+     * @return integer mask of relays that are on
+     */
+    public int getRelayMask() {
+        return this.relayMask;
+    }
+
+    /**
+     * Reset the connection and frame counters and the frame log, the relay
+     * states are kept.
+     */
+    public void resetCounters() {
+        this.connectionCount.set(0);
+        this.frameCount.set(0);
+        this.frameLogList.clear();
+    }
+
+    /**
+     * Test response delay before each frame response, kept until changed.
+     *
+     * @param responseDelay integer milliseconds, 0 for no delay
+     */
+    public void testResponseDelay(int responseDelay) {
+
+        this.testResponseDelay = responseDelay;
+    }
+
+    /**
+     * Test no response for the next N frames, the frames are still actioned.
+     *
+     * @param dropResponseCount integer number of responses to drop
+     */
+    public void testDropResponses(int dropResponseCount) {
+
+        this.testDropResponseCount.set(dropResponseCount);
+    }
+
     /**
      * Test end the server as if there is no board.
      *
@@ -293,6 +489,14 @@ public class Im8TestShadowBoardSvr {
             DataOutputStream toSvrData = new DataOutputStream(endSocketClient.getOutputStream());
             toSvrData.write(endMessageArr);
 
+            // the server has ended once it closes this connection too
+            try {
+                endSocketClient.getInputStream().read();
+            } catch (IOException ex) {
+                // closed or timed out, either way the end is done
+            }
+            endSocketClient.close();
+
         } catch (IOException ex) {
             Logger.getLogger(Im8TestShadowBoardSvr.class.getName()).log(Level.SEVERE, null, ex);
             return;
@@ -361,7 +565,7 @@ public class Im8TestShadowBoardSvr {
      */
     public void testTimeout(int timeoutOfResponse) {
 
-        this.testTimeoutOfResponse = testTimeoutOfResponse;
+        this.testTimeoutOfResponse = timeoutOfResponse;
     }
 
     /**
@@ -387,7 +591,7 @@ public class Im8TestShadowBoardSvr {
         return true;
     }
 
-    private byte[] performAction(byte[] byteArrIn, int bytesRead) {
+    private synchronized byte[] performAction(byte[] byteArrIn, int bytesRead) {
         byte[] outBytesArr;
 
         if (byteArrIn[0] == (byte) 0xfd) {
@@ -476,6 +680,19 @@ public class Im8TestShadowBoardSvr {
                     String.format("Invalid relay-N action provided from client to board:%s", relayAction));
 
         }
+        // the frame is actioned on the emulated relays
+        if (relayN == ((int) RELAY_ALL_NUMBER & 0xff)) {
+            this.relayMask = relayAction == RELAY_ALL_ON_CODE ? 0xff : 0;
+            this.frameLogList.add(relayAction == RELAY_ALL_ON_CODE ? "all:on" : "all:off");
+        } else {
+            int relayBit = 1 << (relayN - 1);
+            this.relayMask = relayAction == RELAY_ON_CODE
+                    ? this.relayMask | relayBit : this.relayMask & ~relayBit;
+            this.frameLogList.add(String.format("%d:%s", relayN,
+                    relayAction == RELAY_ON_CODE ? "on" : "off"));
+        }
+        this.frameCount.incrementAndGet();
+
         // need to construct the response to send back for a successful action
         int[] bytePatternResponse = new int[]{0, 3, 4, 5};
 
@@ -63,7 +63,18 @@ public class Im8TestSocket extends Socket {
         // get a shadow board controller by translating a real-boardN-IpAddr to
         // a localhost:localport value and using the shadow server as the 
         // connect endPoint.
-        InetSocketAddress epoint = (InetSocketAddress) endpoint;
+        super.connect(shadowAddress((InetSocketAddress) endpoint), timeout);
+    }
+
+    /**
+     * Translate the IP address:port of a real board to the address of its
+     * test-shadow-board-server, also used for the NIO transport connects.
+     *
+     * @param epoint the real board address
+     *
+     * @return the shadow-board-server address
+     */
+    public static InetSocketAddress shadowAddress(InetSocketAddress epoint) {
         String addressStr = epoint.getAddress().getHostAddress();
         int portInt = epoint.getPort();
 
@@ -86,7 +97,7 @@ public class Im8TestSocket extends Socket {
         // System.err.printf("IP shadow connect request: %s\n", brdAddrToShadow);
         // debug:       
         // System.err.printf("Shadow too: %s\n", sckAddr.getAddress());
-        super.connect(sckAddr, timeout);
+        return sckAddr;
     }
 
     /**
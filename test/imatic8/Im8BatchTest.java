@@ -0,0 +1,70 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Batch mode: a run of relay actions for a board sent in one write on one
+ * connection, and a missing response reported.
+ *
+ * @author dbradley
+ */
+public class Im8BatchTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board5Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board5Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.15", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.board5Svr.testDropResponses(0);
+        this.board5Svr.testEndServer(0);
+    }
+
+    @Test
+    public void defineBoard5() {
+        this.libObject = new Imatic8LibMode();
+        this.libObject.setBatch(true);
+
+        this.libObject.execute("defip-5", "192.168.1.15");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(5).isFile(), "NOT present issue, b-5 INI");
+    }
+
+    @Test(dependsOnMethods = "defineBoard5")
+    public void runSentAsOneBatch() {
+        this.board5Svr.resetCounters();
+
+        this.libObject.execute("b-5", "on", "1", "2", "3", "4", "off", "2", "status");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-5:1-34----");
+
+        assertEquals(this.board5Svr.getConnectionCount(), 1);
+        assertEquals(this.board5Svr.getFrameLog().toString(), "[1:on, 2:on, 3:on, 4:on, 2:off]");
+        assertEquals(this.board5Svr.getRelayMask() & 0x0F, 0x0D);
+    }
+
+    @Test(dependsOnMethods = "runSentAsOneBatch")
+    public void missingResponseReported() {
+        this.board5Svr.testDropResponses(1);
+
+        this.libObject.execute("b-5", "off", "1", "3", "status");
+        assertTrue(this.libObject.getExitCode() < 0, "exit code: " + this.libObject.getExitCode());
+
+        // the relay with a response is recorded, relay 1 had none so its
+        // recorded state is not changed
+        this.board5Svr.testDropResponses(0);
+        this.libObject.execute("b-5", "status");
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-5:1--4----");
+    }
+}
@@ -0,0 +1,153 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * The binary state store: states and address taken from the INI file on first
+ * use, a state change is a byte in the board's record, a write-behind flush
+ * with fsync forces the store, and a board defined with the store has its
+ * record only, its address served from the record.
+ *
+ * @author dbradley
+ */
+public class Im8BinaryStateStoreTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board4Svr;
+
+    private Imatic8LibMode libObject;
+
+    private File stateFile;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board4Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.14", 30000);
+
+        // a clean slate, the records are taken from the INI files
+        this.stateFile = new File(Im8Io.getUserDir(), Im8BinaryStateStore.STATE_FILE_NAME);
+        this.stateFile.delete();
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.libObject.setBinaryStateStore(false);
+        this.libObject.setWriteBehindFsync(false);
+        this.board4Svr.testEndServer(0);
+    }
+
+    /**
+     * Get the record of a board from the binary state file.
+     */
+    private byte[] readBoardRecord(int boardN) throws IOException {
+        byte[] recordArr = new byte[8];
+        try (RandomAccessFile raFile = new RandomAccessFile(this.stateFile, "r")) {
+            raFile.seek(boardN * 8);
+            raFile.readFully(recordArr);
+        }
+        return recordArr;
+    }
+
+    private byte[] readBoard4Record() throws IOException {
+        return readBoardRecord(4);
+    }
+
+    /**
+     * Assert a record holds the emulator's address, 192.168.1.14:30000.
+     */
+    private static void assertEmulatorAddress(byte[] recordArr) {
+        assertEquals(recordArr[1] & 0xff, 192);
+        assertEquals(recordArr[2] & 0xff, 168);
+        assertEquals(recordArr[3] & 0xff, 1);
+        assertEquals(recordArr[4] & 0xff, 14);
+        assertEquals(((recordArr[5] & 0xff) << 8) | (recordArr[6] & 0xff), 30000);
+    }
+
+    @Test
+    public void defineBoard4() throws IOException {
+        this.libObject = new Imatic8LibMode();
+
+        this.libObject.execute("defip-4", "192.168.1.14");
+        File iniFile = Im8BoardIniTest.getBoardIniFile4Test(4);
+        assertTrue(iniFile.isFile(), "NOT present issue, b-4 INI");
+
+        // relay 8 is on as per the INI file
+        Properties iniProps = new Properties();
+        try (FileInputStream iStream = new FileInputStream(iniFile)) {
+            iniProps.load(iStream);
+        }
+        iniProps.setProperty("R8", "on");
+        try (FileOutputStream oStream = new FileOutputStream(iniFile)) {
+            iniProps.store(oStream, null);
+        }
+        this.libObject.setBinaryStateStore(true);
+    }
+
+    @Test(dependsOnMethods = "defineBoard4")
+    public void statesInBoardRecord() throws IOException {
+        this.libObject.execute("b-4", "on", "1", "2", "status");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-4:12-----8");
+
+        byte[] recordArr = readBoard4Record();
+        assertEquals(recordArr[0], (byte) 0x83);
+        // the address is taken on from the INI file too
+        assertEmulatorAddress(recordArr);
+        assertEquals(recordArr[7], 3);
+    }
+
+    @Test(dependsOnMethods = "statesInBoardRecord")
+    public void writeBehindFlushForcesStore() throws IOException {
+        this.libObject.setWriteBehind(true);
+        this.libObject.setWriteBehindFsync(true);
+
+        this.libObject.execute("b-4", "off", "8");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        assertTrue(this.libObject.flushRelayStates());
+        assertEquals(readBoard4Record()[0], (byte) 0x03);
+    }
+
+    @Test(dependsOnMethods = "writeBehindFlushForcesStore")
+    public void defineInRecordOnly() throws IOException {
+        this.libObject.setWriteBehind(false);
+        this.libObject.setWriteBehindFsync(false);
+        this.board4Svr.resetCounters();
+
+        // a second board number for the same emulator
+        this.libObject.execute("defip-14", "192.168.1.14");
+        assertFalse(Im8BoardIniTest.getBoardIniFile4Test(14).isFile(), "b-14 INI made");
+
+        byte[] recordArr = readBoardRecord(14);
+        assertEmulatorAddress(recordArr);
+        assertEquals(recordArr[0], 0);
+        assertEquals(recordArr[7], 3);
+
+        // sent to the address in the record, still with no INI file
+        this.libObject.execute("b-14", "on", "5", "status");
+        assertEquals(this.libObject.getExitCode(), 0, "" + this.libObject.getResponses());
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-14:----5---");
+        assertEquals(this.board4Svr.getFrameLog().toString(), "[5:on]");
+        assertFalse(Im8BoardIniTest.getBoardIniFile4Test(14).isFile(), "b-14 INI made");
+        assertEquals(readBoardRecord(14)[0], 0x10);
+
+        this.libObject.execute("defip-14", "192.168.1.14");
+        assertEquals(this.libObject.getExitCode(), -1);
+
+        this.libObject.execute("defip");
+        assertTrue(this.libObject.getResponses().toString().contains("b-14 : 192.168.1.14:30000"),
+                "responses: " + this.libObject.getResponses());
+    }
+}
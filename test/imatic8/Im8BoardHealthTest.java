@@ -0,0 +1,186 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Board health: the breaker opens after failures in a row, fails fast while
+ * open, half opens once a probe connects and then lets one action through as
+ * the trial, which closes the breaker or opens it again; and a pipelined send
+ * records the health of the board.
+ *
+ * @author dbradley
+ */
+public class Im8BoardHealthTest extends LibTestClass {
+
+    private static final int FAILURE_THRESHOLD = 3;
+
+    private static final long PROBE_INTERVAL = 200;
+
+    private Im8TestShadowBoardSvr board9Svr;
+
+    private Imatic8LibMode libObject;
+
+    private Im8BoardHealth health;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board9Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.19", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        Im8BoardHealth.setCircuitBreaker(FAILURE_THRESHOLD, 5000);
+        closeBreaker(9);
+        this.board9Svr.testDropResponses(0);
+        this.board9Svr.testEndServer(0);
+    }
+
+    /**
+     * Close the breaker of a loaded board&#46; The board objects last for the
+     * test run, so a board an earlier test class took down may still have its
+     * breaker open when its emulator is started again.
+     *
+     * @param boardN board number
+     */
+    static void closeBreaker(int boardN) {
+        Im8BoardController boardCtrl = getLoadedBoard(boardN);
+        if (boardCtrl != null) {
+            boardCtrl.getHealth().reset();
+        }
+    }
+
+    private static Im8BoardController getLoadedBoard(int boardN) {
+        for (Im8BoardController boardCtrl : Im8BoardController.getLoadedBoards()) {
+            if (boardCtrl.getBoardNumber() == boardN) {
+                return boardCtrl;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wait for a probe to connect to the board and half open the breaker.
+     */
+    private void waitForHalfOpen() throws InterruptedException {
+        for (int i = 0; i < 100 && this.health.getState() == Im8BoardHealth.BreakerState.OPEN; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(this.health.getState(), Im8BoardHealth.BreakerState.HALF_OPEN);
+    }
+
+    private void openBreaker() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            this.health.recordFailure();
+        }
+        assertEquals(this.health.getState(), Im8BoardHealth.BreakerState.OPEN);
+    }
+
+    @Test
+    public void defineBoard9() {
+        this.libObject = new Imatic8LibMode();
+
+        this.libObject.execute("defip-9", "192.168.1.19");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(9).isFile(), "NOT present issue, b-9 INI");
+
+        // the emulator may hold relay states from an earlier test class
+        this.libObject.execute("b-9", "off", "all");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        Im8BoardController boardCtrl = getLoadedBoard(9);
+        assertNotNull(boardCtrl, "b-9 not loaded");
+        this.health = boardCtrl.getHealth();
+
+        this.libObject.setCircuitBreaker(FAILURE_THRESHOLD, PROBE_INTERVAL);
+        this.health.reset();
+    }
+
+    @Test(dependsOnMethods = "defineBoard9")
+    public void failuresInARowOpenTheBreaker() {
+        this.health.recordFailure();
+        this.health.recordFailure();
+        // a success ends the run of failures
+        this.health.recordSuccess(1000000);
+        this.health.recordFailure();
+        this.health.recordFailure();
+        assertEquals(this.health.getState(), Im8BoardHealth.BreakerState.CLOSED);
+        assertTrue(this.health.allowRequest());
+
+        this.health.recordFailure();
+        assertEquals(this.health.getState(), Im8BoardHealth.BreakerState.OPEN);
+        assertFalse(this.health.allowRequest());
+    }
+
+    @Test(dependsOnMethods = "failuresInARowOpenTheBreaker")
+    public void openBreakerFailsFast() {
+        this.board9Svr.resetCounters();
+
+        this.libObject.execute("b-9", "on", "1");
+        assertEquals(this.libObject.getExitCode(), -99);
+        assertTrue(this.libObject.getResponses().get(0).contains("circuit open"),
+                "responses: " + this.libObject.getResponses());
+        assertEquals(this.board9Svr.getConnectionCount(), 0);
+    }
+
+    @Test(dependsOnMethods = "openBreakerFailsFast")
+    public void halfOpenLetsOneTrialThrough() throws InterruptedException {
+        waitForHalfOpen();
+
+        assertTrue(this.health.allowRequest());
+        // the other callers fail fast until the trial has its outcome
+        assertFalse(this.health.allowRequest());
+        assertFalse(this.health.allowRequest());
+        assertEquals(this.health.getState(), Im8BoardHealth.BreakerState.HALF_OPEN);
+    }
+
+    @Test(dependsOnMethods = "halfOpenLetsOneTrialThrough")
+    public void failedTrialOpensAgain() {
+        // one failure of the trial opens the breaker, not the threshold
+        this.health.recordFailure();
+        assertEquals(this.health.getState(), Im8BoardHealth.BreakerState.OPEN);
+        assertFalse(this.health.allowRequest());
+    }
+
+    @Test(dependsOnMethods = "failedTrialOpensAgain")
+    public void successfulTrialCloses() throws InterruptedException {
+        waitForHalfOpen();
+
+        this.libObject.execute("b-9", "on", "1");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.health.getState(), Im8BoardHealth.BreakerState.CLOSED);
+        assertEquals(this.board9Svr.getRelayMask(), 0x01);
+
+        // closed, so every caller is let through again
+        assertTrue(this.health.allowRequest());
+        assertTrue(this.health.allowRequest());
+    }
+
+    @Test(dependsOnMethods = "successfulTrialCloses")
+    public void pipelinedSendRecordsHealth() {
+        this.libObject.setPipelined(true);
+        try {
+            this.health.reset();
+
+            this.libObject.execute("b-9", "on", "2", "3");
+            assertEquals(this.libObject.getExitCode(), 0);
+            assertFalse(this.health.getStatusLine().contains("rttP50=-1"), this.health.getStatusLine());
+
+            // no response to any attempt of the frame
+            this.board9Svr.testDropResponses(Im8Pipeline.MAX_FRAME_ATTEMPTS);
+            this.libObject.execute("b-9", "on", "4");
+            assertTrue(this.libObject.getExitCode() < 0, "exit code: " + this.libObject.getExitCode());
+            assertTrue(this.health.getStatusLine().contains(":failures=1:"), this.health.getStatusLine());
+        } finally {
+            this.libObject.setPipelined(false);
+            this.board9Svr.testDropResponses(0);
+        }
+    }
+}
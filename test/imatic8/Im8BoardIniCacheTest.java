@@ -0,0 +1,129 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * The process wide INI cache: parsed once, parsed again when the file is
+ * changed outside the program, and readers never see a reload part done.
+ *
+ * @author dbradley
+ */
+public class Im8BoardIniCacheTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board3Svr;
+
+    private Imatic8LibMode libObject;
+
+    private Im8Io m8Io;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board3Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.13", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.board3Svr.testEndServer(0);
+    }
+
+    /**
+     * Change a relay state in the board-3 INI file as another program would.
+     */
+    private static void changeIniOutside(String relayKey, String state, String comment) throws IOException {
+        File iniFile = Im8BoardIniTest.getBoardIniFile4Test(3);
+
+        Properties iniProps = new Properties();
+        try (FileInputStream iStream = new FileInputStream(iniFile)) {
+            iniProps.load(iStream);
+        }
+        iniProps.setProperty(relayKey, state);
+        try (FileOutputStream oStream = new FileOutputStream(iniFile)) {
+            iniProps.store(oStream, comment);
+        }
+    }
+
+    @Test
+    public void defineBoard3() {
+        this.libObject = new Imatic8LibMode();
+        this.m8Io = new Im8Io("status");
+
+        this.libObject.execute("defip-3", "192.168.1.13");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(3).isFile(), "NOT present issue, b-3 INI");
+    }
+
+    @Test(dependsOnMethods = "defineBoard3")
+    public void parsedOnceWhileUnchanged() {
+        Im8BoardIni boardIni = Im8BoardIni.getCachedBoardIni(this.m8Io, 3);
+
+        assertTrue(boardIni.loadProperties(this.m8Io));
+        int loadCount = boardIni.getLoadCount();
+
+        this.libObject.execute("b-3", "status");
+        this.libObject.execute("b-3", "status");
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-3:--------");
+
+        assertTrue(Im8BoardIni.getCachedBoardIni(this.m8Io, 3) == boardIni, "cache not shared");
+        assertEquals(boardIni.getLoadCount(), loadCount);
+    }
+
+    @Test(dependsOnMethods = "parsedOnceWhileUnchanged")
+    public void reloadedWhenChangedOutside() throws IOException {
+        Im8BoardIni boardIni = Im8BoardIni.getCachedBoardIni(this.m8Io, 3);
+        int loadCount = boardIni.getLoadCount();
+
+        changeIniOutside("R5", "on", "changed outside the program");
+
+        // picked up when the board is next acted on
+        this.libObject.execute("b-3", "on", "1", "status");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-3:1---5---");
+        assertEquals(boardIni.getLoadCount(), loadCount + 1);
+    }
+
+    @Test(dependsOnMethods = "reloadedWhenChangedOutside")
+    public void readersNeverSeePartLoad() throws Exception {
+        final Im8BoardIni boardIni = Im8BoardIni.getCachedBoardIni(this.m8Io, 3);
+
+        final AtomicBoolean reading = new AtomicBoolean(true);
+        final AtomicInteger missingCount = new AtomicInteger();
+
+        Thread readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (reading.get()) {
+                    if (boardIni.getProperty("ip") == null || boardIni.getProperty("R5") == null) {
+                        missingCount.incrementAndGet();
+                    }
+                }
+            }
+        });
+        readerThread.start();
+
+        int loadCount = boardIni.getLoadCount();
+        for (int i = 0; i < 50; i++) {
+            // the comment length changes the file length, so each is a change
+            changeIniOutside("R5", i % 2 == 0 ? "off" : "on", i % 2 == 0 ? "even" : "odd change");
+            assertTrue(boardIni.loadProperties(this.m8Io));
+        }
+        reading.set(false);
+        readerThread.join();
+
+        assertEquals(missingCount.get(), 0);
+        assertTrue(boardIni.getLoadCount() > loadCount);
+        assertEquals(boardIni.getProperty("R5"), "on");
+    }
+}
@@ -4,6 +4,8 @@ package imatic8;
 import boardemulator.Im8TestSocket;
 import java.io.File;
 import java.io.FileFilter;
+import java.net.InetSocketAddress;
+import java.util.function.Function;
 import static org.fest.reflect.core.Reflection.staticField;
 
 /**
@@ -40,6 +42,14 @@ public class Im8BoardIniTest extends Im8BoardIni {
             // board-emulator that is a board-server
             Im8Socket.socketProvidedClass = Im8TestSocket.class;
 
+            // and the NIO transport is given the emulator address to connect to
+            Im8Socket.connectAddressMapper = new Function<InetSocketAddress, InetSocketAddress>() {
+                @Override
+                public InetSocketAddress apply(InetSocketAddress boardAddress) {
+                    return Im8TestSocket.shadowAddress(boardAddress);
+                }
+            };
+
             // the INI file needs to be a different name for testing, so as to
             // avoid overwriting none test INI file
             RECORDER_FILE_NAME = RECORDER_FILE_NAME + ".Test";
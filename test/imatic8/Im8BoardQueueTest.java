@@ -0,0 +1,171 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Board command queue: with the queue full a command is rejected, the oldest
+ * is dropped, or the command is coalesced into the newest with a future of
+ * its own; and a command past its deadline fails rather than being sent.
+ *
+ * @author dbradley
+ */
+public class Im8BoardQueueTest extends LibTestClass {
+
+    /** response delay of the board, so a command is in flight for a while */
+    private static final int RESPONSE_DELAY = 150;
+
+    private Im8TestShadowBoardSvr board5Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board5Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.15", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        Im8BoardQueue.configure(Im8BoardQueue.DEFAULT_CAPACITY, Imatic8LibMode.QueuePolicy.REJECT);
+        Im8BoardQueue.setDeadline(Im8BoardQueue.DEFAULT_DEADLINE_MILLIS);
+        this.board5Svr.testResponseDelay(0);
+        this.board5Svr.testEndServer(0);
+    }
+
+    /**
+     * Start a command and wait for its frame to reach the board, so the
+     * board's drain is busy with it.
+     */
+    private CompletableFuture<Imatic8LibResult> startInFlight(String relay) throws InterruptedException {
+        int framesBefore = this.board5Svr.getFrameCount();
+
+        CompletableFuture<Imatic8LibResult> future = this.libObject.executeAsync("b-5", "on", relay);
+        for (int i = 0; i < 100 && this.board5Svr.getFrameCount() == framesBefore; i++) {
+            Thread.sleep(5);
+        }
+        assertEquals(Im8BoardQueue.getDepth(5), 0);
+        return future;
+    }
+
+    private static Imatic8LibResult result(CompletableFuture<Imatic8LibResult> future) throws Exception {
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static Im8BoardController getBoard5() {
+        for (Im8BoardController boardCtrl : Im8BoardController.getLoadedBoards()) {
+            if (boardCtrl.getBoardNumber() == 5) {
+                return boardCtrl;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void defineBoard5() {
+        this.libObject = new Imatic8LibMode();
+
+        this.libObject.execute("defip-5", "192.168.1.15");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(5).isFile(), "NOT present issue, b-5 INI");
+
+        // the emulator may hold relay states from an earlier test class
+        this.libObject.execute("b-5", "off", "all");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        this.libObject.setQueued(true);
+        this.board5Svr.testResponseDelay(RESPONSE_DELAY);
+    }
+
+    @Test(dependsOnMethods = "defineBoard5")
+    public void rejectWhenFull() throws Exception {
+        this.libObject.setBoardQueue(1, Imatic8LibMode.QueuePolicy.REJECT);
+
+        CompletableFuture<Imatic8LibResult> inFlightFuture = startInFlight("1");
+        CompletableFuture<Imatic8LibResult> queuedFuture = this.libObject.executeAsync("b-5", "on", "2");
+        CompletableFuture<Imatic8LibResult> rejectedFuture = this.libObject.executeAsync("b-5", "on", "3");
+
+        Imatic8LibResult rejected = result(rejectedFuture);
+        assertEquals(rejected.getExitCode(), -88);
+        assertTrue(rejected.getResponses().toString().contains("queue full"), "responses: " + rejected.getResponses());
+
+        assertEquals(result(inFlightFuture).getExitCode(), 0);
+        assertEquals(result(queuedFuture).getExitCode(), 0);
+        assertEquals(this.board5Svr.getRelayMask(), 0x03);
+    }
+
+    @Test(dependsOnMethods = "rejectWhenFull")
+    public void dropOldestWhenFull() throws Exception {
+        this.libObject.setBoardQueue(1, Imatic8LibMode.QueuePolicy.DROP_OLDEST);
+        this.board5Svr.resetCounters();
+
+        CompletableFuture<Imatic8LibResult> inFlightFuture = startInFlight("4");
+        CompletableFuture<Imatic8LibResult> droppedFuture = this.libObject.executeAsync("b-5", "on", "5");
+        CompletableFuture<Imatic8LibResult> newestFuture = this.libObject.executeAsync("b-5", "on", "6");
+
+        Imatic8LibResult dropped = result(droppedFuture);
+        assertEquals(dropped.getExitCode(), -87);
+        assertTrue(dropped.getResponses().toString().contains("dropped from full queue"),
+                "responses: " + dropped.getResponses());
+
+        assertEquals(result(inFlightFuture).getExitCode(), 0);
+        assertEquals(result(newestFuture).getExitCode(), 0);
+        assertEquals(this.board5Svr.getFrameLog().toString(), "[4:on, 6:on]");
+    }
+
+    @Test(dependsOnMethods = "dropOldestWhenFull")
+    public void coalesceGivesEachCallerItsOwnFuture() throws Exception {
+        this.libObject.setBoardQueue(1, Imatic8LibMode.QueuePolicy.COALESCE);
+        this.board5Svr.resetCounters();
+
+        Im8BoardController boardCtrl = getBoard5();
+        assertNotNull(boardCtrl, "b-5 not loaded");
+
+        CompletableFuture<Imatic8LibResult> inFlightFuture = startInFlight("7");
+        CompletableFuture<Im8Io> queuedFuture = Im8BoardQueue.submit(new Im8Io(), boardCtrl, 0x08, 0x00);
+        CompletableFuture<Im8Io> mergedFuture = Im8BoardQueue.submit(new Im8Io(), boardCtrl, 0x20, 0x00);
+
+        assertTrue(mergedFuture != queuedFuture, "merged caller shares the queued caller's future");
+
+        // a merged caller giving up does not fail the other caller of the send
+        mergedFuture.cancel(false);
+
+        Im8Io sendIo = queuedFuture.get(5, TimeUnit.SECONDS);
+        assertEquals(sendIo.getExitCode(), 0);
+        assertFalse(queuedFuture.isCompletedExceptionally(), "queued caller failed");
+
+        assertEquals(result(inFlightFuture).getExitCode(), 0);
+        // one send for the two callers
+        assertEquals(this.board5Svr.getFrameLog().toString(), "[7:on, 4:off, 6:off]");
+    }
+
+    @Test(dependsOnMethods = "coalesceGivesEachCallerItsOwnFuture")
+    public void commandPastDeadlineNotSent() throws Exception {
+        this.libObject.setBoardQueue(16, Imatic8LibMode.QueuePolicy.REJECT, 50);
+        this.board5Svr.resetCounters();
+
+        CompletableFuture<Imatic8LibResult> inFlightFuture = startInFlight("1");
+        CompletableFuture<Imatic8LibResult> lateFuture = this.libObject.executeAsync("b-5", "on", "2");
+
+        Imatic8LibResult late = result(lateFuture);
+        assertEquals(late.getExitCode(), -86);
+        assertTrue(late.getResponses().toString().contains("deadline passed"), "responses: " + late.getResponses());
+
+        assertEquals(result(inFlightFuture).getExitCode(), 0);
+        assertEquals(this.board5Svr.getFrameLog().toString(), "[1:on]");
+
+        boolean expiredCounted = false;
+        for (String metrics : this.libObject.getBoardQueueMetrics()) {
+            expiredCounted |= metrics.startsWith("Queue:b-5:") && metrics.endsWith(":expired=1");
+        }
+        assertTrue(expiredCounted, "metrics: " + this.libObject.getBoardQueueMetrics());
+    }
+}
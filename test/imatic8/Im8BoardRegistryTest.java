@@ -0,0 +1,103 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import func.library.LibTestClass;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * The board registry: one board object per board however many callers ask
+ * for it at once, and a define updates the object callers hold.
+ *
+ * @author dbradley
+ */
+public class Im8BoardRegistryTest extends LibTestClass {
+
+    private Imatic8LibMode libObject;
+
+    private final Im8Io m8Io = new Im8Io("status");
+
+    @Test
+    public void defineBoard7() {
+        this.libObject = new Imatic8LibMode();
+
+        this.libObject.execute("defip-7", "192.168.1.17");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(7).isFile(), "NOT present issue, b-7 INI");
+    }
+
+    @Test(dependsOnMethods = "defineBoard7")
+    public void concurrentCallersShareOneObject() throws InterruptedException {
+        final int threadCount = 8;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicReferenceArray<Im8BoardController> boardArr = new AtomicReferenceArray<>(threadCount);
+
+        Thread[] threadArr = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            threadArr[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    boardArr.set(index, Im8BoardController.createReuseBoardNFromINI(m8Io, 7));
+                }
+            });
+            threadArr[i].start();
+        }
+        startLatch.countDown();
+        for (Thread thread : threadArr) {
+            thread.join();
+        }
+        for (int i = 1; i < threadCount; i++) {
+            assertTrue(boardArr.get(i) == boardArr.get(0), "board object not shared: " + i);
+        }
+        assertEquals(boardArr.get(0).getIpV4Addr(), "192.168.1.17");
+    }
+
+    @Test(dependsOnMethods = "concurrentCallersShareOneObject")
+    public void defineUpdatesHeldObject() {
+        Im8BoardController heldBoard = Im8BoardController.createReuseBoardNFromINI(this.m8Io, 7);
+
+        Im8BoardController definedBoard = Im8BoardController.defineBoardObject(this.m8Io, 7, "192.168.1.27");
+        assertTrue(definedBoard == heldBoard, "board object replaced");
+        assertEquals(heldBoard.getIpV4Addr(), "192.168.1.27");
+        // kept in the INI file, so the address read back before a connection
+        assertEquals(Im8BoardIni.getCachedBoardIni(this.m8Io, 7).getIpAddrStr(this.m8Io), "192.168.1.27");
+
+        Im8BoardController.defineBoardObject(this.m8Io, 7, "192.168.1.17");
+        assertEquals(heldBoard.getIpV4Addr(), "192.168.1.17");
+    }
+
+    @Test(dependsOnMethods = "defineUpdatesHeldObject")
+    public void defineWaitsForActionInProgress() throws InterruptedException {
+        Im8BoardController heldBoard = Im8BoardController.createReuseBoardNFromINI(this.m8Io, 7);
+
+        heldBoard.lockBoard();
+        Thread defineThread;
+        try {
+            defineThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Im8BoardController.defineBoardObject(m8Io, 7, "192.168.1.27");
+                }
+            });
+            defineThread.start();
+            defineThread.join(200);
+
+            // the action in progress keeps its address
+            assertEquals(heldBoard.getIpV4Addr(), "192.168.1.17");
+        } finally {
+            heldBoard.unlockBoard();
+        }
+        defineThread.join();
+        assertEquals(heldBoard.getIpV4Addr(), "192.168.1.27");
+
+        Im8BoardController.defineBoardObject(this.m8Io, 7, "192.168.1.17");
+    }
+}
@@ -0,0 +1,124 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Compiled programs: a program runs the same frames every time it is
+ * executed, bad arguments are not compiled, a program runs asynchronously,
+ * and a program follows its board when the board is defined again.
+ *
+ * @author dbradley
+ */
+public class Im8CompileTest extends LibTestClass {
+
+    private static final int RUN_COUNT = 5;
+
+    private Im8TestShadowBoardSvr board10Svr;
+
+    /** where board 10 is defined again */
+    private Im8TestShadowBoardSvr board10MovedSvr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board10Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.20", 30000);
+        this.board10MovedSvr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.21", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.board10Svr.testEndServer(0);
+        this.board10MovedSvr.testEndServer(0);
+    }
+
+    @Test
+    public void defineBoard10() {
+        this.libObject = new Imatic8LibMode();
+
+        this.libObject.execute("defip-10", "192.168.1.20");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(10).isFile(), "NOT present issue, b-10 INI");
+
+        // the emulator may hold relay states from an earlier test run
+        this.libObject.execute("b-10", "off", "all");
+        assertEquals(this.libObject.getExitCode(), 0);
+    }
+
+    @Test(dependsOnMethods = "defineBoard10")
+    public void programRunsTheSameFramesEachTime() {
+        Imatic8Program program = this.libObject.compile("b-10 on 1 2 off 1 status");
+        assertNotNull(program, "not compiled: " + this.libObject.getResponses());
+        this.board10Svr.resetCounters();
+
+        StringBuilder expectedLog = new StringBuilder();
+        for (int i = 0; i < RUN_COUNT; i++) {
+            this.libObject.execute(program);
+            assertEquals(this.libObject.getExitCode(), 0);
+            assertEquals(this.libObject.getResponses().get(0), "Status:b-10:-2------");
+
+            expectedLog.append(i == 0 ? "" : ", ").append("1:on, 2:on, 1:off");
+        }
+        assertEquals(this.board10Svr.getFrameLog().toString(), "[" + expectedLog + "]");
+    }
+
+    @Test(dependsOnMethods = "defineBoard10")
+    public void badArgumentsNotCompiled() {
+        assertNull(this.libObject.compile("b-10 on 9"));
+        assertEquals(this.libObject.getExitCode(), -1);
+        assertTrue(this.libObject.getResponses().size() > 0, "no error reported");
+
+        // a board with no INI file
+        assertNull(this.libObject.compile("b-99 on 1"));
+        assertEquals(this.libObject.getExitCode(), -1);
+
+        // a relay number with nothing to do
+        assertNull(this.libObject.compile("b-10 3"));
+        assertEquals(this.libObject.getExitCode(), -1);
+    }
+
+    @Test(dependsOnMethods = {"programRunsTheSameFramesEachTime", "badArgumentsNotCompiled"})
+    public void programRunsAsync() throws Exception {
+        Imatic8Program program = this.libObject.compile("b-10 on 4 ms:100 off 4");
+        assertNotNull(program, "not compiled: " + this.libObject.getResponses());
+        this.board10Svr.resetCounters();
+
+        CompletableFuture<Imatic8LibResult> firstFuture = this.libObject.executeAsync(program);
+        CompletableFuture<Imatic8LibResult> secondFuture = this.libObject.executeAsync(program);
+
+        assertEquals(firstFuture.get(5, TimeUnit.SECONDS).getExitCode(), 0);
+        assertEquals(secondFuture.get(5, TimeUnit.SECONDS).getExitCode(), 0);
+
+        assertEquals(this.board10Svr.getFrameCount(), 4);
+        assertEquals(this.board10Svr.getRelayMask() & 0x08, 0);
+    }
+
+    @Test(dependsOnMethods = "programRunsAsync")
+    public void programFollowsRedefinedBoard() {
+        Imatic8Program program = this.libObject.compile("b-10 on 3");
+        assertNotNull(program, "not compiled: " + this.libObject.getResponses());
+        this.board10Svr.resetCounters();
+        this.board10MovedSvr.resetCounters();
+
+        // board 10 defined again at another address after the compile
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(10).delete(), "b-10 INI not deleted");
+        this.libObject.execute("defip-10", "192.168.1.21");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(10).isFile(), "NOT present issue, b-10 INI");
+
+        this.libObject.execute(program);
+        assertEquals(this.libObject.getExitCode(), 0, "" + this.libObject.getResponses());
+
+        assertEquals(this.board10MovedSvr.getFrameLog().toString(), "[3:on]");
+        assertEquals(this.board10Svr.getFrameCount(), 0);
+    }
+}
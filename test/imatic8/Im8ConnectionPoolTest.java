@@ -0,0 +1,88 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Kept-alive connections: reuse, probe of an idle connection and reconnect
+ * when the board has dropped the connection.
+ *
+ * @author dbradley
+ */
+public class Im8ConnectionPoolTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board3Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board3Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.13", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.libObject.closeKeptAliveConnections();
+        this.board3Svr.testEndServer(0);
+    }
+
+    @Test
+    public void defineBoard3() {
+        this.libObject = new Imatic8LibMode();
+        this.libObject.setKeepAlive(true);
+
+        this.libObject.execute("defip-3", "192.168.1.13");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(3).isFile(), "NOT present issue, b-3 INI");
+    }
+
+    @Test(dependsOnMethods = "defineBoard3")
+    public void keptAliveConnectionReused() {
+        this.board3Svr.resetCounters();
+
+        this.libObject.execute("b-3", "on", "1");
+        assertEquals(this.libObject.getExitCode(), 0);
+        this.libObject.execute("b-3", "on", "2");
+        assertEquals(this.libObject.getExitCode(), 0);
+        this.libObject.execute("b-3", "off", "1", "status");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-3:-2------");
+
+        assertEquals(this.board3Svr.getConnectionCount(), 1);
+        assertEquals(this.board3Svr.getFrameCount(), 3);
+        assertEquals(this.board3Svr.getRelayMask(), 0x02);
+    }
+
+    @Test(dependsOnMethods = "keptAliveConnectionReused")
+    public void idleConnectionProbedAndReused() throws InterruptedException {
+        this.board3Svr.resetCounters();
+
+        // idle past the probe time, the live connection passes the probe
+        Thread.sleep(1200);
+        this.libObject.execute("b-3", "on", "3");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        assertEquals(this.board3Svr.getConnectionCount(), 0);
+        assertEquals(this.board3Svr.getRelayMask(), 0x06);
+    }
+
+    @Test(dependsOnMethods = "idleConnectionProbedAndReused")
+    public void droppedConnectionReconnected() throws InterruptedException {
+        // the board drops its connections when it is restarted
+        this.board3Svr.testEndServer(0);
+        this.board3Svr.testRestartServer(200);
+        this.board3Svr.resetCounters();
+
+        Thread.sleep(1200);
+        this.libObject.execute("b-3", "off", "2");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        assertEquals(this.board3Svr.getConnectionCount(), 1);
+        assertEquals(this.board3Svr.getRelayMask(), 0x04);
+    }
+}
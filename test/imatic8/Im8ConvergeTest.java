@@ -0,0 +1,88 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Converge mode: only the frames that change the recorded relay states are
+ * sent, an all on/off frame when every relay ends the same, and nothing when
+ * the board is already in the requested states.
+ *
+ * @author dbradley
+ */
+public class Im8ConvergeTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board11Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board11Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.22", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.board11Svr.testEndServer(0);
+    }
+
+    @Test
+    public void defineBoard11() {
+        this.libObject = new Imatic8LibMode();
+        this.libObject.setConverge(true);
+
+        this.libObject.execute("defip-11", "192.168.1.22");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(11).isFile(), "NOT present issue, b-11 INI");
+
+        // the emulator may hold relay states from an earlier test run
+        this.libObject.execute("b-11", "off", "all");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.board11Svr.getRelayMask(), 0);
+    }
+
+    @Test(dependsOnMethods = "defineBoard11")
+    public void recordedStateNotSent() {
+        this.libObject.execute("b-11", "on", "3");
+        assertEquals(this.libObject.getExitCode(), 0);
+        this.board11Svr.resetCounters();
+
+        this.libObject.execute("b-11", "on", "3");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        assertEquals(this.board11Svr.getConnectionCount(), 0);
+        assertEquals(this.board11Svr.getFrameCount(), 0);
+        assertEquals(this.board11Svr.getRelayMask(), 0x04);
+    }
+
+    @Test(dependsOnMethods = "recordedStateNotSent")
+    public void everyRelayOnSentAsAllOn() {
+        this.libObject.execute("b-11", "off", "all");
+        assertEquals(this.libObject.getExitCode(), 0);
+        this.board11Svr.resetCounters();
+
+        this.libObject.execute("b-11", "on", "1", "2", "3", "4", "5", "6", "7", "8", "status");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-11:12345678");
+
+        assertEquals(this.board11Svr.getFrameLog().toString(), "[all:on]");
+        assertEquals(this.board11Svr.getRelayMask(), 0xFF);
+    }
+
+    @Test(dependsOnMethods = "everyRelayOnSentAsAllOn")
+    public void onlyChangedRelaysSent() {
+        this.board11Svr.resetCounters();
+
+        this.libObject.execute("b-11", "off", "2", "on", "2", "off", "5", "7", "on", "7", "off", "6", "status");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-11:1234--78");
+
+        assertEquals(this.board11Svr.getFrameLog().toString(), "[5:off, 6:off]");
+        assertEquals(this.board11Svr.getRelayMask(), 0xCF);
+    }
+}
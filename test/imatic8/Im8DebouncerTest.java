@@ -0,0 +1,129 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Debounce: the relay actions for a board within a window, from one request
+ * or many, are sent as the final states only, an intermediate state never
+ * goes out, windows apart are sent apart, and every request of a window
+ * shares the outcome of its send.
+ *
+ * @author dbradley
+ */
+public class Im8DebouncerTest extends LibTestClass {
+
+    private static final long WINDOW_MILLIS = 200;
+
+    private Im8TestShadowBoardSvr board3Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board3Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.13", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.board3Svr.testDropResponses(0);
+        this.board3Svr.testEndServer(0);
+    }
+
+    @Test
+    public void defineBoard3() {
+        this.libObject = new Imatic8LibMode();
+
+        this.libObject.execute("defip-3", "192.168.1.13");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(3).isFile(), "NOT present issue, b-3 INI");
+
+        // the emulator may hold relay states from an earlier test class
+        this.libObject.execute("b-3", "off", "all");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        this.libObject.setDebounceWindow(WINDOW_MILLIS);
+    }
+
+    @Test(dependsOnMethods = "defineBoard3")
+    public void requestsInWindowSendFinalStates() throws Exception {
+        this.board3Svr.resetCounters();
+
+        CompletableFuture<?>[] futureArr = new CompletableFuture<?>[]{
+            this.libObject.executeAsync("b-3", "on", "1"),
+            this.libObject.executeAsync("b-3", "off", "1"),
+            this.libObject.executeAsync("b-3", "on", "2"),
+            this.libObject.executeAsync("b-3", "on", "1")};
+
+        for (CompletableFuture<?> future : futureArr) {
+            Imatic8LibResult result = (Imatic8LibResult) future.get(2, TimeUnit.SECONDS);
+            assertEquals(result.getExitCode(), 0);
+        }
+        assertEquals(this.board3Svr.getFrameLog().toString(), "[1:on, 2:on]");
+        assertEquals(this.board3Svr.getConnectionCount(), 1);
+        assertEquals(this.board3Svr.getRelayMask(), 0x03);
+    }
+
+    @Test(dependsOnMethods = "requestsInWindowSendFinalStates")
+    public void intermediateStateNeverSent() throws Exception {
+        this.board3Svr.resetCounters();
+
+        CompletableFuture<Imatic8LibResult> onFuture = this.libObject.executeAsync("b-3", "on", "3");
+        CompletableFuture<Imatic8LibResult> offFuture = this.libObject.executeAsync("b-3", "off", "3");
+
+        assertEquals(onFuture.get(2, TimeUnit.SECONDS).getExitCode(), 0);
+        assertEquals(offFuture.get(2, TimeUnit.SECONDS).getExitCode(), 0);
+
+        // relay 3 ends where it started, so nothing is sent
+        assertEquals(this.board3Svr.getFrameCount(), 0);
+        assertEquals(this.board3Svr.getRelayMask(), 0x03);
+    }
+
+    @Test(dependsOnMethods = "intermediateStateNeverSent")
+    public void lastWriterWinsInOneRequest() {
+        this.board3Svr.resetCounters();
+
+        this.libObject.execute("b-3", "on", "5", "off", "5", "on", "5", "status");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-3:12--5---");
+
+        assertEquals(this.board3Svr.getFrameLog().toString(), "[5:on]");
+    }
+
+    @Test(dependsOnMethods = "lastWriterWinsInOneRequest")
+    public void windowsApartSentApart() throws InterruptedException {
+        this.board3Svr.resetCounters();
+        long flushesBefore = Im8Debouncer.getFlushCount();
+
+        this.libObject.execute("b-3", "on", "6");
+        Thread.sleep(WINDOW_MILLIS);
+        this.libObject.execute("b-3", "off", "6");
+
+        assertEquals(Im8Debouncer.getFlushCount() - flushesBefore, 2);
+        assertEquals(this.board3Svr.getFrameLog().toString(), "[6:on, 6:off]");
+    }
+
+    @Test(dependsOnMethods = "windowsApartSentApart")
+    public void windowSharesTheOutcome() throws Exception {
+        this.board3Svr.testDropResponses(1);
+        try {
+            CompletableFuture<Imatic8LibResult> firstFuture = this.libObject.executeAsync("b-3", "on", "7");
+            CompletableFuture<Imatic8LibResult> secondFuture = this.libObject.executeAsync("b-3", "on", "8");
+
+            int firstExit = firstFuture.get(3, TimeUnit.SECONDS).getExitCode();
+            int secondExit = secondFuture.get(3, TimeUnit.SECONDS).getExitCode();
+
+            assertTrue(firstExit < 0, "exit code: " + firstExit);
+            assertTrue(secondExit < 0, "exit code: " + secondExit);
+        } finally {
+            this.board3Svr.testDropResponses(0);
+        }
+    }
+}
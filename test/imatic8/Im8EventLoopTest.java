@@ -0,0 +1,83 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Asynchronous requests on the event loop: a slow board does not hold up the
+ * requests for other boards.
+ *
+ * @author dbradley
+ */
+public class Im8EventLoopTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board4Svr;
+    private Im8TestShadowBoardSvr board5Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board4Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.14", 30000);
+        this.board5Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.15", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.board4Svr.testResponseDelay(0);
+        this.board4Svr.testEndServer(0);
+        this.board5Svr.testEndServer(0);
+    }
+
+    @Test
+    public void defineBoards() {
+        this.libObject = new Imatic8LibMode();
+
+        this.libObject.execute("defip-4", "192.168.1.14");
+        this.libObject.execute("defip-5", "192.168.1.15");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(4).isFile(), "NOT present issue, b-4 INI");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(5).isFile(), "NOT present issue, b-5 INI");
+
+        // the emulators may hold relay states from an earlier test class
+        this.libObject.execute("b-4", "off", "all", "b-5", "off", "all");
+        assertEquals(this.libObject.getExitCode(), 0);
+    }
+
+    @Test(dependsOnMethods = "defineBoards")
+    public void slowBoardDoesNotHoldUpOthers() throws Exception {
+        this.board4Svr.testResponseDelay(600);
+
+        CompletableFuture<Imatic8LibResult> slowFuture = this.libObject.executeAsync("b-4", "on", "1");
+        // the slow request is on its way to the board before the fast one
+        Thread.sleep(100);
+        CompletableFuture<Imatic8LibResult> fastFuture = this.libObject.executeAsync("b-5", "on", "2");
+
+        Imatic8LibResult fastResult = fastFuture.get(400, TimeUnit.MILLISECONDS);
+        assertEquals(fastResult.getExitCode(), 0);
+        assertFalse(slowFuture.isDone(), "slow request should still be waiting on its board");
+
+        assertEquals(slowFuture.get(2, TimeUnit.SECONDS).getExitCode(), 0);
+        assertEquals(this.board4Svr.getRelayMask(), 0x01);
+        assertEquals(this.board5Svr.getRelayMask(), 0x02);
+    }
+
+    @Test(dependsOnMethods = "slowBoardDoesNotHoldUpOthers")
+    public void pauseContinuesOnTheLoop() throws Exception {
+        this.board4Svr.testResponseDelay(0);
+
+        Imatic8LibResult result = this.libObject.executeAsync("b-4", "off", "1", "ms:100", "on", "3", "status")
+                .get(2, TimeUnit.SECONDS);
+
+        assertEquals(result.getExitCode(), 0);
+        assertEquals(result.getResponses().get(0), "Status:b-4:--3-----");
+    }
+}
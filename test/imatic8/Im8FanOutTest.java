@@ -0,0 +1,92 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Fan-out of the actions for several boards: the boards are acted on at the
+ * same time, the reports keep the board order and one board failing does not
+ * stop the others.
+ *
+ * @author dbradley
+ */
+public class Im8FanOutTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board7Svr;
+    private Im8TestShadowBoardSvr board8Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board7Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.17", 30000);
+        this.board8Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.18", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.board7Svr.testResponseDelay(0);
+        this.board8Svr.testResponseDelay(0);
+        this.board7Svr.testEndServer(0);
+        this.board8Svr.testEndServer(0);
+    }
+
+    @Test
+    public void defineBoards() {
+        this.libObject = new Imatic8LibMode();
+        this.libObject.setFanOut(true);
+
+        this.libObject.execute("defip-7", "192.168.1.17");
+        this.libObject.execute("defip-8", "192.168.1.18");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(8).isFile(), "NOT present issue, b-8 INI");
+    }
+
+    @Test(dependsOnMethods = "defineBoards")
+    public void boardsActedOnTogether() {
+        this.board7Svr.testResponseDelay(400);
+        this.board8Svr.testResponseDelay(400);
+
+        long startMillis = System.currentTimeMillis();
+        this.libObject.execute("b-7", "on", "1", "b-8", "on", "2");
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertTrue(elapsedMillis < 750, "boards not acted on together: " + elapsedMillis);
+
+        assertEquals(this.board7Svr.getRelayMask() & 0x01, 0x01);
+        assertEquals(this.board8Svr.getRelayMask() & 0x02, 0x02);
+    }
+
+    @Test(dependsOnMethods = "boardsActedOnTogether")
+    public void reportsInBoardOrder() {
+        this.board7Svr.testResponseDelay(300);
+        this.board8Svr.testResponseDelay(0);
+
+        // board 8 is done first, its report still follows board 7
+        this.libObject.execute("b-7", "off", "1", "status", "b-8", "off", "2", "status");
+
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().size(), 2);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-7:--------");
+        assertEquals(this.libObject.getResponses().get(1), "Status:b-8:--------");
+    }
+
+    @Test(dependsOnMethods = "reportsInBoardOrder")
+    public void failedBoardDoesNotStopOthers() {
+        this.board7Svr.testResponseDelay(0);
+        this.board7Svr.testEndServer(0);
+
+        this.libObject.execute("b-7", "on", "3", "b-8", "on", "3");
+
+        assertEquals(this.libObject.getExitCode(), -99);
+        assertEquals(this.board8Svr.getRelayMask() & 0x04, 0x04);
+
+        this.board7Svr.testRestartServer(200);
+    }
+}
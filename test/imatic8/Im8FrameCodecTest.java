@@ -0,0 +1,141 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import static imatic8.Im8Constants.MAX_RELAY_NUMBER;
+import static imatic8.Im8Constants.MIN_RELAY_NUMBER;
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Frame planning: over every pair of current and target relay states no
+ * frame commands a relay to a state other than its target, so a relay
+ * outside the differing relays never switches, and an all on/off frame is
+ * only used for a target of every relay on or every relay off.
+ *
+ * @author dbradley
+ */
+@Test
+public class Im8FrameCodecTest {
+
+    /**
+     * Apply a frame to relay states, as the board does.
+     *
+     * @param mask  relay states before the frame
+     * @param frame the frame
+     *
+     * @return relay states after the frame
+     */
+    private static int applyFrame(int mask, byte[] frame) {
+        for (int relayNumber = MIN_RELAY_NUMBER; relayNumber <= MAX_RELAY_NUMBER; relayNumber++) {
+            int bit = 1 << (relayNumber - 1);
+
+            if (Arrays.equals(frame, Im8FrameCodec.getFrame(Im8RelayInfo.RELAY_ON, relayNumber))) {
+                return mask | bit;
+            }
+            if (Arrays.equals(frame, Im8FrameCodec.getFrame(Im8RelayInfo.RELAY_OFF, relayNumber))) {
+                return mask & ~bit;
+            }
+        }
+        if (Arrays.equals(frame, Im8FrameCodec.getFrame(Im8RelayInfo.RELAY_ALL_ON, -1))) {
+            return 0xff;
+        }
+        if (Arrays.equals(frame, Im8FrameCodec.getFrame(Im8RelayInfo.RELAY_ALL_OFF, -1))) {
+            return 0x00;
+        }
+        fail("not a relay frame: " + Arrays.toString(frame));
+        return mask;
+    }
+
+    private static boolean isAllFrame(byte[] frame) {
+        return Im8FrameCodec.getRelayNumber(frame) == -1;
+    }
+
+    @Test
+    public void planNeverSwitchesRelaysOutsideTheDiff() {
+        for (int current = 0; current <= 0xff; current++) {
+            for (int target = 0; target <= 0xff; target++) {
+                int diffBits = current ^ target;
+                byte[][] frameArr = Im8FrameCodec.planFrames((byte) current, (byte) target);
+
+                int mask = current;
+                for (byte[] frame : frameArr) {
+                    int previous = mask;
+                    mask = applyFrame(mask, frame);
+
+                    if (((mask ^ current) & ~diffBits) != 0) {
+                        fail(String.format("current %02x target %02x: relay outside the diff switched",
+                                current, target));
+                    }
+                    if (((mask ^ previous) & (mask ^ target)) != 0) {
+                        fail(String.format("current %02x target %02x: relay switched away from its target",
+                                current, target));
+                    }
+                    if (isAllFrame(frame) && target != 0xff && target != 0x00) {
+                        fail(String.format("current %02x target %02x: all frame for mixed target",
+                                current, target));
+                    }
+                }
+                assertEquals(mask, target, String.format("current %02x target %02x", current, target));
+                assertTrue(frameArr.length <= Integer.bitCount(diffBits),
+                        String.format("current %02x target %02x: %d frames", current, target, frameArr.length));
+            }
+        }
+    }
+
+    @Test
+    public void getFramesOnlySetsTheSetRelays() {
+        for (int setBits = 0; setBits <= 0xff; setBits++) {
+            for (int onBits = 0; onBits <= 0xff; onBits++) {
+                if ((onBits & ~setBits) != 0) {
+                    continue;
+                }
+                byte[][] frameArr = Im8FrameCodec.getFrames(setBits, onBits);
+
+                // from every relay state opposite to its target
+                int start = ~onBits & 0xff;
+                int mask = start;
+                for (byte[] frame : frameArr) {
+                    mask = applyFrame(mask, frame);
+
+                    if (((mask ^ start) & ~setBits) != 0) {
+                        fail(String.format("set %02x on %02x: relay not set was switched", setBits, onBits));
+                    }
+                }
+                assertEquals(mask & setBits, onBits, String.format("set %02x on %02x", setBits, onBits));
+            }
+        }
+    }
+
+    @Test
+    public void allFrameOnlyForEveryRelayOnOrOff() {
+        assertEquals(Im8FrameCodec.planFrames((byte) 0x00, (byte) 0xff).length, 1);
+        assertEquals(Im8FrameCodec.planFrames((byte) 0xff, (byte) 0x00).length, 1);
+        assertEquals(Im8FrameCodec.getFrames(0xff, 0xff).length, 1);
+        assertEquals(Im8FrameCodec.getFrames(0xff, 0x00).length, 1);
+
+        // seven relays off and one on is the seven individual frames
+        assertEquals(Im8FrameCodec.planFrames((byte) 0xff, (byte) 0x01).length, 7);
+        assertEquals(Im8FrameCodec.getFrames(0xff, 0x01).length, 8);
+
+        // a single differing relay is its own frame
+        byte[][] frameArr = Im8FrameCodec.planFrames((byte) 0x7f, (byte) 0xff);
+        assertEquals(frameArr.length, 1);
+        assertEquals(Im8FrameCodec.getRelayNumber(frameArr[0]), 8);
+    }
+
+    @Test
+    public void relayFramesAreOnePerRelay() {
+        byte[][] frameArr = Im8FrameCodec.getRelayFrames((byte) 0xa5);
+        assertEquals(frameArr.length, MAX_RELAY_NUMBER);
+
+        int mask = 0x5a;
+        for (int i = 0; i < frameArr.length; i++) {
+            assertEquals(Im8FrameCodec.getRelayNumber(frameArr[i]), i + 1);
+            mask = applyFrame(mask, frameArr[i]);
+        }
+        assertEquals(mask, 0xa5);
+    }
+}
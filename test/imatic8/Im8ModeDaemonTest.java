@@ -0,0 +1,83 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Daemon lines: the thin client's arguments reach the daemon as they were
+ * given, spaces and all, an interactive style line is still split, a
+ * leading port argument is recognised, and an empty line is answered.
+ *
+ * @author dbradley
+ */
+@Test
+public class Im8ModeDaemonTest {
+
+    @Test
+    public void clientArgsKeepTheirSpaces() {
+        String[] args = new String[]{"client", "scene", "living room", "status"};
+
+        String argsLine = Im8ModeDaemon.joinArgsLine(args, 1);
+        assertEquals(Arrays.asList(Im8ModeDaemon.splitArgsLine(argsLine)),
+                Arrays.asList("scene", "living room", "status"));
+    }
+
+    @Test
+    public void singleClientArgIsNotSplit() {
+        String argsLine = Im8ModeDaemon.joinArgsLine(new String[]{"client", "two words"}, 1);
+
+        assertEquals(Arrays.asList(Im8ModeDaemon.splitArgsLine(argsLine)), Arrays.asList("two words"));
+    }
+
+    @Test
+    public void lineWithoutTabsSplitAsInteractive() {
+        assertEquals(Arrays.asList(Im8ModeDaemon.splitArgsLine("b-2 on 1  status")),
+                Arrays.asList(Im8Common.tokenSingleLine("b-2 on 1  status")));
+    }
+
+    @Test
+    public void emptyLineAnswered() throws IOException {
+        try (ServerSocket listenSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket clientSocket = new Socket(InetAddress.getLoopbackAddress(), listenSocket.getLocalPort())) {
+            final Socket daemonSideSocket = listenSocket.accept();
+            Thread serveThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Im8ModeDaemon.serveClient(daemonSideSocket);
+                }
+            });
+            serveThread.setDaemon(true);
+            serveThread.start();
+
+            clientSocket.setSoTimeout(2000);
+            OutputStream oStream = clientSocket.getOutputStream();
+            oStream.write("\nquit\n".getBytes(StandardCharsets.UTF_8));
+            oStream.flush();
+
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals(reader.readLine(), "err:no arguments");
+            assertEquals(reader.readLine(), "exit:-1");
+        }
+    }
+
+    @Test
+    public void portArgIsAllDigits() {
+        assertTrue(Im8ModeDaemon.isPortArg("30801"));
+        assertFalse(Im8ModeDaemon.isPortArg("b-2"));
+        assertFalse(Im8ModeDaemon.isPortArg("s:5"));
+        assertFalse(Im8ModeDaemon.isPortArg(""));
+    }
+}
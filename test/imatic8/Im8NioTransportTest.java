@@ -0,0 +1,88 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * The NIO transport against the board emulator: relay actions, kept-alive
+ * channel reuse and a board that is not there.
+ *
+ * @author dbradley
+ */
+public class Im8NioTransportTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board6Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board6Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.16", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.libObject.setNioTransport(false);
+        this.board6Svr.testEndServer(0);
+    }
+
+    @Test
+    public void defineBoard6() {
+        this.libObject = new Imatic8LibMode();
+        this.libObject.setNioTransport(true);
+
+        this.libObject.execute("defip-6", "192.168.1.16");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(6).isFile(), "NOT present issue, b-6 INI");
+    }
+
+    @Test(dependsOnMethods = "defineBoard6")
+    public void relayActionsOverNio() {
+        this.board6Svr.resetCounters();
+
+        this.libObject.execute("b-6", "on", "1", "on", "4", "off", "1", "status");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-6:---4----");
+
+        assertEquals(this.board6Svr.getFrameLog().toString(), "[1:on, 4:on, 1:off]");
+        assertEquals(this.board6Svr.getRelayMask(), 0x08);
+    }
+
+    @Test(dependsOnMethods = "relayActionsOverNio")
+    public void keptAliveChannelReused() {
+        this.libObject.setKeepAlive(true);
+        this.board6Svr.resetCounters();
+
+        this.libObject.execute("b-6", "on", "2");
+        assertEquals(this.libObject.getExitCode(), 0);
+        this.libObject.execute("b-6", "off", "2");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        assertEquals(this.board6Svr.getConnectionCount(), 1);
+        assertEquals(this.board6Svr.getFrameCount(), 2);
+
+        this.libObject.closeKeptAliveConnections();
+        this.libObject.setKeepAlive(false);
+    }
+
+    @Test(dependsOnMethods = "keptAliveChannelReused")
+    public void noBoardReportedThenBackOn() {
+        this.board6Svr.testEndServer(0);
+
+        this.libObject.execute("b-6", "on", "3");
+        assertEquals(this.libObject.getExitCode(), -99);
+        assertTrue(this.libObject.getResponses().get(0).startsWith("ERROR-rt IO: open comm: b-6"),
+                this.libObject.getResponses().get(0));
+
+        this.board6Svr.testRestartServer(200);
+
+        this.libObject.execute("b-6", "on", "3", "status");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-6:--34----");
+    }
+}
@@ -0,0 +1,163 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Pipelined sends: the window of outstanding frames, responses matched out of
+ * order, a frame for a relay held back behind an earlier one, and a frame
+ * with no response sent again.
+ *
+ * @author dbradley
+ */
+public class Im8PipelineTest extends LibTestClass {
+
+    private static final int FRAME_LENGTH = Im8Constants.RELAY_MSG_ARRAY.length;
+
+    /** shorter than the fixed response timeout, so it is seen to be used */
+    private static final int FRAME_TIMEOUT = 300;
+
+    private Im8TestShadowBoardSvr board6Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board6Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.16", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        Im8Pipeline.setWindowSize(Im8Pipeline.DEFAULT_WINDOW_SIZE);
+        this.board6Svr.testDropResponses(0);
+        this.board6Svr.testEndServer(0);
+    }
+
+    private static byte[][] onFrames(int... relayNumberArr) {
+        byte[][] frameArr = new byte[relayNumberArr.length][];
+        for (int i = 0; i < relayNumberArr.length; i++) {
+            frameArr[i] = Im8FrameCodec.getFrame(Im8RelayInfo.RELAY_ON, relayNumberArr[i]);
+        }
+        return frameArr;
+    }
+
+    private static byte[] onResponses(int... relayNumberArr) {
+        byte[] responseArr = new byte[relayNumberArr.length * Im8Constants.RESPONSE_MSG_LENGTH];
+        for (int i = 0; i < relayNumberArr.length; i++) {
+            int offset = i * Im8Constants.RESPONSE_MSG_LENGTH;
+            responseArr[offset] = (byte) 0xfd;
+            responseArr[offset + 1] = (byte) relayNumberArr[i];
+            responseArr[offset + 2] = 1;
+            responseArr[offset + 3] = 0x5d;
+        }
+        return responseArr;
+    }
+
+    @Test
+    public void windowLimitsOutstandingFrames() {
+        Im8Pipeline.setWindowSize(4);
+        Im8Pipeline pipeline = new Im8Pipeline(onFrames(1, 2, 3, 4, 5, 6), FRAME_TIMEOUT);
+
+        assertEquals(pipeline.takeFramesToSend(0).length, 4 * FRAME_LENGTH);
+        // the window is full until responses arrive
+        assertEquals(pipeline.takeFramesToSend(0).length, 0);
+
+        byte[] matchedArr = new byte[64];
+        assertEquals(pipeline.acceptResponses(onResponses(2), 1, matchedArr), 1);
+        assertEquals(pipeline.takeFramesToSend(0).length, FRAME_LENGTH);
+    }
+
+    @Test
+    public void responsesMatchedOutOfOrder() {
+        Im8Pipeline.setWindowSize(4);
+        Im8Pipeline pipeline = new Im8Pipeline(onFrames(1, 2, 3), FRAME_TIMEOUT);
+        pipeline.takeFramesToSend(0);
+
+        byte[] matchedArr = new byte[64];
+        assertEquals(pipeline.acceptResponses(onResponses(3, 1), 2, matchedArr), 2);
+        assertEquals(matchedArr[1], 3);
+        assertEquals(matchedArr[5], 1);
+
+        // a response with no outstanding frame is dropped
+        assertEquals(pipeline.acceptResponses(onResponses(1), 1, matchedArr), 0);
+        assertFalse(pipeline.isComplete());
+
+        assertEquals(pipeline.acceptResponses(onResponses(2), 1, matchedArr), 1);
+        assertTrue(pipeline.isComplete());
+    }
+
+    @Test
+    public void sameRelayHeldBack() {
+        Im8Pipeline.setWindowSize(4);
+        byte[][] frameArr = new byte[][]{
+            Im8FrameCodec.getFrame(Im8RelayInfo.RELAY_ON, 1),
+            Im8FrameCodec.getFrame(Im8RelayInfo.RELAY_OFF, 1),
+            Im8FrameCodec.getFrame(Im8RelayInfo.RELAY_ON, 2)};
+        Im8Pipeline pipeline = new Im8Pipeline(frameArr, FRAME_TIMEOUT);
+
+        // the off 1 waits for the on 1, so a retry can not reorder them
+        assertEquals(pipeline.takeFramesToSend(0).length, FRAME_LENGTH);
+
+        byte[] matchedArr = new byte[64];
+        assertEquals(pipeline.acceptResponses(onResponses(1), 1, matchedArr), 1);
+        assertEquals(pipeline.takeFramesToSend(0).length, 2 * FRAME_LENGTH);
+    }
+
+    @Test
+    public void timedOutFrameRetriedUntilAttemptsUsed() {
+        Im8Pipeline.setWindowSize(4);
+        Im8Pipeline pipeline = new Im8Pipeline(onFrames(1, 2), FRAME_TIMEOUT);
+        pipeline.takeFramesToSend(0);
+
+        byte[] matchedArr = new byte[64];
+        pipeline.acceptResponses(onResponses(2), 1, matchedArr);
+
+        // the frame waits the timeout the pipeline was given
+        assertEquals(pipeline.getTimeToNextDeadline(0), FRAME_TIMEOUT);
+        assertTrue(pipeline.expireFrames(FRAME_TIMEOUT - 1));
+        assertEquals(pipeline.takeFramesToSend(FRAME_TIMEOUT - 1).length, 0);
+
+        long nowMillis = FRAME_TIMEOUT;
+        for (int attempt = 2; attempt <= Im8Pipeline.MAX_FRAME_ATTEMPTS; attempt++) {
+            assertTrue(pipeline.expireFrames(nowMillis));
+
+            byte[] sendArr = pipeline.takeFramesToSend(nowMillis);
+            assertEquals(sendArr.length, FRAME_LENGTH);
+            assertEquals(sendArr[Im8Constants.RELAY_NUMBER_BYTE_INDEX], 1);
+
+            nowMillis += FRAME_TIMEOUT;
+        }
+        assertFalse(pipeline.expireFrames(nowMillis));
+    }
+
+    @Test
+    public void defineBoard6() {
+        this.libObject = new Imatic8LibMode();
+        this.libObject.setPipelined(true);
+
+        this.libObject.execute("defip-6", "192.168.1.16");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(6).isFile(), "NOT present issue, b-6 INI");
+    }
+
+    @Test(dependsOnMethods = "defineBoard6")
+    public void droppedResponseSentAgain() {
+        this.libObject.execute("b-6", "off", "all");
+        this.board6Svr.resetCounters();
+        this.board6Svr.testDropResponses(1);
+
+        this.libObject.execute("b-6", "on", "1", "2", "3", "status");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-6:123-----");
+
+        // the frame with the dropped response is sent a second time
+        assertEquals(this.board6Svr.getFrameLog().toString(), "[1:on, 2:on, 3:on, 1:on]");
+        assertEquals(this.board6Svr.getRelayMask(), 0x07);
+    }
+}
@@ -0,0 +1,119 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Reconciliation: a relay whose frame had no response is repaired with a
+ * frame for that relay only, and a reassert sends one frame per relay at its
+ * desired state, never an all on/off frame.
+ *
+ * @author dbradley
+ */
+public class Im8ReconcilerTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board8Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board8Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.18", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        Im8Reconciler.stop();
+        this.board8Svr.testDropResponses(0);
+        this.board8Svr.testEndServer(0);
+    }
+
+    /**
+     * Wait for the emulator to have been sent a number of frames.
+     */
+    private void waitForFrames(int frameCount) throws InterruptedException {
+        for (int i = 0; i < 100 && this.board8Svr.getFrameCount() < frameCount; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void defineBoard8() {
+        this.libObject = new Imatic8LibMode();
+
+        this.libObject.execute("defip-8", "192.168.1.18");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(8).isFile(), "NOT present issue, b-8 INI");
+
+        this.libObject.execute("b-8", "off", "all", "on", "1", "3");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.board8Svr.getRelayMask(), 0x05);
+    }
+
+    @Test(dependsOnMethods = "defineBoard8")
+    public void divergedRelayRepaired() throws InterruptedException {
+        // the board actions the frame but the response is lost
+        this.board8Svr.testDropResponses(1);
+        this.libObject.execute("b-8", "off", "3");
+        assertTrue(this.libObject.getExitCode() < 0, "exit code: " + this.libObject.getExitCode());
+        this.board8Svr.testDropResponses(0);
+
+        this.board8Svr.resetCounters();
+        long repairedBefore = Im8Reconciler.getRepairedFrameCount();
+
+        Im8Reconciler.start(0, 100);
+        waitForFrames(1);
+        Thread.sleep(300);
+        Im8Reconciler.stop();
+
+        assertEquals(this.board8Svr.getFrameLog().toString(), "[3:off]");
+        assertEquals(this.board8Svr.getRelayMask(), 0x01);
+        assertTrue(Im8Reconciler.getRepairedFrameCount() > repairedBefore, "repair not counted");
+    }
+
+    @Test(dependsOnMethods = "divergedRelayRepaired")
+    public void reassertSendsEachRelayAtItsState() throws InterruptedException {
+        this.board8Svr.resetCounters();
+
+        Im8Reconciler.start(200, 100);
+        waitForFrames(8);
+        Im8Reconciler.stop();
+
+        List<String> frameList = this.board8Svr.getFrameLog();
+        assertTrue(frameList.size() >= 8, "frames: " + frameList);
+
+        assertEquals(frameList.subList(0, 8), Arrays.asList(
+                "1:on", "2:off", "3:off", "4:off", "5:off", "6:off", "7:off", "8:off"));
+        for (String frame : frameList) {
+            assertTrue(!frame.startsWith("all:"), "all frame sent: " + frameList);
+        }
+        assertEquals(this.board8Svr.getRelayMask(), 0x01);
+    }
+
+    @Test(dependsOnMethods = "reassertSendsEachRelayAtItsState")
+    public void stopDoesNotWaitForBoardIo() throws InterruptedException {
+        // a slow board holds up the pass, not the class lock
+        this.board8Svr.testResponseDelay(1500);
+        try {
+            this.board8Svr.resetCounters();
+            Im8Reconciler.start(100, 100);
+            waitForFrames(1);
+
+            long startMillis = System.currentTimeMillis();
+            Im8Reconciler.stop();
+            Im8Reconciler.getReassertedFrameCount();
+
+            long elapsedMillis = System.currentTimeMillis() - startMillis;
+            assertTrue(elapsedMillis < 500, "stop waited: " + elapsedMillis);
+        } finally {
+            this.board8Svr.testResponseDelay(0);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author dbradley
+ */
+@Test
+public class Im8ResponseDecoderTest {
+
+    private static final byte[] ON_3_ARR = new byte[]{(byte) 0xfd, 3, 1, 0x5d};
+    private static final byte[] ALL_OFF_ARR = new byte[]{(byte) 0xfd, (byte) 0xf8, (byte) 0x80, 0x5d};
+
+    @Test
+    public void testResponseSplitOverReads() {
+        Im8ResponseDecoder decoder = new Im8ResponseDecoder();
+        byte[] responseArr = new byte[8];
+
+        assertEquals(decoder.decode(new byte[]{(byte) 0xfd, 3}, 2, responseArr, 0, 2), 0);
+        assertEquals(decoder.decode(new byte[]{1, 0x5d}, 2, responseArr, 0, 2), 1);
+        assertEquals(responseArr[1], 3);
+        assertEquals(decoder.getInvalidCount(), 0);
+    }
+
+    @Test
+    public void testResponsesCoalescedInOneRead() {
+        Im8ResponseDecoder decoder = new Im8ResponseDecoder();
+        byte[] responseArr = new byte[8];
+        byte[] readArr = new byte[]{
+            (byte) 0xfd, 3, 1, 0x5d, (byte) 0xfd, (byte) 0xf8, (byte) 0x80, 0x5d};
+
+        assertEquals(decoder.decode(readArr, readArr.length, responseArr, 0, 2), 2);
+        assertEquals(responseArr[6], ALL_OFF_ARR[2]);
+    }
+
+    @Test
+    public void testStrayBytesBeforeResponse() {
+        Im8ResponseDecoder decoder = new Im8ResponseDecoder();
+        byte[] responseArr = new byte[4];
+        byte[] readArr = new byte[]{0, 0x11, (byte) 0xfd, 0x5d, (byte) 0xfd, 3, 1, 0x5d};
+
+        assertEquals(decoder.decode(readArr, readArr.length, responseArr, 0, 1), 1);
+        assertEquals(Arrays.equals(responseArr, ON_3_ARR), true);
+        assertEquals(decoder.getInvalidCount() > 0, true);
+    }
+
+    @Test
+    public void testUnknownCodeOrRelayIsInvalid() {
+        Im8ResponseDecoder decoder = new Im8ResponseDecoder();
+        byte[] responseArr = new byte[4];
+
+        assertEquals(decoder.decode(new byte[]{(byte) 0xfd, 3, 7, 0x5d}, 4, responseArr, 0, 1), 0);
+        assertEquals(decoder.decode(new byte[]{(byte) 0xfd, 9, 1, 0x5d}, 4, responseArr, 0, 1), 0);
+        assertEquals(decoder.getInvalidCount(), 2);
+    }
+}
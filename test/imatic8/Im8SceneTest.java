@@ -0,0 +1,129 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Scenes: each board of a scene is set to its states with only the frames
+ * that change them, the scenes file is loaded again when changed, and a
+ * scene is applied per board, so a board that fails does not undo the
+ * others.
+ *
+ * @author dbradley
+ */
+public class Im8SceneTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board6Svr;
+    private Im8TestShadowBoardSvr board7Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board6Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.16", 30000);
+        this.board7Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.17", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        Im8SceneIni.getScenesFile().delete();
+        this.board6Svr.testEndServer(0);
+        this.board7Svr.testEndServer(0);
+    }
+
+    private static void writeScenes(String... lineArr) throws IOException {
+        File scenesFile = Im8SceneIni.getScenesFile();
+        long previousModified = scenesFile.lastModified();
+
+        try (Writer writer = new FileWriter(scenesFile)) {
+            for (String line : lineArr) {
+                writer.write(line);
+                writer.write(System.lineSeparator());
+            }
+        }
+        // a change within the file time resolution is still seen
+        if (previousModified != 0 && scenesFile.lastModified() <= previousModified) {
+            scenesFile.setLastModified(previousModified + 2000);
+        }
+    }
+
+    @Test
+    public void defineBoards() {
+        this.libObject = new Imatic8LibMode();
+
+        this.libObject.execute("defip-6", "192.168.1.16");
+        this.libObject.execute("defip-7", "192.168.1.17");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(6).isFile(), "NOT present issue, b-6 INI");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(7).isFile(), "NOT present issue, b-7 INI");
+
+        // the emulators may hold relay states, and the boards an open breaker,
+        // from an earlier test class
+        Im8BoardHealthTest.closeBreaker(6);
+        Im8BoardHealthTest.closeBreaker(7);
+        this.libObject.execute("b-6", "off", "all", "b-7", "off", "all");
+        assertEquals(this.libObject.getExitCode(), 0);
+    }
+
+    @Test(dependsOnMethods = "defineBoards")
+    public void sceneSetsEachBoard() throws IOException {
+        writeScenes("evening.b-6=12------", "evening.b-7=---4----");
+
+        this.libObject.execute("scene", "Evening");
+        assertEquals(this.libObject.getExitCode(), 0);
+        assertEquals(this.libObject.getResponses(), Arrays.asList("Scene:b-6:ok", "Scene:b-7:ok"));
+
+        assertEquals(this.board6Svr.getRelayMask(), 0x03);
+        assertEquals(this.board7Svr.getRelayMask(), 0x08);
+    }
+
+    @Test(dependsOnMethods = "sceneSetsEachBoard")
+    public void onlyChangedRelaysSent() throws IOException {
+        writeScenes("evening.b-6=12------", "evening.b-7=---4----",
+                "away.b-6=1-------", "away.b-7=---4----");
+        this.board6Svr.resetCounters();
+        this.board7Svr.resetCounters();
+
+        this.libObject.execute("scene", "away");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        assertEquals(this.board6Svr.getFrameLog().toString(), "[2:off]");
+        // already in the scene's states, so no connection
+        assertEquals(this.board7Svr.getConnectionCount(), 0);
+    }
+
+    @Test(dependsOnMethods = "onlyChangedRelaysSent")
+    public void undefinedSceneIsAnError() {
+        this.libObject.execute("scene", "nosuchscene");
+        assertTrue(this.libObject.getExitCode() < 0, "exit code: " + this.libObject.getExitCode());
+        assertEquals(this.board6Svr.getRelayMask(), 0x01);
+    }
+
+    @Test(dependsOnMethods = "undefinedSceneIsAnError")
+    public void failedBoardDoesNotUndoOthers() throws IOException {
+        writeScenes("night.b-6=--------", "night.b-7=12345678");
+        this.board7Svr.testEndServer(0);
+
+        this.libObject.execute("scene", "night");
+        assertTrue(this.libObject.getExitCode() < 0, "exit code: " + this.libObject.getExitCode());
+
+        // only the board that failed is reported
+        String responses = this.libObject.getResponses().toString();
+        assertTrue(responses.contains("open comm: b-7"), "responses: " + responses);
+        assertFalse(responses.contains("b-6"), "responses: " + responses);
+
+        // not atomic: the board that succeeded keeps the scene's states
+        assertEquals(this.board6Svr.getRelayMask(), 0x00);
+    }
+}
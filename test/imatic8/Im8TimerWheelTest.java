@@ -0,0 +1,125 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Timer wheel: a task runs at or after its delay, in deadline order, a
+ * cancelled task does not run, a delay beyond one turn of the wheel waits
+ * for its rounds, and a failed task (even an Error) does not stop the wheel.
+ *
+ * @author dbradley
+ */
+@Test
+public class Im8TimerWheelTest {
+
+    private static Runnable recorder(final List<Integer> ranList, final int id, final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ranList.add(id);
+                latch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void delayIsNotEarly() throws Exception {
+        long startNanos = System.nanoTime();
+
+        Im8TimerWheel.getInstance().delay(50).get(2, TimeUnit.SECONDS);
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertTrue(elapsedMillis >= 50, "completed early: " + elapsedMillis);
+    }
+
+    @Test
+    public void tasksRunInDeadlineOrder() throws Exception {
+        List<Integer> ranList = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch latch = new CountDownLatch(3);
+
+        Im8TimerWheel wheel = Im8TimerWheel.getInstance();
+        wheel.schedule(recorder(ranList, 3, latch), 150);
+        wheel.schedule(recorder(ranList, 1, latch), 30);
+        wheel.schedule(recorder(ranList, 2, latch), 90);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS), "tasks not run");
+        assertEquals(ranList, Arrays.asList(1, 2, 3));
+    }
+
+    @Test
+    public void cancelledTaskDoesNotRun() throws Exception {
+        List<Integer> ranList = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch latch = new CountDownLatch(1);
+
+        Im8TimerWheel wheel = Im8TimerWheel.getInstance();
+        wheel.schedule(recorder(ranList, 1, latch), 30).cancel();
+
+        wheel.delay(100).get(2, TimeUnit.SECONDS);
+        assertTrue(ranList.isEmpty(), "cancelled task ran");
+    }
+
+    @Test
+    public void errorDoesNotStopTheWheel() throws Exception {
+        List<Integer> ranList = Collections.synchronizedList(new ArrayList<Integer>());
+        CountDownLatch latch = new CountDownLatch(1);
+
+        Im8TimerWheel wheel = Im8TimerWheel.getInstance();
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new AssertionError("test error thrown by a wheel task");
+            }
+        }, 20);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("test exception thrown by a wheel task");
+            }
+        }, 20);
+        // due in the same tick as the failed tasks
+        wheel.schedule(recorder(ranList, 1, latch), 20);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS), "task of the tick not run");
+        // and the wheel goes on turning
+        wheel.delay(50).get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void delayBeyondOneTurnWaitsItsRounds() throws Exception {
+        long turnMillis = (long) Im8TimerWheel.WHEEL_SIZE * Im8TimerWheel.TICK_MILLIS;
+        long startNanos = System.nanoTime();
+
+        CompletableFuture<Void> longFuture = Im8TimerWheel.getInstance().delay(turnMillis + 200);
+
+        // the bucket of the deadline comes round once before the task is due
+        Im8TimerWheel.getInstance().delay(400).get(2, TimeUnit.SECONDS);
+        assertFalse(longFuture.isDone(), "completed a turn early");
+
+        longFuture.get(turnMillis + 2000, TimeUnit.MILLISECONDS);
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        assertTrue(elapsedMillis >= turnMillis + 200, "completed early: " + elapsedMillis);
+    }
+
+    @Test
+    public void manyPausesComplete() throws Exception {
+        Im8TimerWheel wheel = Im8TimerWheel.getInstance();
+
+        CompletableFuture<?>[] futureArr = new CompletableFuture<?>[10000];
+        for (int i = 0; i < futureArr.length; i++) {
+            futureArr[i] = wheel.delay(i % 200);
+        }
+        CompletableFuture.allOf(futureArr).get(3, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,88 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Virtual-thread mode: asynchronous requests with pauses run concurrently,
+ * each on a thread of its own, so many of them end within about one pause.
+ *
+ * @author dbradley
+ */
+public class Im8VirtualThreadsTest extends LibTestClass {
+
+    private static final int REQUEST_COUNT = 50;
+
+    private static final long PAUSE_MILLIS = 200;
+
+    /** time allowed beyond the one pause for the sends of every request */
+    private static final long SEND_MARGIN_MILLIS = 1500;
+
+    private Im8TestShadowBoardSvr board12Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board12Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.23", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.libObject.setVirtualThreads(false);
+        this.board12Svr.testEndServer(0);
+    }
+
+    @Test
+    public void defineBoard12() {
+        this.libObject = new Imatic8LibMode();
+        this.libObject.setVirtualThreads(true);
+
+        this.libObject.execute("defip-12", "192.168.1.23");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(12).isFile(), "NOT present issue, b-12 INI");
+
+        // the emulator may hold relay states from an earlier test run
+        this.libObject.execute("b-12", "off", "all");
+        assertEquals(this.libObject.getExitCode(), 0);
+    }
+
+    @Test
+    public void virtualOnlyWhenRuntimeHasThem() {
+        // virtual threads are in the Java 21 and later runtimes
+        String specVersion = System.getProperty("java.specification.version");
+        boolean runtimeVirtual = !specVersion.startsWith("1.") && Integer.parseInt(specVersion) >= 21;
+
+        assertEquals(Im8VirtualThreads.isVirtual(), runtimeVirtual, "Java " + specVersion);
+    }
+
+    @Test(dependsOnMethods = "defineBoard12")
+    public void pausedRequestsRunConcurrently() throws Exception {
+        this.board12Svr.resetCounters();
+
+        long startMillis = System.currentTimeMillis();
+        List<CompletableFuture<Imatic8LibResult>> futureList = new ArrayList<>();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            futureList.add(this.libObject.executeAsync("b-12", "on", "1", "ms:" + PAUSE_MILLIS, "off", "1"));
+        }
+        for (CompletableFuture<Imatic8LibResult> resultFuture : futureList) {
+            assertEquals(resultFuture.get(10, TimeUnit.SECONDS).getExitCode(), 0);
+        }
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        // one after the other would take REQUEST_COUNT pauses
+        assertTrue(elapsedMillis < PAUSE_MILLIS + SEND_MARGIN_MILLIS, "elapsed ms: " + elapsedMillis);
+
+        assertEquals(this.board12Svr.getFrameCount(), 2 * REQUEST_COUNT);
+        assertEquals(this.board12Svr.getRelayMask() & 0x01, 0);
+    }
+}
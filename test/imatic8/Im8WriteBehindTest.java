@@ -0,0 +1,104 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import boardemulator.Im8TestShadowBoardSvr;
+import func.library.LibTestClass;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Write-behind of the relay states: stored at the end of a request, held
+ * until the flush on an interval, and a flush with fsync.
+ *
+ * @author dbradley
+ */
+public class Im8WriteBehindTest extends LibTestClass {
+
+    private Im8TestShadowBoardSvr board3Svr;
+
+    private Imatic8LibMode libObject;
+
+    @BeforeClass
+    public void allocBoards() {
+        this.board3Svr = Im8TestShadowBoardSvr.createEmulatorForIP("192.168.1.13", 30000);
+    }
+
+    @AfterClass
+    public void cleanupAfterClass() {
+        this.libObject.setWriteBehindFlushInterval(0);
+        this.libObject.setWriteBehindFsync(false);
+        this.board3Svr.testEndServer(0);
+    }
+
+    /**
+     * Get a relay state as stored in the board-3 INI file.
+     */
+    private static String storedRelayState(int relayN) throws IOException {
+        Properties iniProps = new Properties();
+        try (FileInputStream iStream = new FileInputStream(Im8BoardIniTest.getBoardIniFile4Test(3))) {
+            iniProps.load(iStream);
+        }
+        return iniProps.getProperty("R" + relayN);
+    }
+
+    @Test
+    public void defineBoard3() {
+        this.libObject = new Imatic8LibMode();
+        this.libObject.setWriteBehind(true);
+
+        this.libObject.execute("defip-3", "192.168.1.13");
+        assertTrue(Im8BoardIniTest.getBoardIniFile4Test(3).isFile(), "NOT present issue, b-3 INI");
+
+        // the board may have an open breaker from an earlier test class
+        Im8BoardHealthTest.closeBreaker(3);
+    }
+
+    @Test(dependsOnMethods = "defineBoard3")
+    public void storedAtEndOfRequest() throws IOException {
+        this.libObject.execute("b-3", "on", "1", "2", "3", "4");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        for (int relayN = 1; relayN <= 4; relayN++) {
+            assertEquals(storedRelayState(relayN), "on");
+        }
+        assertEquals(storedRelayState(5), "off");
+    }
+
+    @Test(dependsOnMethods = "storedAtEndOfRequest")
+    public void heldUntilFlush() throws IOException {
+        this.libObject.setWriteBehindFlushInterval(60000);
+
+        this.libObject.execute("b-3", "off", "2", "3");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        // the request has ended, but the interval has not
+        assertEquals(storedRelayState(2), "on");
+
+        this.libObject.execute("b-3", "status");
+        assertEquals(this.libObject.getResponses().get(0), "Status:b-3:1--4----");
+
+        assertTrue(this.libObject.flushRelayStates());
+        assertEquals(storedRelayState(2), "off");
+        assertEquals(storedRelayState(3), "off");
+    }
+
+    @Test(dependsOnMethods = "heldUntilFlush")
+    public void flushWithFsync() throws IOException {
+        this.libObject.setWriteBehindFsync(true);
+
+        this.libObject.execute("b-3", "on", "8");
+        assertEquals(this.libObject.getExitCode(), 0);
+
+        assertTrue(this.libObject.flushRelayStates());
+        assertEquals(storedRelayState(8), "on");
+
+        // nothing left to store
+        assertTrue(this.libObject.flushRelayStates());
+    }
+}
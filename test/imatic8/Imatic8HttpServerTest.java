@@ -0,0 +1,88 @@
+/* Copyright (c) 2017 dbradley. */
+package imatic8;
+
+import func.library.LibTestClass;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * HTTP server: bound to the loopback address unless all interfaces are asked
+ * for, and an argument error answered as the caller's error (400) rather
+ * than the server's (500).
+ *
+ * @author dbradley
+ */
+public class Imatic8HttpServerTest extends LibTestClass {
+
+    private Imatic8HttpServer server;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        this.server = new Imatic8HttpServer(0);
+        this.server.start();
+    }
+
+    @AfterClass
+    public void stopServer() {
+        this.server.stop(0);
+    }
+
+    private int postExec(String body) throws IOException {
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), this.server.getPort(), "/exec");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream oStream = connection.getOutputStream()) {
+                oStream.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void boundToLoopbackByDefault() {
+        assertTrue(this.server.getAddress().getAddress().isLoopbackAddress(),
+                "bound to: " + this.server.getAddress());
+    }
+
+    @Test
+    public void allInterfacesIsAnOptIn() throws IOException {
+        Imatic8HttpServer wideServer = new Imatic8HttpServer(0, true);
+        try {
+            assertTrue(wideServer.getAddress().getAddress().isAnyLocalAddress(),
+                    "bound to: " + wideServer.getAddress());
+        } finally {
+            wideServer.stop(0);
+        }
+    }
+
+    @Test
+    public void argumentErrorIsBadRequest() throws IOException {
+        // a relay number with no on or off before it
+        assertEquals(postExec("3"), 400);
+        assertEquals(postExec("on 9"), 400);
+    }
+
+    @Test
+    public void exitCodesMapToHttpStatus() {
+        assertEquals(Imatic8HttpServer.getHttpStatus(0), 200);
+        assertEquals(Imatic8HttpServer.getHttpStatus(1), 200);
+        assertEquals(Imatic8HttpServer.getHttpStatus(-1), 400);
+        assertEquals(Imatic8HttpServer.getHttpStatus(-2), 400);
+        assertEquals(Imatic8HttpServer.getHttpStatus(-5), 400);
+        assertEquals(Imatic8HttpServer.getHttpStatus(-96), 500);
+        assertEquals(Imatic8HttpServer.getHttpStatus(-99), 500);
+    }
+}